@@ -0,0 +1,196 @@
+
+package es.trapasoft.jsf.bench;
+
+import es.trapasoft.jsf.dao.DAOFactory;
+import es.trapasoft.jsf.dao.DAOProperties;
+import es.trapasoft.jsf.models.Project;
+import es.trapasoft.jsf.models.User;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Random;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The database shared by all threads of a benchmark trial: the embedded H2 database configured as
+ * 'bench' in the benchmark dao.properties, with the schema of the application recreated and seeded
+ * with the given amounts of users, projects and memberships before each trial. The seed is fixed,
+ * so every trial sees the same data.
+ *
+ * @author alejandro
+ */
+@State(Scope.Benchmark)
+public class BenchDatabase {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    /** The words the project names are made of, and the terms searched for. */
+    static final String[] WORDS = {
+        "Migración", "Portal", "Oracle", "Intranet", "Nóminas", "Almacén", "Facturación", "Móvil"
+    };
+
+    private static final String DATABASE = "bench";
+    private static final String SCHEMA = "schema.sql";
+    private static final long SEED = 42;
+
+    private static final String SQL_INSERT_MEMBERSHIP
+        = "INSERT INTO projects_users (user_id, project_id) VALUES (?, ?)";
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    @Param({ "1000", "100000" })
+    public int users;
+
+    @Param({ "500" })
+    public int projects;
+
+    @Param({ "5" })
+    public int projectsPerUser;
+
+    private DAOFactory daoFactory;
+    private long[] userIds;
+    private long[] projectIds;
+
+    // Actions ------------------------------------------------------------------------------------
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        daoFactory = DAOFactory.getInstance(DATABASE);
+        Random random = new Random(SEED);
+
+        try (Connection connection = connect()) {
+            runScript(connection);
+        }
+
+        List<User> newUsers = new ArrayList<User>(users);
+        Calendar birthdate = Calendar.getInstance();
+        for (int i = 0; i < users; i++) {
+            User user = new User();
+            user.setEmail("user" + i + "@bench.trapasoft.es");
+            user.setPassword("secret" + i);
+            user.setFirstname("Nombre" + i);
+            user.setLastname("Apellido" + (i % 1000));
+            birthdate.set(1950 + random.nextInt(50), random.nextInt(12), 1 + random.nextInt(28));
+            user.setBirthdate(birthdate.getTime());
+            newUsers.add(user);
+        }
+        daoFactory.getUserDAO().createAll(newUsers);
+
+        List<Project> newProjects = new ArrayList<Project>(projects);
+        for (int i = 0; i < projects; i++) {
+            Project project = new Project();
+            project.setName("Proyecto " + WORDS[i % WORDS.length] + " " + i);
+            project.setDescription("Descripción del proyecto " + i);
+            project.setStartDate(birthdate.getTime());
+            project.setEstimatedHours(random.nextInt(1000));
+            newProjects.add(project);
+        }
+        daoFactory.getProjectDAO().createAll(newProjects);
+
+        userIds = new long[users];
+        for (int i = 0; i < users; i++) {
+            userIds[i] = newUsers.get(i).getId();
+        }
+        projectIds = new long[projects];
+        for (int i = 0; i < projects; i++) {
+            projectIds[i] = newProjects.get(i).getId();
+        }
+
+        seedMemberships(random);
+    }
+
+    // Getters ------------------------------------------------------------------------------------
+
+    DAOFactory getDAOFactory() {
+        return daoFactory;
+    }
+
+    long userId(Random random) {
+        return userIds[random.nextInt(userIds.length)];
+    }
+
+    long projectId(Random random) {
+        return projectIds[random.nextInt(projectIds.length)];
+    }
+
+    long projectId(int index) {
+        return projectIds[index % projectIds.length];
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    private Connection connect() throws SQLException {
+        DAOProperties properties = new DAOProperties(DATABASE);
+        return DriverManager.getConnection(properties.getProperty("url", true),
+            properties.getProperty("username", false), properties.getProperty("password", false));
+    }
+
+    /**
+     * Run the statements of the schema script, which are separated by semicolons.
+     */
+    private static void runScript(Connection connection) throws IOException, SQLException {
+        StringBuilder script = new StringBuilder();
+
+        try (
+            InputStream input = BenchDatabase.class.getResourceAsStream(SCHEMA);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        ) {
+            for (String line; (line = reader.readLine()) != null;) {
+                script.append(line).append('\n');
+            }
+        }
+
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : script.toString().split(";")) {
+                if (!sql.trim().isEmpty()) {
+                    statement.execute(sql);
+                }
+            }
+        }
+    }
+
+    /**
+     * Assign every user to 'projectsPerUser' distinct random projects.
+     */
+    private void seedMemberships(Random random) throws SQLException {
+        int perUser = Math.min(projectsPerUser, projects);
+
+        try (
+            Connection connection = connect();
+            PreparedStatement statement = connection.prepareStatement(SQL_INSERT_MEMBERSHIP);
+        ) {
+            connection.setAutoCommit(false);
+            int batched = 0;
+
+            for (long userId : userIds) {
+                int first = random.nextInt(projects);
+                for (int i = 0; i < perUser; i++) {
+                    statement.setLong(1, userId);
+                    statement.setLong(2, projectIds[(first + i) % projects]);
+                    statement.addBatch();
+                    if (++batched % 1000 == 0) {
+                        statement.executeBatch();
+                    }
+                }
+            }
+
+            statement.executeBatch();
+            connection.commit();
+        }
+    }
+
+}
@@ -0,0 +1,51 @@
+
+package es.trapasoft.jsf.bench;
+
+import java.io.File;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the DAO benchmarks once per thread count and writes the results of each run as JSON to
+ * 'results-N-threads.json' in the results directory. The thread counts and the results directory
+ * are given by the 'bench.threads' (default "1,4,16") and 'bench.results' (default "build/bench")
+ * system properties. The arguments are passed to JMH as is, for example "-p users=1000" to seed a
+ * single data size, or a regular expression to select benchmarks.
+ *
+ * @author alejandro
+ */
+public final class BenchmarkMain {
+
+    private BenchmarkMain() {
+        // Main class, hide constructor.
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options arguments = new CommandLineOptions(args);
+        String[] threadCounts = System.getProperty("bench.threads", "1,4,16").split(",");
+        File results = new File(System.getProperty("bench.results", "build/bench"));
+
+        if (!results.isDirectory() && !results.mkdirs()) {
+            throw new IllegalStateException("Cannot create results directory " + results + ".");
+        }
+
+        for (String threadCount : threadCounts) {
+            int threads = Integer.parseInt(threadCount.trim());
+            OptionsBuilder builder = new OptionsBuilder();
+            if (arguments.getIncludes().isEmpty()) {
+                builder.include(BenchmarkMain.class.getPackage().getName() + "\\..*Benchmark");
+            }
+            Options options = builder
+                .parent(arguments)
+                .threads(threads)
+                .resultFormat(ResultFormatType.JSON)
+                .result(new File(results, "results-" + threads + "-threads.json").getPath())
+                .build();
+            new Runner(options).run();
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+
+package es.trapasoft.jsf.bench;
+
+import es.trapasoft.jsf.dao.ProjectDAO;
+import es.trapasoft.jsf.models.Project;
+import es.trapasoft.jsf.models.User;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the {@link ProjectDAO} operations against the seeded {@link BenchDatabase}.
+ *
+ * @author alejandro
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProjectDAOBenchmark {
+
+    // Benchmarks ---------------------------------------------------------------------------------
+
+    @Benchmark
+    public Project find(BenchDatabase database, Caller caller) {
+        return caller.projectDAO.find(database.projectId(caller.random));
+    }
+
+    @Benchmark
+    public List<Project> findByName(Caller caller) {
+        String word = BenchDatabase.WORDS[caller.random.nextInt(BenchDatabase.WORDS.length)];
+        return caller.projectDAO.find(word.substring(1, 5));
+    }
+
+    @Benchmark
+    public List<User> findUsersByProjectId(BenchDatabase database, Caller caller) {
+        return caller.projectDAO.findUsersByProjectId(database.projectId(caller.random));
+    }
+
+    @Benchmark
+    public List<Project> findChildren(BenchDatabase database, Caller caller) {
+        return caller.projectDAO.findChildren(database.projectId(caller.random));
+    }
+
+    // Inner classes ------------------------------------------------------------------------------
+
+    /**
+     * The state of a calling thread: its own DAO and random generator.
+     */
+    @State(Scope.Thread)
+    public static class Caller {
+        ProjectDAO projectDAO;
+        Random random;
+
+        @Setup(Level.Trial)
+        public void setUp(BenchDatabase database) {
+            projectDAO = database.getDAOFactory().getProjectDAO();
+            random = new Random(Thread.currentThread().getId());
+        }
+    }
+
+}
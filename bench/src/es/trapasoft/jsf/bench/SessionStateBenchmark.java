@@ -0,0 +1,203 @@
+
+package es.trapasoft.jsf.bench;
+
+import es.trapasoft.jsf.models.Project;
+import es.trapasoft.jsf.models.User;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of serializing the session state of the user page, which is what a session
+ * replication or passivation pays per session. "before" is the selected user as the session held
+ * it before the models were Externalizable: default Java serialization of the user with its
+ * projects and, in eager fetch mode, their users. "after" is the compact encoding of the same
+ * user, which leaves out the associations. No database is needed.
+ *
+ * Run the {@link #main(String[])} method ("ant bench-session") to print the bytes per session
+ * of both for a few graph sizes.
+ *
+ * @author alejandro
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SessionStateBenchmark {
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    @Param({ "5", "50" })
+    public int projectsPerUser;
+
+    @Param({ "10" })
+    public int usersPerProject;
+
+    private User user;
+    private LegacyUser legacyUser;
+
+    // Setup --------------------------------------------------------------------------------------
+
+    @Setup
+    public void setUp() {
+        user = session(projectsPerUser, usersPerProject);
+        legacyUser = LegacyUser.of(user, true);
+    }
+
+    // Benchmarks ---------------------------------------------------------------------------------
+
+    @Benchmark
+    public byte[] before() throws IOException {
+        return serialize(legacyUser);
+    }
+
+    @Benchmark
+    public byte[] after() throws IOException {
+        return serialize(user);
+    }
+
+    // Main ---------------------------------------------------------------------------------------
+
+    public static void main(String[] args) throws IOException {
+        System.out.println("projects  users/project  before (bytes)  after (bytes)");
+        for (int projects : new int[] { 0, 5, 50 }) {
+            User user = session(projects, 10);
+            System.out.printf("%8d  %13d  %14d  %13d%n", projects, 10,
+                serialize(LegacyUser.of(user, true)).length, serialize(user).length);
+        }
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    /**
+     * Returns the selected user of a session, with the given amount of projects which each have
+     * the given amount of users.
+     */
+    static User session(int projects, int usersPerProject) {
+        User user = user(1);
+
+        for (int i = 0; i < projects; i++) {
+            Project project = new Project();
+            project.setId(1000L + i);
+            project.setName(BenchDatabase.WORDS[i % BenchDatabase.WORDS.length] + " " + i);
+            project.setDescription("Proyecto de " + project.getName() + " para el cliente " + i);
+            project.setStartDate(day(2014, i % 12));
+            project.setDueDate(day(2015, i % 12));
+            project.setCreatedAt(new Date(1400000000000L + i * 1000L));
+            project.setUpdatedAt(project.getCreatedAt());
+            project.setEstimatedHours(40 + i);
+            for (int j = 0; j < usersPerProject; j++) {
+                project.getUsers().add(user(2 + j));
+            }
+            user.getProjects().add(project);
+        }
+
+        return user;
+    }
+
+    private static User user(int id) {
+        User user = new User();
+        user.setId((long) id);
+        user.setEmail("usuario" + id + "@trapasoft.es");
+        user.setFirstname("Nombre" + id);
+        user.setLastname("Apellido" + id);
+        user.setBirthdate(day(1980, id % 12));
+        return user;
+    }
+
+    private static Date day(int year, int month) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month, 1);
+        return calendar.getTime();
+    }
+
+    private static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    // Inner classes ------------------------------------------------------------------------------
+
+    /**
+     * The User model as it was serialized before, by default Java serialization.
+     */
+    static final class LegacyUser implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private Long id;
+        private String email;
+        private String password;
+        private String firstname;
+        private String lastname;
+        private Date birthdate;
+        private List<LegacyProject> projects = new ArrayList<LegacyProject>();
+
+        static LegacyUser of(User user, boolean withProjects) {
+            LegacyUser legacy = new LegacyUser();
+            legacy.id = user.getId();
+            legacy.email = user.getEmail();
+            legacy.password = user.getPassword();
+            legacy.firstname = user.getFirstname();
+            legacy.lastname = user.getLastname();
+            legacy.birthdate = user.getBirthdate();
+            if (withProjects) {
+                for (Project project : user.getProjects()) {
+                    legacy.projects.add(LegacyProject.of(project));
+                }
+            }
+            return legacy;
+        }
+    }
+
+    /**
+     * The Project model as it was serialized before, by default Java serialization.
+     */
+    static final class LegacyProject implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private Long id, parentId;
+        private String name, description;
+        private Date startDate, dueDate, createdAt, updatedAt;
+        private double estimatedHours;
+        private List<LegacyUser> users = new ArrayList<LegacyUser>();
+
+        static LegacyProject of(Project project) {
+            LegacyProject legacy = new LegacyProject();
+            legacy.id = project.getId();
+            legacy.parentId = project.getParentId();
+            legacy.name = project.getName();
+            legacy.description = project.getDescription();
+            legacy.startDate = project.getStartDate();
+            legacy.dueDate = project.getDueDate();
+            legacy.createdAt = project.getCreatedAt();
+            legacy.updatedAt = project.getUpdatedAt();
+            legacy.estimatedHours = project.getEstimatedHours();
+            for (User user : project.getUsers()) {
+                legacy.users.add(LegacyUser.of(user, false));
+            }
+            return legacy;
+        }
+    }
+
+}
@@ -0,0 +1,132 @@
+
+package es.trapasoft.jsf.bench;
+
+import es.trapasoft.jsf.dao.UserDAO;
+import es.trapasoft.jsf.models.Project;
+import es.trapasoft.jsf.models.User;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the {@link UserDAO} operations against the seeded {@link BenchDatabase}. Every
+ * thread picks its own random users and projects from a fixed seed.
+ *
+ * @author alejandro
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserDAOBenchmark {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    private static final int PAGE_SIZE = 20;
+    private static final Map<String, String> NO_FILTERS = Collections.emptyMap();
+    private static final AtomicLong CREATED = new AtomicLong();
+
+    // Benchmarks ---------------------------------------------------------------------------------
+
+    @Benchmark
+    public User find(BenchDatabase database, Caller caller) {
+        return caller.userDAO.find(database.userId(caller.random));
+    }
+
+    @Benchmark
+    public List<User> listFirstPage(Caller caller) {
+        return caller.userDAO.list((User) null, PAGE_SIZE, "lastname", true, NO_FILTERS);
+    }
+
+    @Benchmark
+    public List<User> listPageByOffset(BenchDatabase database, Caller caller) {
+        int offset = caller.random.nextInt(Math.max(1, database.users - PAGE_SIZE));
+        return caller.userDAO.list(offset, PAGE_SIZE, "lastname", true, NO_FILTERS);
+    }
+
+    @Benchmark
+    public List<Project> findProjectsByUserId(BenchDatabase database, Caller caller) {
+        return caller.userDAO.findProjectsByUserId(database.userId(caller.random));
+    }
+
+    @Benchmark
+    public User login(BenchDatabase database, Caller caller) {
+        int i = caller.random.nextInt(database.users);
+        return caller.userDAO.find("user" + i + "@bench.trapasoft.es", "secret" + i);
+    }
+
+    @Benchmark
+    public User create(Caller caller) {
+        User user = new User();
+        user.setEmail("created" + CREATED.incrementAndGet() + "@bench.trapasoft.es");
+        user.setPassword("secret");
+        user.setFirstname("Nuevo");
+        user.setLastname("Usuario");
+        caller.userDAO.create(user);
+        return user;
+    }
+
+    /**
+     * Assign a project to the user of the calling thread and unassign it again, so that the table
+     * keeps its size and threads never write the same row.
+     */
+    @Benchmark
+    public void addAndRemoveProject(BenchDatabase database, Member member) {
+        long projectId = database.projectId(member.next++);
+        member.userDAO.addProjectToUser(member.userId, projectId);
+        member.userDAO.delProjectFromUser(member.userId, projectId);
+    }
+
+    // Inner classes ------------------------------------------------------------------------------
+
+    /**
+     * The state of a calling thread: its own DAO and random generator.
+     */
+    @State(Scope.Thread)
+    public static class Caller {
+        UserDAO userDAO;
+        Random random;
+
+        @Setup(Level.Trial)
+        public void setUp(BenchDatabase database) {
+            userDAO = database.getDAOFactory().getUserDAO();
+            random = new Random(Thread.currentThread().getId());
+        }
+    }
+
+    /**
+     * The state of a thread doing membership writes: a user of its own without projects.
+     */
+    @State(Scope.Thread)
+    public static class Member {
+        UserDAO userDAO;
+        long userId;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp(BenchDatabase database) {
+            userDAO = database.getDAOFactory().getUserDAO();
+            User user = new User();
+            user.setEmail("member" + CREATED.incrementAndGet() + "@bench.trapasoft.es");
+            user.setPassword("secret");
+            userDAO.create(user);
+            userId = user.getId();
+        }
+    }
+
+}
@@ -0,0 +1,34 @@
+DROP TABLE IF EXISTS projects_users;
+DROP TABLE IF EXISTS projects;
+DROP TABLE IF EXISTS users;
+
+CREATE TABLE users (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    email VARCHAR(60) NOT NULL UNIQUE,
+    password VARCHAR(128),
+    firstname VARCHAR(40),
+    lastname VARCHAR(40),
+    birthdate DATE
+);
+
+CREATE TABLE projects (
+    id INT AUTO_INCREMENT PRIMARY KEY,
+    name VARCHAR(100) NOT NULL,
+    description TEXT,
+    startDate DATE,
+    dueDate DATE,
+    estimatedHours DOUBLE,
+    createdAt TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    updatedAt TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    parent_id INT
+);
+
+CREATE TABLE projects_users (
+    user_id BIGINT NOT NULL,
+    project_id INT NOT NULL,
+    PRIMARY KEY (user_id, project_id)
+);
+
+CREATE INDEX projects_users_project ON projects_users (project_id, user_id);
+CREATE INDEX projects_parent ON projects (parent_id);
+CREATE INDEX users_lastname ON users (lastname);
@@ -0,0 +1,66 @@
+package es.trapasoft.jsf.beans;
+
+import es.trapasoft.jsf.dao.UserDirectory;
+import es.trapasoft.jsf.models.User;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.primefaces.model.LazyDataModel;
+import org.primefaces.model.SortOrder;
+
+/**
+ * Modelo de datos perezoso para la tabla de usuarios. Las páginas salen del UserDirectory, la
+ * copia en memoria de la tabla users compartida por toda la aplicación: ordenar, filtrar y paginar
+ * no van a la bd, y la sesión no guarda ninguna lista de usuarios, sólo la referencia al
+ * directorio. Los usuarios grabados por cualquier sesión aparecen en la siguiente lectura sin
+ * tener que recargar nada.
+ *
+ * Las filas de las páginas son los usuarios compartidos del directorio y sólo se pintan. La fila
+ * seleccionada, de {@link #getRowData(String)}, es una copia, para que editarla en el formulario
+ * no cambie el usuario que ven las demás sesiones.
+ *
+ * @author alejandro
+ */
+public class LazyUserDataModel extends LazyDataModel<User> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final UserDirectory userDirectory;
+
+    public LazyUserDataModel(UserDirectory userDirectory) {
+        this.userDirectory = userDirectory;
+    }
+
+    @Override
+    public List<User> load(int first, int pageSize, String sortField, SortOrder sortOrder,
+            Map<String, Object> filters) {
+        Map<String, String> stringFilters = new TreeMap<String, String>();
+        if (filters != null) {
+            for (Map.Entry<String, Object> filter : filters.entrySet()) {
+                if (filter.getValue() != null) {
+                    stringFilters.put(filter.getKey(), filter.getValue().toString());
+                }
+            }
+        }
+
+        List<User> users = userDirectory.list(sortField, sortOrder != SortOrder.DESCENDING, stringFilters);
+        setRowCount(users.size());
+
+        int from = Math.min(first, users.size());
+        return users.subList(from, Math.min(from + pageSize, users.size()));
+    }
+
+    @Override
+    public Object getRowKey(User user) {
+        return user.getId();
+    }
+
+    /**
+     * Devuelve una copia del usuario de la fila, que se puede modificar.
+     */
+    @Override
+    public User getRowData(String rowKey) {
+        return userDirectory.find(Long.valueOf(rowKey));
+    }
+
+}
@@ -4,15 +4,19 @@
  */
 package es.trapasoft.jsf.beans;
 
+import es.trapasoft.jsf.dao.AsyncUserDAO;
 import es.trapasoft.jsf.dao.DAOFactory;
+import es.trapasoft.jsf.dao.DAORegistry;
+import es.trapasoft.jsf.dao.DAOUtil;
+import es.trapasoft.jsf.dao.FetchMode;
 import es.trapasoft.jsf.dao.UserDAO;
+import es.trapasoft.jsf.models.Project;
 import es.trapasoft.jsf.models.User;
 import java.io.Serializable;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.annotation.PostConstruct;
@@ -31,11 +35,19 @@ import org.primefaces.event.UnselectEvent;
 public class UserBean implements Serializable {
 
     private static final long serialVersionUID = 8799656478674716638L;
-    private DAOFactory javabase;
-    private UserDAO userDAO;
-    private List<User> users;
+    private static final String DATABASE = "javabase.jdbc";
 
-    private User selectedUser;
+    // los DAO no se guardan en la sesión: se vuelven a obtener al primer uso tras recuperarla
+    // (connect)
+    private transient DAOFactory javabase;
+    private transient UserDAO userDAO;
+    private transient AsyncUserDAO asyncUserDAO;
+    private transient LazyUserDataModel lazyUsers;
+
+    // lo único que se guarda: el id del usuario seleccionado. El usuario y sus proyectos se vuelven
+    // a leer de la bd al primer acceso tras recuperar la sesión (getSelectedUser)
+    private Long selectedUserId;
+    private transient User selectedUser;
 
     private static Logger LOG = Logger.getLogger(UserBean.class.getName());
 
@@ -47,12 +59,39 @@ public class UserBean implements Serializable {
 
     @PostConstruct
     public void init() {
-        javabase = DAOFactory.getInstance("javabase.jdbc");
-        userDAO = javabase.getUserDAO();
-        users = userDAO.list();
+        connect();
         selectedUser = new User();
-        LOG.log(Level.INFO, "Init: users tiene " + users.size() + " registros.");
+    }
 
+    /**
+     * Obtiene los DAO compartidos de la aplicación, si aún no se tienen; se llama al crear la
+     * sesión y en el primer uso tras recuperarla de una serialización (pasivación o replicación en
+     * el cluster), no al deserializarla, para no ir a la bd mientras se lee la sesión.
+     */
+    private void connect() {
+        if (javabase != null) {
+            return;
+        }
+        javabase = DAORegistry.get(DATABASE);
+        userDAO = javabase.getUserDAO();
+        // perezoso: load() pide los proyectos aparte, a la vez que el usuario
+        asyncUserDAO = javabase.getAsyncUserDAO(FetchMode.LAZY);
+        lazyUsers = new LazyUserDataModel(javabase.getUserDirectory());
+    }
+
+    /**
+     * Lee el usuario con el id dado y sus proyectos a la vez que el usuario, en lugar de al
+     * pintarlos.
+     */
+    private User load(Long userId) {
+        connect();
+        CompletableFuture<User> user = asyncUserDAO.find(userId);
+        CompletableFuture<List<Project>> projects = asyncUserDAO.findProjectsByUserId(userId);
+        User loaded = DAOUtil.join(user);
+        if (loaded != null) {
+            loaded.setProjects(DAOUtil.join(projects));
+        }
+        return loaded;
     }
 
     /* ------------- ACCIONES ------------------- */
@@ -71,22 +110,22 @@ public class UserBean implements Serializable {
                 RequestContext.getCurrentInstance().openDialog("userdetaildlg", options, null);
     }
 
-    public String salvarUsuario() throws NoSuchAlgorithmException {
-        // como en el formulario no le pido el password, meto aqui 'farola' para que se grabe
-        MessageDigest md = MessageDigest.getInstance("MD5");
-        byte[] thedigest = md.digest(new String("farola").getBytes());
-        selectedUser.setPassword(new String(thedigest));
-        userDAO.create(selectedUser);
-        // rellenar de nuevo la lista de usuarios
-        users = userDAO.list();
+    public String salvarUsuario() {
+        // como en el formulario no le pido el password, meto aqui 'farola' para que se grabe;
+        // el DAO lo guarda cifrado (PasswordHasher)
+        connect();
+        User user = getSelectedUser();
+        user.setPassword("farola");
+        // el DAO añade el usuario al directorio compartido, que es de donde lee la tabla
+        userDAO.create(user);
+        selectedUserId = user.getId();
         return "user";
     }
 
     /* ------------ EVENTOS -------------------- */
     public void onRowSelect(SelectEvent event) {
-        Long userId = ((User) event.getObject()).getId();
-        // rellenar selected user
-        setSelectedUser(userDAO.find(userId));
+        // rellenar selected user con el usuario y sus proyectos de la bd
+        setSelectedUser(load(((User) event.getObject()).getId()));
     }
 
     public void onRowUnselect(UnselectEvent event) {
@@ -94,25 +133,29 @@ public class UserBean implements Serializable {
     }
 
     /* ------------- GETTERS / SETTERS ----------------- */
-    public List<User> getUsers() {
-        return users;
+    public LazyUserDataModel getLazyUsers() {
+        connect();
+        return lazyUsers;
     }
 
     public User getSelectedUser() {
+        if (selectedUser == null) {
+            // primer acceso tras recuperar la sesión: se vuelve a leer el usuario seleccionado
+            User user = (selectedUserId != null) ? load(selectedUserId) : null;
+            selectedUser = (user != null) ? user : new User();
+        }
         return selectedUser;
     }
 
     public void setSelectedUser(User s) {
         selectedUser = s;
+        selectedUserId = (s != null) ? s.getId() : null;
         if (selectedUser != null) {
             LOG.log(Level.INFO, "voy a cargar el usuario con id: " + selectedUser.getId());
         } else {
             LOG.log(Level.INFO, "voy a cargar el usuario con id: nulo");
         }
-
-        if (!selectedUser.isEmpty()) {
-            selectedUser.setProjects(userDAO.findProjectsByUserId(selectedUser.getId()));
-        }
+        // los proyectos del usuario los carga onRowSelect (load)
     }
 
 }
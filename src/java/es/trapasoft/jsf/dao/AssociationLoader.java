@@ -0,0 +1,283 @@
+
+package es.trapasoft.jsf.dao;
+
+import es.trapasoft.jsf.models.Project;
+import es.trapasoft.jsf.models.User;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Carga en bloque las asociaciones de la tabla projects_users. En lugar de lanzar una consulta por
+ * cada proyecto o usuario, lanza una consulta por cada bloque de hasta {@link #CHUNK_SIZE} ids con
+ * una lista IN, y reparte las filas obtenidas. Así el número de consultas no depende del número de
+ * entidades de la lista.
+ *
+ * Las asociaciones se cargan en el momento o se dejan como {@link LazyList}, según el
+ * {@link FetchMode} del DAO. Las entidades obtenidas a través de una asociación no traen
+ * a su vez sus propias asociaciones.
+ *
+ * @author alejandro
+ */
+final class AssociationLoader {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    /** Máximo de ids por consulta, para no pasarse del tamaño de paquete ni del plan del IN. */
+    static final int CHUNK_SIZE = 500;
+
+    private static final String SQL_FIND_USERS_BY_PROJECT_IDS
+            = "select pu.project_id, " + RowMapper.USER.columns("u")
+            + " from projects_users pu join users u on u.id = pu.user_id where pu.project_id in (%s)";
+    private static final String SQL_FIND_PROJECTS_BY_USER_IDS
+            = "select pu.user_id, " + RowMapper.PROJECT.columns("p")
+            + " from projects_users pu join projects p on p.id = pu.project_id where pu.user_id in (%s)";
+
+    /** Los usuarios de cada proyecto. */
+    static final Association<User> USERS_BY_PROJECT = new Association<User>() {
+        @Override
+        public Map<Long, List<User>> find(Connection connection, Collection<Long> projectIds)
+            throws SQLException
+        {
+            return query(connection, SQL_FIND_USERS_BY_PROJECT_IDS, projectIds, this);
+        }
+
+        @Override
+        public User map(ResultSet resultSet) throws SQLException {
+            return RowMapper.USER.map(resultSet, 2);
+        }
+    };
+
+    /** Los proyectos de cada usuario. */
+    static final Association<Project> PROJECTS_BY_USER = new Association<Project>() {
+        @Override
+        public Map<Long, List<Project>> find(Connection connection, Collection<Long> userIds)
+            throws SQLException
+        {
+            return query(connection, SQL_FIND_PROJECTS_BY_USER_IDS, userIds, this);
+        }
+
+        @Override
+        public Project map(ResultSet resultSet) throws SQLException {
+            return RowMapper.PROJECT.map(resultSet, 2);
+        }
+    };
+
+    // Constructors -------------------------------------------------------------------------------
+
+    private AssociationLoader() {
+        // Utility class, hide constructor.
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Asigna a cada proyecto dado su lista de usuarios, cargada ya o perezosa según el FetchMode
+     * dado.
+     *
+     * @param daoFactory La DAOFactory de la que obtener conexiones para la carga perezosa.
+     * @param fetchMode El FetchMode del DAO que devuelve los proyectos.
+     * @param connection La conexión con la que cargar los usuarios en modo EAGER.
+     * @param projects Los proyectos cuyos usuarios se han de asignar.
+     * @throws SQLException Si falla algo en la bd.
+     */
+    static void fetchUsers(DAOFactory daoFactory, FetchMode fetchMode, Connection connection,
+        Collection<Project> projects) throws SQLException
+    {
+        Map<Long, List<User>> lists =
+            fetch(daoFactory, fetchMode, connection, USERS_BY_PROJECT, ids(projects));
+
+        for (Project project : projects) {
+            project.setUsers(lists.get(project.getId()));
+        }
+    }
+
+    /**
+     * Asigna a cada usuario dado su lista de proyectos, cargada ya o perezosa según el FetchMode
+     * dado.
+     *
+     * @param daoFactory La DAOFactory de la que obtener conexiones para la carga perezosa.
+     * @param fetchMode El FetchMode del DAO que devuelve los usuarios.
+     * @param connection La conexión con la que cargar los proyectos en modo EAGER.
+     * @param users Los usuarios cuyos proyectos se han de asignar.
+     * @throws SQLException Si falla algo en la bd.
+     */
+    static void fetchProjects(DAOFactory daoFactory, FetchMode fetchMode, Connection connection,
+        Collection<User> users) throws SQLException
+    {
+        List<Long> ids = new ArrayList<Long>(users.size());
+
+        for (User user : users) {
+            ids.add(user.getId());
+        }
+
+        Map<Long, List<Project>> lists =
+            fetch(daoFactory, fetchMode, connection, PROJECTS_BY_USER, ids);
+
+        for (User user : users) {
+            user.setProjects(lists.get(user.getId()));
+        }
+    }
+
+    /**
+     * Rellena en el momento la lista de usuarios de cada proyecto dado con los usuarios asignados
+     * en la bd. Los proyectos sin usuarios quedan con una lista vacía.
+     *
+     * @param connection La conexión con la que lanzar las consultas.
+     * @param projects Los proyectos cuyos usuarios se han de cargar.
+     * @throws SQLException Si falla algo en la bd.
+     */
+    static void loadUsers(Connection connection, Collection<Project> projects) throws SQLException {
+        Map<Long, List<User>> users = USERS_BY_PROJECT.find(connection, ids(projects));
+
+        for (Project project : projects) {
+            project.setUsers(users.get(project.getId()));
+        }
+    }
+
+    /**
+     * Devuelve la lista de parámetros "?, ?, ..." para una cláusula IN del tamaño dado.
+     *
+     * @param count El número de parámetros.
+     * @return La lista de parámetros separados por comas.
+     */
+    static String placeholders(int count) {
+        StringBuilder builder = new StringBuilder(count * 3);
+
+        for (int i = 0; i < count; i++) {
+            builder.append(i == 0 ? "?" : ", ?");
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Devuelve los valores de una cláusula IN para los ids dados, completados repitiendo el último
+     * hasta la siguiente potencia de 2 (como mucho {@link #CHUNK_SIZE}). Así las consultas con IN
+     * sólo tienen unos pocos tamaños distintos y sus sentencias se reutilizan desde la caché de
+     * sentencias de la conexión.
+     *
+     * @param ids Los ids, entre 1 y {@link #CHUNK_SIZE}.
+     * @return Los valores para la cláusula IN; su longitud es el número de parámetros.
+     */
+    static Object[] inValues(List<?> ids) {
+        int size = Integer.highestOneBit(ids.size());
+        if (size < ids.size()) {
+            size = Math.min(size << 1, CHUNK_SIZE);
+        }
+
+        Object[] values = ids.toArray(new Object[size]);
+        for (int i = ids.size(); i < size; i++) {
+            values[i] = values[ids.size() - 1];
+        }
+
+        return values;
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    /**
+     * Devuelve una lista por cada id dado, cargadas ya o perezosas según el FetchMode. Las listas
+     * perezosas se cargan juntas por bloques de {@link #CHUNK_SIZE}.
+     */
+    private static <E> Map<Long, List<E>> fetch(DAOFactory daoFactory, FetchMode fetchMode,
+        Connection connection, Association<E> association, Collection<Long> ids) throws SQLException
+    {
+        if (fetchMode == FetchMode.EAGER) {
+            return association.find(connection, ids);
+        }
+
+        // Un Batch por bloque, para que el primer acceso no cargue miles de listas de golpe.
+        Map<Long, List<E>> lists = new LinkedHashMap<Long, List<E>>();
+        List<Long> all = new ArrayList<Long>(ids);
+
+        for (int from = 0; from < all.size(); from += CHUNK_SIZE) {
+            List<Long> chunk = all.subList(from, Math.min(from + CHUNK_SIZE, all.size()));
+            lists.putAll(new LazyList.Batch<E>(daoFactory, association, chunk).getLists());
+        }
+
+        return lists;
+    }
+
+    /**
+     * Devuelve los ids de los proyectos dados.
+     */
+    private static List<Long> ids(Collection<Project> projects) {
+        List<Long> ids = new ArrayList<Long>(projects.size());
+
+        for (Project project : projects) {
+            ids.add(project.getId());
+        }
+
+        return ids;
+    }
+
+    /**
+     * Lanza la consulta dada por bloques de ids y agrupa las entidades mapeadas por el id de la
+     * primera columna. Todos los ids dados tienen lista en el resultado, aunque sea vacía.
+     */
+    private static <E> Map<Long, List<E>> query(Connection connection, String sqlTemplate,
+        Collection<Long> ids, Association<E> association) throws SQLException
+    {
+        Map<Long, List<E>> result = new LinkedHashMap<Long, List<E>>();
+
+        for (Long id : ids) {
+            result.put(id, new ArrayList<E>());
+        }
+
+        List<Long> distinct = new ArrayList<Long>(result.keySet());
+
+        for (int from = 0; from < distinct.size(); from += CHUNK_SIZE) {
+            List<Long> chunk = distinct.subList(from, Math.min(from + CHUNK_SIZE, distinct.size()));
+            Object[] values = inValues(chunk);
+            String sql = String.format(sqlTemplate, placeholders(values.length));
+
+            try (
+                PreparedStatement statement = DAOUtil.prepareStatement(connection, sql, false, values);
+                ResultSet resultSet = statement.executeQuery();
+            ) {
+                while (resultSet.next()) {
+                    result.get(resultSet.getLong(1)).add(association.map(resultSet));
+                }
+            }
+        }
+
+        return result;
+    }
+
+    // Inner classes ------------------------------------------------------------------------------
+
+    /**
+     * Una asociación de la tabla projects_users vista desde uno de sus lados.
+     *
+     * @param <E> El tipo de las entidades del otro lado de la asociación.
+     */
+    interface Association<E> {
+
+        /**
+         * Devuelve las entidades asociadas a cada uno de los ids dados.
+         *
+         * @param connection La conexión con la que lanzar las consultas.
+         * @param ids Los ids del lado conocido de la asociación.
+         * @return Una lista, posiblemente vacía, por cada id dado.
+         * @throws SQLException Si falla algo en la bd.
+         */
+        Map<Long, List<E>> find(Connection connection, Collection<Long> ids) throws SQLException;
+
+        /**
+         * Mapea la fila actual, cuya primera columna es el id del lado conocido.
+         *
+         * @param resultSet El ResultSet posicionado en la fila a mapear.
+         * @return La entidad asociada.
+         * @throws SQLException Si falla algo en la bd.
+         */
+        E map(ResultSet resultSet) throws SQLException;
+    }
+
+}
@@ -0,0 +1,72 @@
+package es.trapasoft.jsf.dao;
+
+import es.trapasoft.jsf.models.Project;
+import es.trapasoft.jsf.models.User;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Versión asíncrona de {@link ProjectDAO}. Cada método hace lo mismo que su equivalente en
+ * {@link ProjectDAO}, pero se ejecuta en el executor acotado de la DAOFactory y devuelve enseguida
+ * un futuro del resultado, para poder lanzar a la vez consultas independientes. Los futuros fallan
+ * con DAOException si el executor está saturado o se agota el tiempo, o con la excepción que lance
+ * el método de {@link ProjectDAO}; {@link DAOUtil#join(CompletableFuture)} espera el resultado y
+ * relanza esa excepción tal cual.
+ *
+ * Las llamadas se hacen fuera de la unidad de trabajo y de la transacción del hilo que las lanza,
+ * cada una con su conexión. Los métodos de recorrido de {@link ProjectDAO} no tienen equivalente.
+ *
+ * @author alejandro
+ */
+public interface AsyncProjectDAO {
+
+    /**
+     * Devuelve una vista de este DAO cuyas llamadas caducan tras el tiempo dado en lugar del
+     * configurado en 'name.async.timeout'.
+     *
+     * @param millis El tiempo máximo en milisegundos, o 0 para ninguno
+     * @return Una vista de este DAO con ese tiempo máximo
+     */
+    public AsyncProjectDAO withTimeout(long millis);
+
+    /** @see ProjectDAO#find(Long) */
+    public CompletableFuture<Project> find(Long id);
+
+    /** @see ProjectDAO#find(String) */
+    public CompletableFuture<List<Project>> find(String name);
+
+    /** @see ProjectDAO#findParent(Long) */
+    public CompletableFuture<Project> findParent(Long id);
+
+    /** @see ProjectDAO#findChildren(Long) */
+    public CompletableFuture<List<Project>> findChildren(Long id);
+
+    /** @see ProjectDAO#create(Project) */
+    public CompletableFuture<Void> create(Project project);
+
+    /** @see ProjectDAO#update(Project) */
+    public CompletableFuture<Void> update(Project project);
+
+    /** @see ProjectDAO#createAll(List) */
+    public CompletableFuture<Void> createAll(List<Project> projects);
+
+    /** @see ProjectDAO#updateAll(List) */
+    public CompletableFuture<Void> updateAll(List<Project> projects);
+
+    /** @see ProjectDAO#delete(Project) */
+    public CompletableFuture<Void> delete(Project project);
+
+    /** @see ProjectDAO#addUserToProject(Long, Long) */
+    public CompletableFuture<Void> addUserToProject(Long userId, Long projectId);
+
+    /** @see ProjectDAO#delUserFromProject(Long, Long) */
+    public CompletableFuture<Void> delUserFromProject(Long userId, Long projectId);
+
+    /** @see ProjectDAO#setProjectMembers(Long, Set) */
+    public CompletableFuture<Void> setProjectMembers(Long projectId, Set<Long> userIds);
+
+    /** @see ProjectDAO#findUsersByProjectId(Long) */
+    public CompletableFuture<List<User>> findUsersByProjectId(Long id);
+
+}
@@ -0,0 +1,187 @@
+package es.trapasoft.jsf.dao;
+
+import es.trapasoft.jsf.models.Project;
+import es.trapasoft.jsf.models.User;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * This class implements the {@link AsyncProjectDAO} interface by running the calls of a
+ * {@link ProjectDAO} in a {@link DAOExecutor}.
+ *
+ * @author alejandro
+ */
+class AsyncProjectDAOAdapter implements AsyncProjectDAO {
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private final ProjectDAO delegate;
+    private final DAOExecutor executor;
+    private final long timeout;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    /**
+     * Construct an asynchronous DAO around the given DAO. Package private so that it can be
+     * constructed inside the DAO package only.
+     * @param delegate The DAO to run the calls on.
+     * @param executor The executor to run the calls in.
+     * @param timeout The timeout of each call in milliseconds, or 0 for none.
+     */
+    AsyncProjectDAOAdapter(ProjectDAO delegate, DAOExecutor executor, long timeout) {
+        this.delegate = delegate;
+        this.executor = executor;
+        this.timeout = timeout;
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    @Override
+    public AsyncProjectDAO withTimeout(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Timeout " + millis + " is negative.");
+        }
+        return new AsyncProjectDAOAdapter(delegate, executor, millis);
+    }
+
+    @Override
+    public CompletableFuture<Project> find(final Long id) {
+        return executor.submit(new Callable<Project>() {
+            @Override
+            public Project call() {
+                return delegate.find(id);
+            }
+        }, timeout);
+    }
+
+    @Override
+    public CompletableFuture<List<Project>> find(final String name) {
+        return executor.submit(new Callable<List<Project>>() {
+            @Override
+            public List<Project> call() {
+                return delegate.find(name);
+            }
+        }, timeout);
+    }
+
+    @Override
+    public CompletableFuture<Project> findParent(final Long id) {
+        return executor.submit(new Callable<Project>() {
+            @Override
+            public Project call() {
+                return delegate.findParent(id);
+            }
+        }, timeout);
+    }
+
+    @Override
+    public CompletableFuture<List<Project>> findChildren(final Long id) {
+        return executor.submit(new Callable<List<Project>>() {
+            @Override
+            public List<Project> call() {
+                return delegate.findChildren(id);
+            }
+        }, timeout);
+    }
+
+    @Override
+    public CompletableFuture<Void> create(final Project project) {
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                delegate.create(project);
+                return null;
+            }
+        }, timeout);
+    }
+
+    @Override
+    public CompletableFuture<Void> update(final Project project) {
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                delegate.update(project);
+                return null;
+            }
+        }, timeout);
+    }
+
+    @Override
+    public CompletableFuture<Void> createAll(final List<Project> projects) {
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                delegate.createAll(projects);
+                return null;
+            }
+        }, timeout);
+    }
+
+    @Override
+    public CompletableFuture<Void> updateAll(final List<Project> projects) {
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                delegate.updateAll(projects);
+                return null;
+            }
+        }, timeout);
+    }
+
+    @Override
+    public CompletableFuture<Void> delete(final Project project) {
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                delegate.delete(project);
+                return null;
+            }
+        }, timeout);
+    }
+
+    @Override
+    public CompletableFuture<Void> addUserToProject(final Long userId, final Long projectId) {
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                delegate.addUserToProject(userId, projectId);
+                return null;
+            }
+        }, timeout);
+    }
+
+    @Override
+    public CompletableFuture<Void> delUserFromProject(final Long userId, final Long projectId) {
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                delegate.delUserFromProject(userId, projectId);
+                return null;
+            }
+        }, timeout);
+    }
+
+    @Override
+    public CompletableFuture<Void> setProjectMembers(final Long projectId, final Set<Long> userIds) {
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                delegate.setProjectMembers(projectId, userIds);
+                return null;
+            }
+        }, timeout);
+    }
+
+    @Override
+    public CompletableFuture<List<User>> findUsersByProjectId(final Long id) {
+        return executor.submit(new Callable<List<User>>() {
+            @Override
+            public List<User> call() {
+                return delegate.findUsersByProjectId(id);
+            }
+        }, timeout);
+    }
+
+}
@@ -0,0 +1,88 @@
+package es.trapasoft.jsf.dao;
+
+import es.trapasoft.jsf.models.Project;
+import es.trapasoft.jsf.models.User;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * This interface represents a contract for an asynchronous DAO for the {@link User} model. Every
+ * method does the same as its counterpart in {@link UserDAO}, but runs it in the bounded executor
+ * of the DAOFactory and returns a future of the result right away, so that independent lookups can
+ * run concurrently. The returned futures fail with a DAOException when the executor is saturated
+ * or the call times out, or with the exception thrown by the {@link UserDAO} method. Use
+ * {@link DAOUtil#join(CompletableFuture)} to wait for a result and rethrow that exception as is.
+ *
+ * The calls run outside the unit of work and the transaction of the calling thread, each on its
+ * own connection. The streaming methods of {@link UserDAO} have no counterpart here.
+ *
+ * @author alejandro
+ */
+public interface AsyncUserDAO {
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Returns a view of this DAO whose calls time out after the given time instead of the
+     * configured 'name.async.timeout'.
+     * @param millis The timeout in milliseconds, or 0 for none.
+     * @return A view of this DAO with the given timeout.
+     */
+    public AsyncUserDAO withTimeout(long millis);
+
+    /** @see UserDAO#find(Long) */
+    public CompletableFuture<User> find(Long id);
+
+    /** @see UserDAO#find(String, String) */
+    public CompletableFuture<User> find(String email, String password);
+
+    /** @see UserDAO#list() */
+    public CompletableFuture<List<User>> list();
+
+    /** @see UserDAO#list(User, int, String, boolean, Map) */
+    public CompletableFuture<List<User>> list(User after, int limit, String sortField,
+        boolean ascending, Map<String, String> filters);
+
+    /** @see UserDAO#list(int, int, String, boolean, Map) */
+    public CompletableFuture<List<User>> list(int offset, int limit, String sortField,
+        boolean ascending, Map<String, String> filters);
+
+    /** @see UserDAO#count(Map) */
+    public CompletableFuture<Integer> count(Map<String, String> filters);
+
+    /** @see UserDAO#create(User) */
+    public CompletableFuture<Void> create(User user);
+
+    /** @see UserDAO#update(User) */
+    public CompletableFuture<Void> update(User user);
+
+    /** @see UserDAO#createAll(List) */
+    public CompletableFuture<Void> createAll(List<User> users);
+
+    /** @see UserDAO#updateAll(List) */
+    public CompletableFuture<Void> updateAll(List<User> users);
+
+    /** @see UserDAO#delete(User) */
+    public CompletableFuture<Void> delete(User user);
+
+    /** @see UserDAO#existEmail(String) */
+    public CompletableFuture<Boolean> existEmail(String email);
+
+    /** @see UserDAO#changePassword(User) */
+    public CompletableFuture<Void> changePassword(User user);
+
+    /** @see UserDAO#findProjectsByUserId(Long) */
+    public CompletableFuture<List<Project>> findProjectsByUserId(Long id);
+
+    /** @see UserDAO#addProjectToUser(Long, Long) */
+    public CompletableFuture<Void> addProjectToUser(Long userId, Long projectId);
+
+    /** @see UserDAO#delProjectFromUser(Long, Long) */
+    public CompletableFuture<Void> delProjectFromUser(Long userId, Long projectId);
+
+    /** @see UserDAO#setUserProjects(Long, Set) */
+    public CompletableFuture<Void> setUserProjects(Long userId, Set<Long> projectIds);
+
+}
@@ -0,0 +1,233 @@
+package es.trapasoft.jsf.dao;
+
+import es.trapasoft.jsf.models.Project;
+import es.trapasoft.jsf.models.User;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * This class implements the {@link AsyncUserDAO} interface by running the calls of a
+ * {@link UserDAO} in a {@link DAOExecutor}.
+ *
+ * @author alejandro
+ */
+class AsyncUserDAOAdapter implements AsyncUserDAO {
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private final UserDAO delegate;
+    private final DAOExecutor executor;
+    private final long timeout;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    /**
+     * Construct an asynchronous DAO around the given DAO. Package private so that it can be
+     * constructed inside the DAO package only.
+     * @param delegate The DAO to run the calls on.
+     * @param executor The executor to run the calls in.
+     * @param timeout The timeout of each call in milliseconds, or 0 for none.
+     */
+    AsyncUserDAOAdapter(UserDAO delegate, DAOExecutor executor, long timeout) {
+        this.delegate = delegate;
+        this.executor = executor;
+        this.timeout = timeout;
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    @Override
+    public AsyncUserDAO withTimeout(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Timeout " + millis + " is negative.");
+        }
+        return new AsyncUserDAOAdapter(delegate, executor, millis);
+    }
+
+    @Override
+    public CompletableFuture<User> find(final Long id) {
+        return executor.submit(new Callable<User>() {
+            @Override
+            public User call() {
+                return delegate.find(id);
+            }
+        }, timeout);
+    }
+
+    @Override
+    public CompletableFuture<User> find(final String email, final String password) {
+        return executor.submit(new Callable<User>() {
+            @Override
+            public User call() {
+                return delegate.find(email, password);
+            }
+        }, timeout);
+    }
+
+    @Override
+    public CompletableFuture<List<User>> list() {
+        return executor.submit(new Callable<List<User>>() {
+            @Override
+            public List<User> call() {
+                return delegate.list();
+            }
+        }, timeout);
+    }
+
+    @Override
+    public CompletableFuture<List<User>> list(final User after, final int limit,
+        final String sortField, final boolean ascending, final Map<String, String> filters)
+    {
+        return executor.submit(new Callable<List<User>>() {
+            @Override
+            public List<User> call() {
+                return delegate.list(after, limit, sortField, ascending, filters);
+            }
+        }, timeout);
+    }
+
+    @Override
+    public CompletableFuture<List<User>> list(final int offset, final int limit,
+        final String sortField, final boolean ascending, final Map<String, String> filters)
+    {
+        return executor.submit(new Callable<List<User>>() {
+            @Override
+            public List<User> call() {
+                return delegate.list(offset, limit, sortField, ascending, filters);
+            }
+        }, timeout);
+    }
+
+    @Override
+    public CompletableFuture<Integer> count(final Map<String, String> filters) {
+        return executor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return delegate.count(filters);
+            }
+        }, timeout);
+    }
+
+    @Override
+    public CompletableFuture<Void> create(final User user) {
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                delegate.create(user);
+                return null;
+            }
+        }, timeout);
+    }
+
+    @Override
+    public CompletableFuture<Void> update(final User user) {
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                delegate.update(user);
+                return null;
+            }
+        }, timeout);
+    }
+
+    @Override
+    public CompletableFuture<Void> createAll(final List<User> users) {
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                delegate.createAll(users);
+                return null;
+            }
+        }, timeout);
+    }
+
+    @Override
+    public CompletableFuture<Void> updateAll(final List<User> users) {
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                delegate.updateAll(users);
+                return null;
+            }
+        }, timeout);
+    }
+
+    @Override
+    public CompletableFuture<Void> delete(final User user) {
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                delegate.delete(user);
+                return null;
+            }
+        }, timeout);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> existEmail(final String email) {
+        return executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return delegate.existEmail(email);
+            }
+        }, timeout);
+    }
+
+    @Override
+    public CompletableFuture<Void> changePassword(final User user) {
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                delegate.changePassword(user);
+                return null;
+            }
+        }, timeout);
+    }
+
+    @Override
+    public CompletableFuture<List<Project>> findProjectsByUserId(final Long id) {
+        return executor.submit(new Callable<List<Project>>() {
+            @Override
+            public List<Project> call() {
+                return delegate.findProjectsByUserId(id);
+            }
+        }, timeout);
+    }
+
+    @Override
+    public CompletableFuture<Void> addProjectToUser(final Long userId, final Long projectId) {
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                delegate.addProjectToUser(userId, projectId);
+                return null;
+            }
+        }, timeout);
+    }
+
+    @Override
+    public CompletableFuture<Void> delProjectFromUser(final Long userId, final Long projectId) {
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                delegate.delProjectFromUser(userId, projectId);
+                return null;
+            }
+        }, timeout);
+    }
+
+    @Override
+    public CompletableFuture<Void> setUserProjects(final Long userId, final Set<Long> projectIds) {
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                delegate.setUserProjects(userId, projectIds);
+                return null;
+            }
+        }, timeout);
+    }
+
+}
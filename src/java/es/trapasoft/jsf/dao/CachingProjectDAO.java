@@ -0,0 +1,197 @@
+
+package es.trapasoft.jsf.dao;
+
+import es.trapasoft.jsf.models.Project;
+import es.trapasoft.jsf.models.User;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * This class represents a caching decorator of the {@link ProjectDAO} interface. It caches the
+ * projects by ID and the users of each project in the {@link DAOCaches} of the DAOFactory, and
+ * invalidates the affected entries on every write. The DAO returns copies, so that callers can
+ * modify the returned models without affecting the cache. With {@link FetchMode#EAGER}, the
+ * associations of the returned copies are loaded before returning, also when they were cached by
+ * a lazy DAO. Everything else is delegated as is.
+ *
+ * @author alejandro
+ */
+class CachingProjectDAO implements ProjectDAO {
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private final ProjectDAO delegate;
+    private final DAOFactory daoFactory;
+    private final DAOCaches caches;
+    private final FetchMode fetchMode;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    /**
+     * Construct a caching Project DAO around the given Project DAO. Package private so that it can
+     * be constructed inside the DAO package only.
+     * @param delegate The Project DAO to delegate the database access to.
+     * @param daoFactory The DAOFactory of the delegate.
+     * @param caches The caches of the DAOFactory.
+     * @param fetchMode The fetch mode of the delegate.
+     */
+    CachingProjectDAO(ProjectDAO delegate, DAOFactory daoFactory, DAOCaches caches,
+        FetchMode fetchMode)
+    {
+        this.delegate = delegate;
+        this.daoFactory = daoFactory;
+        this.caches = caches;
+        this.fetchMode = fetchMode;
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    @Override
+    public Project find(Long id) throws DAOException {
+        if (caches.projects == null) {
+            return delegate.find(id);
+        }
+
+        Project project = caches.projects.get(id);
+
+        if (project == null) {
+            Object token = caches.projects.reserve(id);
+            project = delegate.find(id);
+            DAOCaches.refill(daoFactory, caches.projects, id, project, token);
+        }
+
+        Project copy = DAOCaches.copy(project);
+        if (copy != null) {
+            DAOCaches.fetch(copy.getUsers(), fetchMode);
+        }
+        return copy;
+    }
+
+    @Override
+    public List<Project> find(String name) throws DAOException {
+        return delegate.find(name);
+    }
+
+    @Override
+    public Project findParent(Long id) throws DAOException {
+        return delegate.findParent(id);
+    }
+
+    @Override
+    public List<Project> findChildren(Long id) throws DAOException {
+        return delegate.findChildren(id);
+    }
+
+    @Override
+    public void create(Project project) throws IllegalArgumentException, DAOException {
+        delegate.create(project);
+        caches.projectChanged(project.getId());
+    }
+
+    @Override
+    public void update(Project project) throws IllegalArgumentException, DAOException {
+        try {
+            delegate.update(project);
+        } finally {
+            caches.projectChanged(project.getId());
+        }
+    }
+
+    @Override
+    public void createAll(List<Project> projects) throws IllegalArgumentException, DAOException {
+        try {
+            delegate.createAll(projects);
+        } finally {
+            for (Project project : projects) {
+                if (project.getId() != null) {
+                    caches.projectChanged(project.getId());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void updateAll(List<Project> projects) throws IllegalArgumentException, DAOException {
+        try {
+            delegate.updateAll(projects);
+        } finally {
+            for (Project project : projects) {
+                caches.projectChanged(project.getId());
+            }
+        }
+    }
+
+    @Override
+    public void delete(Project project) throws DAOException {
+        Long id = project.getId();
+        try {
+            delegate.delete(project);
+        } finally {
+            caches.projectChanged(id);
+        }
+    }
+
+    @Override
+    public void addUserToProject(Long userId, Long projectId) throws DAOException {
+        try {
+            delegate.addUserToProject(userId, projectId);
+        } finally {
+            caches.membershipChanged(userId, projectId);
+        }
+    }
+
+    @Override
+    public void delUserFromProject(Long userId, Long projectId) throws DAOException {
+        try {
+            delegate.delUserFromProject(userId, projectId);
+        } finally {
+            caches.membershipChanged(userId, projectId);
+        }
+    }
+
+    @Override
+    public void setProjectMembers(Long projectId, Set<Long> userIds)
+        throws IllegalArgumentException, DAOException
+    {
+        try {
+            delegate.setProjectMembers(projectId, userIds);
+        } finally {
+            caches.projectMembersChanged(projectId);
+        }
+    }
+
+    @Override
+    public List<User> findUsersByProjectId(Long id) throws DAOException {
+        if (caches.projectUsers == null) {
+            return delegate.findUsersByProjectId(id);
+        }
+
+        List<User> users = caches.projectUsers.get(id);
+
+        if (users == null) {
+            Object token = caches.projectUsers.reserve(id);
+            users = delegate.findUsersByProjectId(id);
+            DAOCaches.refill(daoFactory, caches.projectUsers, id, users, token);
+        }
+
+        return DAOCaches.copyUsers(users);
+    }
+
+    @Override
+    public void forEach(Consumer<Project> action) throws DAOException {
+        delegate.forEach(action);
+    }
+
+    @Override
+    public void forEach(Consumer<Project> action, boolean reuseRow) throws DAOException {
+        delegate.forEach(action, reuseRow);
+    }
+
+    @Override
+    public Stream<Project> stream() throws DAOException {
+        return delegate.stream();
+    }
+
+}
@@ -0,0 +1,230 @@
+
+package es.trapasoft.jsf.dao;
+
+import es.trapasoft.jsf.models.Project;
+import es.trapasoft.jsf.models.User;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * This class represents a caching decorator of the {@link UserDAO} interface. It caches the users
+ * by ID and the projects of each user in the {@link DAOCaches} of the DAOFactory, and invalidates
+ * the affected entries on every write. The DAO returns copies, so that callers can modify the
+ * returned models without affecting the cache. With {@link FetchMode#EAGER}, the associations of
+ * the returned copies are loaded before returning, also when they were cached by a lazy DAO.
+ * Everything else is delegated as is.
+ *
+ * @author alejandro
+ */
+class CachingUserDAO implements UserDAO {
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private final UserDAO delegate;
+    private final DAOFactory daoFactory;
+    private final DAOCaches caches;
+    private final FetchMode fetchMode;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    /**
+     * Construct a caching User DAO around the given User DAO. Package private so that it can be
+     * constructed inside the DAO package only.
+     * @param delegate The User DAO to delegate the database access to.
+     * @param daoFactory The DAOFactory of the delegate.
+     * @param caches The caches of the DAOFactory.
+     * @param fetchMode The fetch mode of the delegate.
+     */
+    CachingUserDAO(UserDAO delegate, DAOFactory daoFactory, DAOCaches caches,
+        FetchMode fetchMode)
+    {
+        this.delegate = delegate;
+        this.daoFactory = daoFactory;
+        this.caches = caches;
+        this.fetchMode = fetchMode;
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    @Override
+    public User find(Long id) throws DAOException {
+        if (caches.users == null) {
+            return delegate.find(id);
+        }
+
+        User user = caches.users.get(id);
+
+        if (user == null) {
+            Object token = caches.users.reserve(id);
+            user = delegate.find(id);
+            DAOCaches.refill(daoFactory, caches.users, id, user, token);
+        }
+
+        User copy = DAOCaches.copy(user);
+        if (copy != null) {
+            DAOCaches.fetch(copy.getProjects(), fetchMode);
+        }
+        return copy;
+    }
+
+    @Override
+    public User find(String email, String password) throws DAOException {
+        return delegate.find(email, password);
+    }
+
+    @Override
+    public List<User> list() throws DAOException {
+        return delegate.list();
+    }
+
+    @Override
+    public List<User> list(User after, int limit, String sortField, boolean ascending,
+        Map<String, String> filters) throws IllegalArgumentException, DAOException
+    {
+        return delegate.list(after, limit, sortField, ascending, filters);
+    }
+
+    @Override
+    public List<User> list(int offset, int limit, String sortField, boolean ascending,
+        Map<String, String> filters) throws IllegalArgumentException, DAOException
+    {
+        return delegate.list(offset, limit, sortField, ascending, filters);
+    }
+
+    @Override
+    public int count(Map<String, String> filters) throws IllegalArgumentException, DAOException {
+        return delegate.count(filters);
+    }
+
+    @Override
+    public void forEach(Consumer<User> action) throws DAOException {
+        delegate.forEach(action);
+    }
+
+    @Override
+    public void forEach(Consumer<User> action, boolean reuseRow) throws DAOException {
+        delegate.forEach(action, reuseRow);
+    }
+
+    @Override
+    public Stream<User> stream() throws DAOException {
+        return delegate.stream();
+    }
+
+    @Override
+    public void create(User user) throws IllegalArgumentException, DAOException {
+        delegate.create(user);
+        caches.userChanged(user.getId());
+    }
+
+    @Override
+    public void update(User user) throws IllegalArgumentException, DAOException {
+        try {
+            delegate.update(user);
+        } finally {
+            caches.userChanged(user.getId());
+        }
+    }
+
+    @Override
+    public void createAll(List<User> users) throws IllegalArgumentException, DAOException {
+        try {
+            delegate.createAll(users);
+        } finally {
+            for (User user : users) {
+                if (user.getId() != null) {
+                    caches.userChanged(user.getId());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void updateAll(List<User> users) throws IllegalArgumentException, DAOException {
+        try {
+            delegate.updateAll(users);
+        } finally {
+            for (User user : users) {
+                caches.userChanged(user.getId());
+            }
+        }
+    }
+
+    @Override
+    public void delete(User user) throws DAOException {
+        Long id = user.getId();
+        try {
+            delegate.delete(user);
+        } finally {
+            caches.userChanged(id);
+        }
+    }
+
+    @Override
+    public boolean existEmail(String email) throws DAOException {
+        return delegate.existEmail(email);
+    }
+
+    @Override
+    public void changePassword(User user) throws DAOException {
+        try {
+            delegate.changePassword(user);
+        } finally {
+            caches.userChanged(user.getId());
+        }
+    }
+
+    @Override
+    public List<Project> findProjectsByUserId(Long id) throws DAOException {
+        if (caches.userProjects == null) {
+            return delegate.findProjectsByUserId(id);
+        }
+
+        List<Project> projects = caches.userProjects.get(id);
+
+        if (projects == null) {
+            Object token = caches.userProjects.reserve(id);
+            projects = delegate.findProjectsByUserId(id);
+            DAOCaches.refill(daoFactory, caches.userProjects, id, projects, token);
+        }
+
+        List<Project> copies = DAOCaches.copyProjects(projects);
+        for (Project project : copies) {
+            DAOCaches.fetch(project.getUsers(), fetchMode);
+        }
+        return copies;
+    }
+
+    @Override
+    public void addProjectToUser(Long userId, Long projectId) throws DAOException {
+        try {
+            delegate.addProjectToUser(userId, projectId);
+        } finally {
+            caches.membershipChanged(userId, projectId);
+        }
+    }
+
+    @Override
+    public void delProjectFromUser(Long userId, Long projectId) throws DAOException {
+        try {
+            delegate.delProjectFromUser(userId, projectId);
+        } finally {
+            caches.membershipChanged(userId, projectId);
+        }
+    }
+
+    @Override
+    public void setUserProjects(Long userId, Set<Long> projectIds)
+        throws IllegalArgumentException, DAOException
+    {
+        try {
+            delegate.setUserProjects(userId, projectIds);
+        } finally {
+            caches.userProjectsChanged(userId);
+        }
+    }
+
+}
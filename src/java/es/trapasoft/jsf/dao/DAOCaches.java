@@ -0,0 +1,306 @@
+
+package es.trapasoft.jsf.dao;
+
+import es.trapasoft.jsf.models.Project;
+import es.trapasoft.jsf.models.User;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * This class holds the entity caches of a DAOFactory which are shared by its caching DAO's, and
+ * knows which cached entries are affected by a change. A cache is null when it is not configured.
+ * Users are also cached as members of projects and projects as assignments of users, so a change
+ * in one entity invalidates the cached associations which may contain it as well.
+ *
+ * @author alejandro
+ */
+final class DAOCaches {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    private static final String PROPERTY_USER_SIZE = "cache.user.size";
+    private static final String PROPERTY_USER_TTL = "cache.user.ttl";
+    private static final String PROPERTY_PROJECT_SIZE = "cache.project.size";
+    private static final String PROPERTY_PROJECT_TTL = "cache.project.ttl";
+
+    /** The default time to live of the entries, so that an entry cannot be stale forever. */
+    private static final long DEFAULT_TTL = 60000;
+
+    private static final UnaryOperator<User> USER_COPIER = new UnaryOperator<User>() {
+        @Override
+        public User apply(User user) {
+            return copy(user);
+        }
+    };
+
+    private static final UnaryOperator<Project> PROJECT_COPIER = new UnaryOperator<Project>() {
+        @Override
+        public Project apply(Project project) {
+            return copy(project);
+        }
+    };
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    final EntityCache<Long, User> users;
+    final EntityCache<Long, List<Project>> userProjects;
+    final EntityCache<Long, Project> projects;
+    final EntityCache<Long, List<User>> projectUsers;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    private DAOCaches(int userSize, long userTtl, int projectSize, long projectTtl) {
+        users = (userSize > 0) ? new EntityCache<Long, User>("users", userSize, userTtl) : null;
+        userProjects = (userSize > 0)
+            ? new EntityCache<Long, List<Project>>("userProjects", userSize, userTtl) : null;
+        projects = (projectSize > 0)
+            ? new EntityCache<Long, Project>("projects", projectSize, projectTtl) : null;
+        projectUsers = (projectSize > 0)
+            ? new EntityCache<Long, List<User>>("projectUsers", projectSize, projectTtl) : null;
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Returns the caches configured in the given DAO properties, or null if none is configured.
+     * @param properties The DAO properties of the DAOFactory.
+     * @return The caches configured in the given DAO properties, or null.
+     * @throws DAOConfigurationException If a cache property is not a valid number.
+     */
+    static DAOCaches getInstance(DAOProperties properties) throws DAOConfigurationException {
+        int userSize = (int) properties.getNumberProperty(PROPERTY_USER_SIZE, 0);
+        int projectSize = (int) properties.getNumberProperty(PROPERTY_PROJECT_SIZE, 0);
+
+        if (userSize <= 0 && projectSize <= 0) {
+            return null;
+        }
+
+        return new DAOCaches(userSize, properties.getNumberProperty(PROPERTY_USER_TTL, DEFAULT_TTL),
+            projectSize, properties.getNumberProperty(PROPERTY_PROJECT_TTL, DEFAULT_TTL));
+    }
+
+    /**
+     * Returns all configured caches.
+     * @return All configured caches.
+     */
+    List<EntityCache<?, ?>> getAll() {
+        List<EntityCache<?, ?>> all = new ArrayList<EntityCache<?, ?>>(4);
+        for (EntityCache<?, ?> cache : new EntityCache<?, ?>[] { users, userProjects, projects, projectUsers }) {
+            if (cache != null) {
+                all.add(cache);
+            }
+        }
+        return all;
+    }
+
+    /**
+     * Invalidate the entries affected by a change of the user with the given ID.
+     * @param userId The ID of the changed user.
+     */
+    void userChanged(Long userId) {
+        if (users != null) {
+            users.remove(userId);
+            userProjects.remove(userId);
+        }
+        if (projects != null) {
+            projects.clear();
+            projectUsers.clear();
+        }
+    }
+
+    /**
+     * Invalidate the entries affected by a change of the project with the given ID.
+     * @param projectId The ID of the changed project.
+     */
+    void projectChanged(Long projectId) {
+        if (projects != null) {
+            projects.remove(projectId);
+            projectUsers.remove(projectId);
+        }
+        if (users != null) {
+            userProjects.clear();
+        }
+    }
+
+    /**
+     * Invalidate the entries affected by assigning or unassigning the given user and project.
+     * @param userId The ID of the user.
+     * @param projectId The ID of the project.
+     */
+    void membershipChanged(Long userId, Long projectId) {
+        if (users != null) {
+            users.remove(userId);
+            userProjects.remove(userId);
+        }
+        if (projects != null) {
+            projects.remove(projectId);
+            projectUsers.remove(projectId);
+        }
+    }
+
+    /**
+     * Invalidate the entries affected by replacing the projects of the user with the given ID. The
+     * projects which have been unassigned are not known, so all cached projects are invalidated.
+     * @param userId The ID of the user.
+     */
+    void userProjectsChanged(Long userId) {
+        userChanged(userId);
+    }
+
+    /**
+     * Invalidate the entries affected by replacing the users of the project with the given ID. The
+     * users which have been removed are not known, so all cached users are invalidated.
+     * @param projectId The ID of the project.
+     */
+    void projectMembersChanged(Long projectId) {
+        if (projects != null) {
+            projects.remove(projectId);
+            projectUsers.remove(projectId);
+        }
+        if (users != null) {
+            users.clear();
+            userProjects.clear();
+        }
+    }
+
+    /**
+     * Returns a copy of the given user, so that callers cannot modify the cached instance. The
+     * birthdate and the projects are copied as well; a project list which has not been loaded yet
+     * is copied into a lazy list of its own, which holds copies of the projects once loaded. The
+     * copy of an unchanged user is unchanged too.
+     * @param user The user to be copied, may be null.
+     * @return A copy of the given user.
+     */
+    static User copy(User user) {
+        if (user == null) {
+            return null;
+        }
+
+        User copy = new User();
+        copy.setId(user.getId());
+        copy.setEmail(user.getEmail());
+        copy.setFirstname(user.getFirstname());
+        copy.setLastname(user.getLastname());
+        copy.setBirthdate(copyDate(user.getBirthdate()));
+        copy.setProjects(copyList(user.getProjects(), PROJECT_COPIER));
+        if (!user.isDirty()) {
+            copy.markClean();
+        }
+        return copy;
+    }
+
+    /**
+     * Returns a copy of the given project, so that callers cannot modify the cached instance. The
+     * dates and the users are copied as well; a user list which has not been loaded yet is copied
+     * into a lazy list of its own, which holds copies of the users once loaded. The copy of an
+     * unchanged project is unchanged too.
+     * @param project The project to be copied, may be null.
+     * @return A copy of the given project.
+     */
+    static Project copy(Project project) {
+        if (project == null) {
+            return null;
+        }
+
+        Project copy = new Project();
+        copy.setId(project.getId());
+        copy.setParentId(project.getParentId());
+        copy.setName(project.getName());
+        copy.setDescription(project.getDescription());
+        copy.setStartDate(copyDate(project.getStartDate()));
+        copy.setDueDate(copyDate(project.getDueDate()));
+        copy.setCreatedAt(copyDate(project.getCreatedAt()));
+        copy.setUpdatedAt(copyDate(project.getUpdatedAt()));
+        copy.setEstimatedHours(project.getEstimatedHours());
+        copy.setUsers(copyList(project.getUsers(), USER_COPIER));
+        if (!project.isDirty()) {
+            copy.markClean();
+        }
+        return copy;
+    }
+
+    /**
+     * Returns a list with copies of the given users.
+     * @param users The users to be copied.
+     * @return A list with copies of the given users.
+     */
+    static List<User> copyUsers(List<User> users) {
+        List<User> copies = new ArrayList<User>(users.size());
+        for (User user : users) {
+            copies.add(copy(user));
+        }
+        return copies;
+    }
+
+    /**
+     * Returns a list with copies of the given projects.
+     * @param projects The projects to be copied.
+     * @return A list with copies of the given projects.
+     */
+    static List<Project> copyProjects(List<Project> projects) {
+        List<Project> copies = new ArrayList<Project>(projects.size());
+        for (Project project : projects) {
+            copies.add(copy(project));
+        }
+        return copies;
+    }
+
+    /**
+     * Cache the given value loaded after a miss, unless the key has been invalidated since it was
+     * reserved or the value may have been read from a lagging replica.
+     * @param daoFactory The DAOFactory the value has been read from.
+     * @param cache The cache to put the value in.
+     * @param id The key of the value.
+     * @param value The loaded value, may be null.
+     * @param token The token of the reservation of the key.
+     */
+    static <V> void refill(DAOFactory daoFactory, EntityCache<Long, V> cache, Long id, V value,
+        Object token)
+    {
+        // A null value only ends the reservation.
+        cache.put(id, daoFactory.readsFromPrimary() ? value : null, token);
+    }
+
+    /**
+     * Loads the given association list of a copy now when the fetch mode is EAGER. An entity which
+     * was cached by a lazy DAO still holds a lazy list which may not have been loaded yet.
+     * @param association The association list of a copy, may be null.
+     * @param fetchMode The fetch mode of the DAO which returns the copy.
+     */
+    static void fetch(List<?> association, FetchMode fetchMode) {
+        if (fetchMode == FetchMode.EAGER && association != null) {
+            association.size();
+        }
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    /**
+     * Returns a new list with copies of the elements. A lazy list which has not been loaded yet is
+     * copied into a new lazy list over the same loader, as copying its elements would load it.
+     */
+    private static <E> List<E> copyList(List<E> list, UnaryOperator<E> copier) {
+        if (list == null) {
+            return null;
+        }
+        if (list instanceof LazyList && !((LazyList<E>) list).isLoaded()) {
+            return ((LazyList<E>) list).copy(copier);
+        }
+
+        List<E> copies = new ArrayList<E>(list.size());
+        for (E element : list) {
+            copies.add(copier.apply(element));
+        }
+        return copies;
+    }
+
+    /**
+     * Returns a copy of the given date, of the same class, or null if it is null.
+     */
+    private static Date copyDate(Date date) {
+        return (date != null) ? (Date) date.clone() : null;
+    }
+
+}
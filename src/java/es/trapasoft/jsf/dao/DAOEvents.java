@@ -0,0 +1,263 @@
+
+package es.trapasoft.jsf.dao;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class emits the Java Flight Recorder events of the DAO's, so that the time spent in the
+ * database can be attributed to the DAO method and the SQL statement which caused it:
+ *
+ * - 'es.trapasoft.jsf.dao.Operation' for each call of a DAO method, with the operation name, the
+ *   amount of returned rows, the time spent waiting for a connection and the amount of executed
+ *   statements.
+ * - 'es.trapasoft.jsf.dao.Statement' for each execution of a SQL statement, with the enclosing
+ *   operation name, the SQL, the amount of bound parameters and the amount of returned or affected
+ *   rows. The duration of a query lasts until its ResultSet is closed.
+ *
+ * Both have a default threshold, 20 ms respectively 10 ms, so that only slow calls are committed,
+ * and can be configured with the 'dao.jfc' settings bundled next to this class. The source level
+ * of this project does not include the jdk.jfr API, so the event types are created at runtime with
+ * jdk.jfr.EventFactory through reflection. On a JVM without it {@link #getInstance()} returns null
+ * and no event is emitted. Nothing is allocated when no recording has enabled the events.
+ *
+ * @author alejandro
+ */
+final class DAOEvents {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    private static final Logger LOG = Logger.getLogger(DAOEvents.class.getName());
+
+    static final String OPERATION_EVENT = "es.trapasoft.jsf.dao.Operation";
+    static final String STATEMENT_EVENT = "es.trapasoft.jsf.dao.Statement";
+
+    private static final String[] CATEGORY = { "Application", "DAO" };
+    private static final DAOEvents INSTANCE = create();
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private final EventKind operation;
+    private final EventKind statement;
+    private final Method newEvent;
+    private final Method begin;
+    private final Method end;
+    private final Method shouldCommit;
+    private final Method commit;
+    private final Method set;
+    private final Method isEnabled;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    private DAOEvents(ClassLoader loader) throws ReflectiveOperationException {
+        Class<?> eventFactoryClass = Class.forName("jdk.jfr.EventFactory", true, loader);
+        Class<?> eventClass = Class.forName("jdk.jfr.Event", true, loader);
+        Class<?> eventTypeClass = Class.forName("jdk.jfr.EventType", true, loader);
+        Types types = new Types(loader);
+
+        operation = new EventKind(types.create(OPERATION_EVENT, "DAO Operation",
+            "A call of a DAO method.", "20 ms",
+            types.field(String.class, "operation", "Operation", null),
+            types.field(long.class, "rows", "Rows", null),
+            types.field(long.class, "connectionWait", "Connection Wait", "NANOSECONDS"),
+            types.field(int.class, "statements", "Statements", null)));
+
+        statement = new EventKind(types.create(STATEMENT_EVENT, "DAO Statement",
+            "An execution of a SQL statement by a DAO.", "10 ms",
+            types.field(String.class, "operation", "Operation", null),
+            types.field(String.class, "sql", "SQL", null),
+            types.field(int.class, "bindCount", "Bind Count", null),
+            types.field(long.class, "rows", "Rows", null)));
+
+        newEvent = eventFactoryClass.getMethod("newEvent");
+        begin = eventClass.getMethod("begin");
+        end = eventClass.getMethod("end");
+        shouldCommit = eventClass.getMethod("shouldCommit");
+        commit = eventClass.getMethod("commit");
+        set = eventClass.getMethod("set", int.class, Object.class);
+        isEnabled = eventTypeClass.getMethod("isEnabled");
+        Method getEventType = eventFactoryClass.getMethod("getEventType");
+        operation.type = getEventType.invoke(operation.factory);
+        statement.type = getEventType.invoke(statement.factory);
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Returns the event emitter, or null when this JVM does not support custom JFR events.
+     * @return The event emitter, or null.
+     */
+    static DAOEvents getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Start timing a DAO method call.
+     * @return The started event, or null when no recording has enabled it.
+     */
+    Object beginOperation() {
+        return begin(operation);
+    }
+
+    /**
+     * Stop timing the given DAO method call and commit it when it exceeds the threshold.
+     * @param event The event returned by {@link #beginOperation()}, may be null.
+     * @param name The name of the DAO method.
+     * @param rows The amount of returned rows.
+     * @param connectionWait The time in nanoseconds spent waiting for a connection.
+     * @param statements The amount of executed SQL statements.
+     */
+    void endOperation(Object event, String name, long rows, long connectionWait, int statements) {
+        if (event != null) {
+            end(event, name, rows, connectionWait, statements);
+        }
+    }
+
+    /**
+     * Start timing a SQL statement execution.
+     * @return The started event, or null when no recording has enabled it.
+     */
+    Object beginStatement() {
+        return begin(statement);
+    }
+
+    /**
+     * Stop timing the given SQL statement execution and commit it when it exceeds the threshold.
+     * @param event The event returned by {@link #beginStatement()}, may be null.
+     * @param name The name of the enclosing DAO method, may be null.
+     * @param sql The SQL statement.
+     * @param bindCount The amount of bound parameters.
+     * @param rows The amount of returned or affected rows.
+     */
+    void endStatement(Object event, String name, String sql, int bindCount, long rows) {
+        if (event != null) {
+            end(event, name, sql, bindCount, rows);
+        }
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    /**
+     * Create the event emitter with the class loader of the JDK, or return null when unavailable.
+     */
+    private static DAOEvents create() {
+        try {
+            return new DAOEvents(ClassLoader.getSystemClassLoader());
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            LOG.log(Level.FINE, "Custom JFR events are not supported by this JVM.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns a new begun event of the given kind, or null when it is not enabled.
+     */
+    private Object begin(EventKind kind) {
+        try {
+            if (!(Boolean) isEnabled.invoke(kind.type)) {
+                return null;
+            }
+            Object event = newEvent.invoke(kind.factory);
+            begin.invoke(event);
+            return event;
+        } catch (ReflectiveOperationException e) {
+            LOG.log(Level.FINE, "Cannot begin JFR event.", e);
+            return null;
+        }
+    }
+
+    /**
+     * End the given event, and set the given field values and commit it when it exceeds the
+     * threshold. Failures are logged, the events must never break a DAO call.
+     */
+    private void end(Object event, Object... values) {
+        try {
+            end.invoke(event);
+            if ((Boolean) shouldCommit.invoke(event)) {
+                for (int i = 0; i < values.length; i++) {
+                    set.invoke(event, i, values[i]);
+                }
+                commit.invoke(event);
+            }
+        } catch (ReflectiveOperationException e) {
+            LOG.log(Level.FINE, "Cannot commit JFR event.", e);
+        }
+    }
+
+    // Inner classes ------------------------------------------------------------------------------
+
+    /**
+     * The event factory of an event type, which must be referenced to keep the type registered.
+     */
+    private static final class EventKind {
+        private final Object factory;
+        private Object type;
+
+        EventKind(Object factory) {
+            this.factory = factory;
+        }
+    }
+
+    /**
+     * Builds event types through the reflected jdk.jfr API.
+     */
+    private static final class Types {
+        private final Constructor<?> annotation;
+        private final Constructor<?> valueDescriptor;
+        private final Method createFactory;
+        private final ClassLoader loader;
+
+        Types(ClassLoader loader) throws ReflectiveOperationException {
+            Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement", true, loader);
+            this.annotation = annotationElement.getConstructor(Class.class, Object.class);
+            this.valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor", true, loader)
+                .getConstructor(Class.class, String.class, List.class);
+            this.createFactory = Class.forName("jdk.jfr.EventFactory", true, loader)
+                .getMethod("create", List.class, List.class);
+            this.loader = loader;
+        }
+
+        /**
+         * Returns a new event factory of a duration event with the given name and fields.
+         */
+        Object create(String name, String label, String description, String threshold,
+            Object... fields) throws ReflectiveOperationException
+        {
+            List<Object> annotations = Arrays.asList(
+                annotation("Name", name),
+                annotation("Label", label),
+                annotation("Description", description),
+                annotation("Category", CATEGORY),
+                annotation("Threshold", threshold),
+                annotation("StackTrace", true));
+            return createFactory.invoke(null, annotations, Arrays.asList(fields));
+        }
+
+        /**
+         * Returns a new field of the given type and name, optionally a timespan in the given unit.
+         */
+        Object field(Class<?> type, String name, String label, String timespan)
+            throws ReflectiveOperationException
+        {
+            List<Object> annotations = new ArrayList<Object>(2);
+            annotations.add(annotation("Label", label));
+            if (timespan != null) {
+                annotations.add(annotation("Timespan", timespan));
+            }
+            return valueDescriptor.newInstance(type, name, annotations);
+        }
+
+        /**
+         * Returns a new annotation element of the given jdk.jfr annotation with the given value.
+         */
+        private Object annotation(String type, Object value) throws ReflectiveOperationException {
+            return annotation.newInstance(Class.forName("jdk.jfr." + type, true, loader), value);
+        }
+    }
+
+}
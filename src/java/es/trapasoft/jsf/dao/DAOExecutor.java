@@ -0,0 +1,237 @@
+
+package es.trapasoft.jsf.dao;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class runs the calls of the asynchronous DAO's of a DAOFactory, and in a second instance
+ * the password hashing of its User DAO's, see {@link PasswordHasher}. It is bounded in two ways:
+ * at most 'threads' calls run at the same time, and at most 'queue' more wait for their turn;
+ * calls beyond that fail right away with a DAOException instead of piling up. Each call has a
+ * timeout after which its future fails with a DAOException caused by a TimeoutException and the
+ * running call is interrupted.
+ *
+ * When the JVM supports virtual threads (Java 21 and newer), each call runs in its own virtual
+ * thread, looked up through reflection since the source level of this project predates them, and
+ * at most 'threads' of them get past a semaphore at the same time. Otherwise the calls run in a
+ * fixed pool of 'threads' daemon threads. In both cases the amount of pending calls is bounded by
+ * a semaphore as well, whose permit is only given back once the call has returned, or when it is
+ * dropped before it has started, so that calls which keep running after their timeout still count
+ * against the bound. Note that a JDBC driver which blocks inside synchronized blocks pins the
+ * carrier thread of a virtual thread, which is one more reason to keep 'threads' close to the
+ * connection pool size.
+ *
+ * @author alejandro
+ */
+final class DAOExecutor {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    private static final Logger LOG = Logger.getLogger(DAOExecutor.class.getName());
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private final ExecutorService executor;
+    private final ScheduledExecutorService timer;
+    private final Semaphore admitted;
+    private final Semaphore running;
+    private final long timeout;
+    private final String name;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    /**
+     * Construct an executor with the given bounds.
+     * @param name The short name of the calls, for thread names and error messages.
+     * @param threads The maximum amount of calls running at the same time.
+     * @param queue The maximum amount of calls waiting for their turn.
+     * @param timeout The default timeout of a call in milliseconds, or 0 for none.
+     * @param virtualThreads Whether to use virtual threads when the JVM supports them.
+     */
+    DAOExecutor(String name, int threads, int queue, long timeout, boolean virtualThreads) {
+        if (threads < 1 || queue < 0 || timeout < 0) {
+            throw new DAOConfigurationException("Invalid " + name + " settings, threads=" + threads
+                + ", queue=" + queue + " and timeout=" + timeout + ".");
+        }
+
+        ExecutorService virtual = virtualThreads ? newVirtualThreadPerTaskExecutor() : null;
+
+        if (virtual != null) {
+            this.executor = virtual;
+            this.running = new Semaphore(threads, true);
+        } else {
+            this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), daemonThreads("dao-" + name + "-"));
+            this.running = null;
+        }
+
+        this.admitted = new Semaphore(threads + queue);
+        this.timer = Executors.newSingleThreadScheduledExecutor(daemonThreads("dao-" + name + "-timer-"));
+        this.timeout = timeout;
+        this.name = name;
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Run the given call asynchronously with the given timeout.
+     * @param call The call to run.
+     * @param timeout The timeout in milliseconds, or 0 for none.
+     * @return The future result of the call. It fails with a DAOException when the executor is
+     * saturated or the timeout expires, or with whatever the call has thrown.
+     */
+    <T> CompletableFuture<T> submit(final Callable<T> call, long timeout) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+
+        if (!admitted.tryAcquire()) {
+            future.completeExceptionally(new DAOException("Too many pending " + name + " calls."));
+            return future;
+        }
+
+        // Set by the first of the call starting and the timeout dropping it, and the admitted
+        // permit is released by that one: after the call has returned, or right away if dropped.
+        final AtomicBoolean claimed = new AtomicBoolean();
+        final Future<?> execution;
+
+        try {
+            execution = executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    execute(call, future, claimed);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            admitted.release();
+            future.completeExceptionally(
+                new DAOException("Too many pending " + name + " calls.", e));
+            return future;
+        }
+
+        if (timeout > 0) {
+            final long millis = timeout;
+            final ScheduledFuture<?> expiry = timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (future.completeExceptionally(new DAOException(new TimeoutException(
+                        name + " call did not complete within " + millis + " ms."))))
+                    {
+                        if (claimed.compareAndSet(false, true)) {
+                            execution.cancel(false);
+                            admitted.release();
+                        } else {
+                            execution.cancel(true);
+                        }
+                    }
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+
+            future.whenComplete(new BiConsumer<T, Throwable>() {
+                @Override
+                public void accept(T result, Throwable failure) {
+                    expiry.cancel(false);
+                }
+            });
+        }
+
+        return future;
+    }
+
+    /**
+     * Stop running calls and the timeout timer. Calls which are still pending are interrupted.
+     */
+    void shutdown() {
+        executor.shutdownNow();
+        timer.shutdownNow();
+    }
+
+    // Getters ------------------------------------------------------------------------------------
+
+    /**
+     * Returns the default timeout of a call in milliseconds, or 0 for none.
+     * @return The default timeout of a call in milliseconds.
+     */
+    long getTimeout() {
+        return timeout;
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    /**
+     * Run the given call in the current thread, unless the future has already failed, and complete
+     * the future with its outcome. The admitted permit is released when done, unless the timeout
+     * has claimed the call first and released it itself.
+     */
+    private <T> void execute(Callable<T> call, CompletableFuture<T> future, AtomicBoolean claimed) {
+        if (!claimed.compareAndSet(false, true)) {
+            return;
+        }
+
+        boolean acquired = false;
+
+        try {
+            if (running != null) {
+                running.acquire();
+                acquired = true;
+            }
+            if (!future.isDone()) {
+                future.complete(call.call());
+            }
+        } catch (InterruptedException e) {
+            future.completeExceptionally(new DAOException(e));
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+        } finally {
+            if (acquired) {
+                running.release();
+            }
+            admitted.release();
+        }
+    }
+
+    /**
+     * Returns Executors.newVirtualThreadPerTaskExecutor(), or null when the JVM does not have it.
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.log(Level.FINE, "Virtual threads are not supported, using a fixed pool.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns a factory of daemon threads with the given name prefix.
+     */
+    private static ThreadFactory daemonThreads(final String prefix) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, prefix + THREAD_COUNT.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+}
@@ -2,9 +2,17 @@
 package es.trapasoft.jsf.dao;
 
  
+import es.trapasoft.jsf.models.Project;
+import es.trapasoft.jsf.models.User;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
  
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
@@ -14,7 +22,8 @@ import javax.sql.DataSource;
  * This class represents a DAO factory for a SQL database. You can use {@link #getInstance(String)}
  * to obtain a new instance for the given database name. The specific instance returned depends on
  * the properties file configuration. You can obtain DAO's for the DAO factory instance using the
- * DAO getters.
+ * DAO getters. Web components should rather share one instance per database name through
+ * {@link DAORegistry#get(String)}.
  *
  * This class requires a properties file named 'dao.properties' in the classpath with among others
  * the following properties:
@@ -36,9 +45,78 @@ import javax.sql.DataSource;
 
 * - The 'name.password' must represent the password of the database login.
 
+* - The 'name.pool.max' enables a built-in connection pool of at most that many connections.
+
+* - The 'name.pool.min' is the amount of connections opened at startup and kept open (default 0).
+
+* - The 'name.pool.maxWait' is the time in ms to wait for a free pooled connection (default 30000).
+
+* - The 'name.pool.idleTimeout' is the time in ms after which idle connections are closed
+*   (default 600000).
+
+* - The 'name.pool.validationQuery' is the SQL query to check idle connections with.
+
+* - The 'name.pool.statementCacheSize' is the amount of prepared statements kept per pooled
+*   connection (default 50), or 0 to not keep them.
+
+* - The 'name.fetch' is either 'lazy' (default) or 'eager', see {@link FetchMode}. It is the
+*   default of the DAO getters without a fetch mode argument.
+
+* - The 'name.stream.fetchSize' is the fetch size of the forEach() and stream() scans of the DAO's.
+*   The default Integer.MIN_VALUE makes the MySQL driver stream the rows one by one.
+
+* - The 'name.cache.user.size' and 'name.cache.project.size' enable caching users respectively
+*   projects by ID, with at most that many entries; 'name.cache.user.ttl' and
+*   'name.cache.project.ttl' are the times in ms the entries are valid (default 60000, 0 for
+*   unlimited). With replicas, the caches are only filled by reads from the primary.
+
+* - The 'name.users.refreshInterval' is the time in ms between the reloads of the UserDirectory
+*   from the database in the background, to see the users written by other applications or other
+*   nodes of the cluster (default 600000, 0 for never).
+
+* - The 'name.batch.size' is the amount of rows per batch of the createAll() and updateAll()
+*   methods of the DAO's (default 500). Each batch is committed on its own.
+
+* - The 'name.search.index' is 'true' (default) to search projects by name in an in-memory
+*   trigram index, or 'false' to search them with LIKE in the database. The index is reloaded from
+*   the database in the background every 'name.search.index.refreshInterval' ms (default 600000,
+*   0 for never), so the names written by other applications or other nodes of the cluster are
+*   found after a while. Disable it when they must be found right away.
+
+* - The 'name.email.filter' is 'true' (default) to answer UserDAO#existEmail() from an in-memory
+*   Bloom filter when the email surely does not exist, see EmailFilter. It is sized for a
+*   'name.email.filter.falsePositiveRate' (default 0.01) and rebuilt from the database every
+*   'name.email.filter.rebuildInterval' ms (default 600000, 0 for never). Disable it when other
+*   applications insert users.
+
+* - The 'name.metrics' is 'true' to record the calls of the DAO methods, the executed SQL
+*   statements and the connection acquisitions, see {@link DAOMetrics} (default false).
+
+* - The 'name.jfr' is 'true' to emit Java Flight Recorder events for the DAO methods and the SQL
+*   statements, see {@link DAOEvents} (default false). They are only recorded when enabled in the
+*   recording settings, for example with the bundled 'es/trapasoft/jsf/dao/dao.jfc'.
+
+* - The 'name.async.threads' is the maximum amount of calls of the asynchronous DAO's running at
+*   the same time (default 10), and 'name.async.queue' the maximum amount waiting (default 100).
+*   The 'name.async.timeout' is the time in ms after which a call fails (default 30000, 0 for
+*   none), and 'name.async.virtualThreads' is 'false' to never run them in virtual threads.
+
+* - The passwords of the users are hashed in the application with 'name.password.iterations'
+*   PBKDF2 iterations (default 210000), on at most 'name.password.threads' threads (default the
+*   amount of processors) with at most 'name.password.queue' more waiting (default 64), each
+*   failing after 'name.password.timeout' ms (default 10000), see PasswordHasher.
+
+* - The 'name.replicas' is a comma separated list of the database names of read replicas, each
+*   configured in this file like any other database. The read-only DAO methods then go to a
+*   replica, see {@link RoutingDAOFactory}. The 'name.replicas.balance' is 'roundRobin' (default)
+*   or 'leastLatency'; a replica is ejected after 'name.replicas.ejectAfter' consecutive failures
+*   (default 3) and checked with 'name.replicas.checkQuery' (default SELECT 1) every
+*   'name.replicas.checkInterval' ms (default 5000).
+
 * * If you specify the driver property, then the url property will be assumed as JDBC URL. If you 
 * omit the driver property, then the url property will be assumed as JNDI name. When using JNDI 
 * with username/password preconfigured, you can omit the username and password properties as well. 
+* The pool properties only apply to a JDBC URL, a JNDI DataSource is already pooled by the container.
 * 
 * Here are basic examples of valid properties for a database with the name 'javabase': 
 * 
@@ -46,6 +124,9 @@ import javax.sql.DataSource;
 * javabase.jdbc.driver = com.mysql.jdbc.Driver 
 * javabase.jdbc.username = java 
 * javabase.jdbc.password = d$7hF_r!9Y 
+* javabase.jdbc.pool.max = 20 
+* javabase.jdbc.pool.min = 5 
+* javabase.jdbc.pool.validationQuery = SELECT 1 
 * 
 * javabase.jndi.url = jdbc/javabase 
 * Here is a basic use example: 
@@ -58,10 +139,74 @@ import javax.sql.DataSource;
 */ 
 public abstract class DAOFactory { 
 // Constants ---------------------------------------------------------------------------------- 
+private static final Logger LOG = Logger.getLogger(DAOFactory.class.getName()); 
 private static final String PROPERTY_URL = "url"; 
 private static final String PROPERTY_DRIVER = "driver"; 
 private static final String PROPERTY_USERNAME = "username"; 
 private static final String PROPERTY_PASSWORD = "password"; 
+private static final String PROPERTY_POOL_MAX = "pool.max"; 
+private static final String PROPERTY_POOL_MIN = "pool.min"; 
+private static final String PROPERTY_POOL_MAX_WAIT = "pool.maxWait"; 
+private static final String PROPERTY_POOL_IDLE_TIMEOUT = "pool.idleTimeout"; 
+private static final String PROPERTY_POOL_VALIDATION_QUERY = "pool.validationQuery"; 
+private static final String PROPERTY_POOL_STATEMENT_CACHE_SIZE = "pool.statementCacheSize"; 
+private static final String PROPERTY_FETCH = "fetch"; 
+private static final String PROPERTY_STREAM_FETCH_SIZE = "stream.fetchSize"; 
+private static final String PROPERTY_SEARCH_INDEX = "search.index"; 
+private static final String PROPERTY_SEARCH_INDEX_REFRESH_INTERVAL = "search.index.refreshInterval"; 
+private static final String PROPERTY_EMAIL_FILTER = "email.filter"; 
+private static final String PROPERTY_EMAIL_FILTER_FALSE_POSITIVE_RATE = "email.filter.falsePositiveRate"; 
+private static final String PROPERTY_EMAIL_FILTER_REBUILD_INTERVAL = "email.filter.rebuildInterval"; 
+private static final String PROPERTY_USERS_REFRESH_INTERVAL = "users.refreshInterval"; 
+private static final String PROPERTY_BATCH_SIZE = "batch.size"; 
+private static final String PROPERTY_METRICS = "metrics"; 
+private static final String PROPERTY_JFR = "jfr"; 
+private static final String PROPERTY_ASYNC_THREADS = "async.threads"; 
+private static final String PROPERTY_ASYNC_QUEUE = "async.queue"; 
+private static final String PROPERTY_ASYNC_TIMEOUT = "async.timeout"; 
+private static final String PROPERTY_ASYNC_VIRTUAL_THREADS = "async.virtualThreads"; 
+private static final String PROPERTY_PASSWORD_ITERATIONS = "password.iterations"; 
+private static final String PROPERTY_PASSWORD_THREADS = "password.threads"; 
+private static final String PROPERTY_PASSWORD_QUEUE = "password.queue"; 
+private static final String PROPERTY_PASSWORD_TIMEOUT = "password.timeout"; 
+private static final String PROPERTY_REPLICAS = "replicas"; 
+private static final String PROPERTY_REPLICAS_BALANCE = "replicas.balance"; 
+private static final String PROPERTY_REPLICAS_EJECT_AFTER = "replicas.ejectAfter"; 
+private static final String PROPERTY_REPLICAS_CHECK_INTERVAL = "replicas.checkInterval"; 
+private static final String PROPERTY_REPLICAS_CHECK_QUERY = "replicas.checkQuery"; 
+
+// Vars --------------------------------------------------------------------------------------- 
+
+private FetchMode fetchMode = FetchMode.LAZY; 
+private DAOCaches caches; 
+private int streamFetchSize = Integer.MIN_VALUE; 
+private int batchSize = 500; 
+private final List<ProjectChangeListener> projectListeners = 
+    new CopyOnWriteArrayList<ProjectChangeListener>(); 
+private final List<UserChangeListener> userListeners = 
+    new CopyOnWriteArrayList<UserChangeListener>(); 
+private long userDirectoryRefreshInterval = 600000; 
+private volatile UserDirectory userDirectory; 
+private volatile ProjectHierarchy projectHierarchy; 
+private boolean searchIndexEnabled = true; 
+private long searchIndexRefreshInterval = 600000; 
+private volatile ProjectNameIndex projectNameIndex; 
+private boolean emailFilterEnabled = true; 
+private double emailFilterFalsePositiveRate = 0.01; 
+private long emailFilterRebuildInterval = 600000; 
+private volatile EmailFilter emailFilter; 
+private DAOMetrics metrics; 
+private DAOEvents events; 
+private int asyncThreads = 10; 
+private int asyncQueue = 100; 
+private long asyncTimeout = 30000; 
+private boolean asyncVirtualThreads = true; 
+private int passwordIterations = 210000; 
+private int passwordThreads = Runtime.getRuntime().availableProcessors(); 
+private int passwordQueue = 64; 
+private long passwordTimeout = 10000; 
+private volatile PasswordHasher passwordHasher; 
+private volatile DAOExecutor asyncExecutor; 
 
 // Actions ------------------------------------------------------------------------------------ 
 
@@ -93,7 +238,19 @@ private static final String PROPERTY_PASSWORD = "password";
                 throw new DAOConfigurationException(
                     "Driver class '" + driverClassName + "' is missing in classpath.", e);
             }
-            instance = new DriverManagerDAOFactory(url, username, password);
+
+            // If a pool size is specified, then keep the connections in a pool.
+            if (properties.getProperty(PROPERTY_POOL_MAX, false) != null) {
+                instance = new PooledDAOFactory(url, username, password,
+                    (int) properties.getNumberProperty(PROPERTY_POOL_MAX, 0),
+                    (int) properties.getNumberProperty(PROPERTY_POOL_MIN, 0),
+                    properties.getNumberProperty(PROPERTY_POOL_MAX_WAIT, 30000),
+                    properties.getNumberProperty(PROPERTY_POOL_IDLE_TIMEOUT, 600000),
+                    properties.getProperty(PROPERTY_POOL_VALIDATION_QUERY, false),
+                    (int) properties.getNumberProperty(PROPERTY_POOL_STATEMENT_CACHE_SIZE, 50));
+            } else {
+                instance = new DriverManagerDAOFactory(url, username, password);
+            }
         }
  
         // Else assume URL as DataSource URL and lookup it in the JNDI.
@@ -111,18 +268,609 @@ private static final String PROPERTY_PASSWORD = "password";
                 instance = new DataSourceDAOFactory(dataSource);
             }
         }
+
+        // If replicas are specified, then send the reads to them.
+        String replicas = properties.getProperty(PROPERTY_REPLICAS, false);
+        if (replicas != null) {
+            instance = routing(instance, replicas, properties);
+        }
+
+        instance.caches = DAOCaches.getInstance(properties);
+        instance.streamFetchSize = (int) properties.getNumberProperty(
+            PROPERTY_STREAM_FETCH_SIZE, Integer.MIN_VALUE);
+
+        instance.batchSize = (int) properties.getNumberProperty(PROPERTY_BATCH_SIZE, 500);
+        if (instance.batchSize < 1) {
+            throw new DAOConfigurationException(
+                "Batch size " + instance.batchSize + " is not a positive number.");
+        }
+
+        instance.userDirectoryRefreshInterval = properties.getNumberProperty(
+            PROPERTY_USERS_REFRESH_INTERVAL, instance.userDirectoryRefreshInterval);
+
+        String searchIndex = properties.getProperty(PROPERTY_SEARCH_INDEX, false);
+        instance.searchIndexEnabled = searchIndex == null || Boolean.parseBoolean(searchIndex.trim());
+        instance.searchIndexRefreshInterval = properties.getNumberProperty(
+            PROPERTY_SEARCH_INDEX_REFRESH_INTERVAL, instance.searchIndexRefreshInterval);
+
+        String emailFilter = properties.getProperty(PROPERTY_EMAIL_FILTER, false);
+        instance.emailFilterEnabled = emailFilter == null || Boolean.parseBoolean(emailFilter.trim());
+        String falsePositiveRate =
+            properties.getProperty(PROPERTY_EMAIL_FILTER_FALSE_POSITIVE_RATE, false);
+        if (falsePositiveRate != null) {
+            try {
+                instance.emailFilterFalsePositiveRate = Double.parseDouble(falsePositiveRate.trim());
+            } catch (NumberFormatException e) {
+                throw new DAOConfigurationException("Email filter false positive rate '"
+                    + falsePositiveRate + "' is not a number.", e);
+            }
+            if (!(instance.emailFilterFalsePositiveRate > 0
+                && instance.emailFilterFalsePositiveRate < 1))
+            {
+                throw new DAOConfigurationException("Email filter false positive rate '"
+                    + falsePositiveRate + "' is not between 0 and 1.");
+            }
+        }
+        instance.emailFilterRebuildInterval = properties.getNumberProperty(
+            PROPERTY_EMAIL_FILTER_REBUILD_INTERVAL, instance.emailFilterRebuildInterval);
+
+        String metrics = properties.getProperty(PROPERTY_METRICS, false);
+        if (metrics != null && Boolean.parseBoolean(metrics.trim())) {
+            instance.metrics = DAOMetrics.getInstance(name, instance);
+        }
+
+        String jfr = properties.getProperty(PROPERTY_JFR, false);
+        if (jfr != null && Boolean.parseBoolean(jfr.trim())) {
+            instance.events = DAOEvents.getInstance();
+        }
+
+        instance.asyncThreads = (int) properties.getNumberProperty(PROPERTY_ASYNC_THREADS, 10);
+        instance.asyncQueue = (int) properties.getNumberProperty(PROPERTY_ASYNC_QUEUE, 100);
+        instance.asyncTimeout = properties.getNumberProperty(PROPERTY_ASYNC_TIMEOUT, 30000);
+        String virtualThreads = properties.getProperty(PROPERTY_ASYNC_VIRTUAL_THREADS, false);
+        instance.asyncVirtualThreads =
+            virtualThreads == null || Boolean.parseBoolean(virtualThreads.trim());
+
+        instance.passwordIterations = (int) properties.getNumberProperty(
+            PROPERTY_PASSWORD_ITERATIONS, instance.passwordIterations);
+        instance.passwordThreads = (int) properties.getNumberProperty(
+            PROPERTY_PASSWORD_THREADS, instance.passwordThreads);
+        instance.passwordQueue = (int) properties.getNumberProperty(
+            PROPERTY_PASSWORD_QUEUE, instance.passwordQueue);
+        instance.passwordTimeout = properties.getNumberProperty(
+            PROPERTY_PASSWORD_TIMEOUT, instance.passwordTimeout);
+        if (instance.passwordIterations < PasswordHasher.MIN_ITERATIONS) {
+            throw new DAOConfigurationException("Password iterations " + instance.passwordIterations
+                + " is less than " + PasswordHasher.MIN_ITERATIONS + ".");
+        }
+
+        String fetch = properties.getProperty(PROPERTY_FETCH, false);
+        if (fetch != null) {
+            try {
+                instance.fetchMode = FetchMode.valueOf(fetch.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new DAOConfigurationException(
+                    "Fetch mode '" + fetch + "' is not one of 'lazy' or 'eager'.", e);
+            }
+        }
  
         return instance;
     }
  
     /**
-     * Returns a connection to the database. Package private so that it can be used inside the DAO
-     * package only.
+     * Returns a routing DAOFactory over the given primary DAOFactory and the replicas with the
+     * given comma separated database names.
+     */
+    private static DAOFactory routing(DAOFactory primary, String replicas, DAOProperties properties)
+        throws DAOConfigurationException
+    {
+        List<String> names = new ArrayList<String>();
+        List<DAOFactory> factories = new ArrayList<DAOFactory>();
+
+        for (String replica : replicas.split(",")) {
+            if (!replica.trim().isEmpty()) {
+                names.add(replica.trim());
+                factories.add(getInstance(replica.trim()));
+            }
+        }
+
+        if (factories.isEmpty()) {
+            throw new DAOConfigurationException("Replicas '" + replicas + "' lists no database.");
+        }
+
+        String balance = properties.getProperty(PROPERTY_REPLICAS_BALANCE, false);
+        RoutingDAOFactory.Balance mode = RoutingDAOFactory.Balance.ROUND_ROBIN;
+        if (balance != null) {
+            if ("leastLatency".equalsIgnoreCase(balance.trim())) {
+                mode = RoutingDAOFactory.Balance.LEAST_LATENCY;
+            } else if (!"roundRobin".equalsIgnoreCase(balance.trim())) {
+                throw new DAOConfigurationException(
+                    "Replica balance '" + balance + "' is not one of 'roundRobin' or 'leastLatency'.");
+            }
+        }
+
+        String checkQuery = properties.getProperty(PROPERTY_REPLICAS_CHECK_QUERY, false);
+
+        return new RoutingDAOFactory(primary, names, factories, mode,
+            (int) properties.getNumberProperty(PROPERTY_REPLICAS_EJECT_AFTER, 3),
+            properties.getNumberProperty(PROPERTY_REPLICAS_CHECK_INTERVAL, 5000),
+            (checkQuery != null) ? checkQuery : "SELECT 1");
+    }
+
+    /**
+     * Start a unit of work in the current thread. Until the matching {@link #endUnitOfWork()}, all
+     * DAO calls on the same DAOFactory share one connection, which is acquired on the first call.
+     * Units of work can be nested, only the outermost one releases the connections. Always call
+     * {@link #endUnitOfWork()} in a finally block.
+     */
+    public static void beginUnitOfWork() {
+        UnitOfWork.begin();
+    }
+
+    /**
+     * End the unit of work of the current thread. When this ends the outermost unit of work, the
+     * connections bound to it are released.
+     * @throws DAOException If releasing any of the connections fails.
+     */
+    public static void endUnitOfWork() throws DAOException {
+        UnitOfWork.end();
+    }
+
+    /**
+     * Returns a connection to the database. When a unit of work is active in the current thread,
+     * this is the connection bound to it. Package private so that it can be used inside the DAO
+     * package only. The caller must close the returned connection.
      * @return A connection to the database.
      * @throws SQLException If acquiring the connection fails.
      */
-    abstract Connection getConnection() throws SQLException;
+    Connection getConnection() throws SQLException {
+        UnitOfWork unit = UnitOfWork.current();
+        return (unit != null) ? unit.getConnection(this) : acquireConnection();
+    }
+
+    /**
+     * Release the connection bound to the unit of work of the current thread, if any and if it is
+     * not in a transaction, so that it goes back to the pool while the caller waits on something
+     * else than the database. The next DAO call acquires a connection again. Package private so
+     * that it can be used inside the DAO package only.
+     * @throws SQLException If releasing the connection fails.
+     */
+    void releaseConnection() throws SQLException {
+        UnitOfWork unit = UnitOfWork.current();
+        if (unit != null) {
+            unit.release(this);
+        }
+    }
+
+    /**
+     * Returns a connection to the database for read-only queries. This is the same as
+     * {@link #getConnection()}, unless the DAOFactory routes the reads to replicas. Package private
+     * so that it can be used inside the DAO package only. The caller must close the returned
+     * connection.
+     * @return A connection to the database for read-only queries.
+     * @throws SQLException If acquiring the connection fails.
+     */
+    Connection getReadConnection() throws SQLException {
+        return getConnection();
+    }
+
+    /**
+     * Returns true if {@link #getReadConnection()} returns a connection to the primary database in
+     * the current thread right now, which is always the case unless the DAOFactory routes the reads
+     * to replicas. Package private so that it can be used inside the DAO package only.
+     * @return True if the reads of the current thread go to the primary database.
+     */
+    boolean readsFromPrimary() {
+        return true;
+    }
+
+    /**
+     * Returns a new connection to the database for read-only queries, regardless of any unit of
+     * work. This is the same as {@link #acquireConnection()}, unless the DAOFactory routes the
+     * reads to replicas. Package private so that it can be used inside the DAO package only.
+     * @return A new connection to the database for read-only queries.
+     * @throws SQLException If acquiring the connection fails.
+     */
+    Connection acquireReadConnection() throws SQLException {
+        return acquireConnection();
+    }
+
+    /**
+     * Returns a new connection to the database, regardless of any unit of work. When the metrics
+     * or the events are enabled, the time to acquire it is recorded and the connection records the
+     * statements executed on it. Package private so that it can be used inside the DAO package
+     * only.
+     * @return A new connection to the database.
+     * @throws SQLException If acquiring the connection fails.
+     */
+    Connection acquireConnection() throws SQLException {
+        if (metrics == null && events == null) {
+            return openConnection();
+        }
+
+        long start = System.nanoTime();
+        boolean failed = true;
+
+        try {
+            Connection connection = Instrumentation.connection(openConnection(), metrics, events);
+            failed = false;
+            return connection;
+        } finally {
+            long nanos = System.nanoTime() - start;
+            if (metrics != null) {
+                metrics.connectionAcquired(nanos, failed);
+            }
+            Instrumentation.connectionAcquired(nanos);
+        }
+    }
+
+    /**
+     * Returns a new connection to the database, regardless of any unit of work.
+     * @return A new connection to the database.
+     * @throws SQLException If acquiring the connection fails.
+     */
+    abstract Connection openConnection() throws SQLException;
+
+    /**
+     * Returns a new connection to the database like {@link #openConnection()}, but without waiting
+     * for a free connection when the DAOFactory pools its connections.
+     * @return A new connection to the database, or null if none is free right now.
+     * @throws SQLException If acquiring the connection fails.
+     */
+    Connection tryOpenConnection() throws SQLException {
+        return openConnection();
+    }
+
+    /**
+     * Returns true if {@link #openConnection()} would have to wait for a free connection right now,
+     * because the DAOFactory pools its connections and all of them are handed out.
+     * @return True if all connections are handed out.
+     */
+    boolean isExhausted() {
+        return false;
+    }
  
+    /**
+     * Returns the way the DAO's of this DAOFactory fill the associations of the returned models by
+     * default, as configured by the 'name.fetch' property. Use {@link #getUserDAO(FetchMode)} or
+     * {@link #getProjectDAO(FetchMode)} for a DAO with another fetch mode.
+     * @return The default fetch mode of this DAOFactory.
+     */
+    public FetchMode getFetchMode() {
+        return fetchMode;
+    }
+
+    /**
+     * Returns the fetch size for full table scans. Package private so that it can be used inside
+     * the DAO package only.
+     * @return The fetch size for full table scans.
+     */
+    int getStreamFetchSize() {
+        return streamFetchSize;
+    }
+
+    /**
+     * Returns the amount of rows per batch of the batch writes. Package private so that it can be
+     * used inside the DAO package only.
+     * @return The amount of rows per batch of the batch writes.
+     */
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Returns the entity caches of this DAOFactory, for monitoring purposes. The list is empty when
+     * no cache is configured.
+     * @return The entity caches of this DAOFactory.
+     */
+    public List<EntityCache<?, ?>> getCaches() {
+        return (caches != null) ? caches.getAll() : Collections.<EntityCache<?, ?>>emptyList();
+    }
+
+    /**
+     * Returns the hit, miss and eviction counts of the prepared statement caches of the connections
+     * of this DAOFactory, for monitoring purposes, or null when statements are not cached.
+     * @return The statement cache statistics of this DAOFactory, or null.
+     */
+    public StatementCacheStats getStatementCacheStats() {
+        return null;
+    }
+
+    /**
+     * Returns the in-memory user directory of this DAOFactory, loading it on first call. It is
+     * shared by all its callers and kept up to date with the changes made through the User DAO's
+     * of this DAOFactory, which it receives from before it is loaded on, and reloaded in the
+     * background every 'name.users.refreshInterval' ms.
+     * @return The user directory of this DAOFactory.
+     * @throws DAOException If loading the directory fails at database level.
+     */
+    public UserDirectory getUserDirectory() throws DAOException {
+        UserDirectory directory = userDirectory;
+
+        if (directory == null) {
+            synchronized (this) {
+                directory = userDirectory;
+                if (directory == null) {
+                    directory = new UserDirectory(this, userDirectoryRefreshInterval);
+                    userListeners.add(directory);
+                    try {
+                        directory.refresh();
+                    } catch (DAOException e) {
+                        userListeners.remove(directory);
+                        directory.shutdown();
+                        throw e;
+                    }
+                    userDirectory = directory;
+                }
+            }
+        }
+
+        return directory;
+    }
+
+    /**
+     * Returns the in-memory project hierarchy of this DAOFactory, loading it on first call. It is
+     * kept up to date with the changes made through the Project DAO's of this DAOFactory, which
+     * it receives from before it is loaded on.
+     * @return The project hierarchy of this DAOFactory.
+     * @throws DAOException If loading the hierarchy fails at database level.
+     */
+    public ProjectHierarchy getProjectHierarchy() throws DAOException {
+        ProjectHierarchy hierarchy = projectHierarchy;
+
+        if (hierarchy == null) {
+            synchronized (this) {
+                hierarchy = projectHierarchy;
+                if (hierarchy == null) {
+                    hierarchy = new ProjectHierarchy(this);
+                    projectListeners.add(hierarchy);
+                    try {
+                        hierarchy.refresh();
+                    } catch (DAOException e) {
+                        projectListeners.remove(hierarchy);
+                        throw e;
+                    }
+                    projectHierarchy = hierarchy;
+                }
+            }
+        }
+
+        return hierarchy;
+    }
+
+    /**
+     * Returns the in-memory Bloom filter of the user emails of this DAOFactory, loading it on first
+     * call, or null when it is disabled. Package private so that it can be used inside the DAO
+     * package only.
+     * @return The email filter of this DAOFactory, or null.
+     * @throws DAOException If loading the filter fails at database level.
+     */
+    EmailFilter getEmailFilter() throws DAOException {
+        if (!emailFilterEnabled) {
+            return null;
+        }
+
+        EmailFilter filter = emailFilter;
+
+        if (filter == null) {
+            synchronized (this) {
+                filter = emailFilter;
+                if (filter == null) {
+                    filter = new EmailFilter(this, emailFilterFalsePositiveRate,
+                        emailFilterRebuildInterval);
+                    userListeners.add(filter);
+                    emailFilter = filter;
+                }
+            }
+        }
+
+        return filter;
+    }
+
+    /**
+     * Returns the in-memory trigram index of the project names of this DAOFactory, loading it on
+     * first call, or null when it is disabled. It receives the changes made through the Project
+     * DAO's of this DAOFactory from before it is loaded on. Package private so that it can be
+     * used inside the DAO package only.
+     * @return The project name index of this DAOFactory, or null.
+     * @throws DAOException If loading the index fails at database level.
+     */
+    ProjectNameIndex getProjectNameIndex() throws DAOException {
+        if (!searchIndexEnabled) {
+            return null;
+        }
+
+        ProjectNameIndex index = projectNameIndex;
+
+        if (index == null) {
+            synchronized (this) {
+                index = projectNameIndex;
+                if (index == null) {
+                    index = new ProjectNameIndex(this, searchIndexRefreshInterval);
+                    projectListeners.add(index);
+                    try {
+                        index.refresh();
+                    } catch (DAOException e) {
+                        projectListeners.remove(index);
+                        index.shutdown();
+                        throw e;
+                    }
+                    projectNameIndex = index;
+                }
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * Returns the executor of the asynchronous DAO's of this DAOFactory, creating it on first call.
+     * Package private so that it can be used inside the DAO package only.
+     * @return The executor of the asynchronous DAO's of this DAOFactory.
+     * @throws DAOConfigurationException If the async properties are invalid.
+     */
+    DAOExecutor getAsyncExecutor() throws DAOConfigurationException {
+        DAOExecutor executor = asyncExecutor;
+
+        if (executor == null) {
+            synchronized (this) {
+                executor = asyncExecutor;
+                if (executor == null) {
+                    executor = new DAOExecutor("async",
+                        asyncThreads, asyncQueue, asyncTimeout, asyncVirtualThreads);
+                    asyncExecutor = executor;
+                }
+            }
+        }
+
+        return executor;
+    }
+
+    /**
+     * Returns the password hasher of the User DAO's of this DAOFactory, creating it on first call.
+     * Package private so that it can be used inside the DAO package only.
+     * @return The password hasher of this DAOFactory.
+     * @throws DAOConfigurationException If the password properties are invalid.
+     */
+    PasswordHasher getPasswordHasher() throws DAOConfigurationException {
+        PasswordHasher hasher = passwordHasher;
+
+        if (hasher == null) {
+            synchronized (this) {
+                hasher = passwordHasher;
+                if (hasher == null) {
+                    hasher = new PasswordHasher(passwordIterations, new DAOExecutor("password",
+                        passwordThreads, passwordQueue, passwordTimeout, false), passwordThreads);
+                    passwordHasher = hasher;
+                }
+            }
+        }
+
+        return hasher;
+    }
+
+    /**
+     * Check that the database is reachable and prepare the statements of the most common reads, so
+     * that the first requests do not have to. On a pool this is done on every idle connection, by
+     * keeping each primed connection checked out while the next one is primed. The email check
+     * skips the email filter, which would otherwise answer it without preparing the statement.
+     * Package private so that it can be used inside the DAO package only.
+     * @throws DAOException If the database cannot be reached.
+     */
+    void primeConnections() throws DAOException {
+        int connections = getPrimeCount();
+        List<Connection> primed = new ArrayList<Connection>(connections);
+        UserDAOJDBC userDAO = new UserDAOJDBC(this, fetchMode);
+        ProjectDAO projectDAO = new ProjectDAOJDBC(this, fetchMode);
+
+        try {
+            for (int i = 0; i < connections; i++) {
+                userDAO.find(0L);
+                userDAO.count(Collections.<String, String>emptyMap());
+                userDAO.existEmailInDatabase("");
+                userDAO.findProjectsByUserId(0L);
+                projectDAO.find(0L);
+                projectDAO.findChildren(0L);
+                projectDAO.findUsersByProjectId(0L);
+                if (i + 1 < connections) {
+                    primed.add(acquireConnection());
+                }
+            }
+        } catch (SQLException e) {
+            throw new DAOException(e);
+        } finally {
+            for (Connection connection : primed) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    LOG.log(Level.FINE, "Cannot close primed connection.", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the amount of connections {@link #primeConnections()} prepares the statements on,
+     * which is 1 unless the connections are pooled. Package private so that it can be overridden
+     * inside the DAO package only.
+     * @return The amount of connections to prime.
+     */
+    int getPrimeCount() {
+        return 1;
+    }
+
+    /**
+     * Release the threads and connections held by this DAOFactory, for example when the web
+     * application is undeployed. The DAOFactory must not be used anymore afterwards. Package
+     * private so that it can be used inside the DAO package only.
+     */
+    void shutdown() {
+        DAOExecutor executor = asyncExecutor;
+        if (executor != null) {
+            executor.shutdown();
+        }
+        PasswordHasher hasher = passwordHasher;
+        if (hasher != null) {
+            hasher.shutdown();
+        }
+        EmailFilter filter = emailFilter;
+        if (filter != null) {
+            filter.shutdown();
+        }
+        UserDirectory directory = userDirectory;
+        if (directory != null) {
+            directory.shutdown();
+        }
+        ProjectNameIndex index = projectNameIndex;
+        if (index != null) {
+            index.shutdown();
+        }
+    }
+
+    /**
+     * Notify the in-memory structures of this DAOFactory that the given users have been created
+     * or updated. Package private so that it can be used inside the DAO package only.
+     * @param users The saved users.
+     */
+    void fireUsersSaved(List<User> users) {
+        for (UserChangeListener listener : userListeners) {
+            listener.usersSaved(users);
+        }
+    }
+
+    /**
+     * Notify the in-memory structures of this DAOFactory that the user with the given ID has been
+     * deleted. Package private so that it can be used inside the DAO package only.
+     * @param id The ID of the deleted user.
+     */
+    void fireUserDeleted(Long id) {
+        for (UserChangeListener listener : userListeners) {
+            listener.userDeleted(id);
+        }
+    }
+
+    /**
+     * Notify the in-memory structures of this DAOFactory that the given project has been created
+     * or updated. Package private so that it can be used inside the DAO package only.
+     * @param project The saved project.
+     */
+    void fireProjectSaved(Project project) {
+        for (ProjectChangeListener listener : projectListeners) {
+            listener.projectSaved(project);
+        }
+    }
+
+    /**
+     * Notify the in-memory structures of this DAOFactory that the project with the given ID has
+     * been deleted. Package private so that it can be used inside the DAO package only.
+     * @param id The ID of the deleted project.
+     */
+    void fireProjectDeleted(Long id) {
+        for (ProjectChangeListener listener : projectListeners) {
+            listener.projectDeleted(id);
+        }
+    }
+
     // DAO implementation getters -----------------------------------------------------------------
  
     /**
@@ -130,13 +878,87 @@ private static final String PROPERTY_PASSWORD = "password";
      * @return The User DAO associated with the current DAOFactory.
      */
     public UserDAO getUserDAO() {
-        return new UserDAOJDBC(this);
+        return getUserDAO(fetchMode);
+    }
+
+    /**
+     * Returns the User DAO associated with the current DAOFactory, which fills the associations of
+     * the returned models with the given fetch mode instead of the configured one.
+     * @param fetchMode The fetch mode of the returned DAO.
+     * @return The User DAO associated with the current DAOFactory.
+     */
+    public UserDAO getUserDAO(FetchMode fetchMode) {
+        if (fetchMode == null) {
+            throw new IllegalArgumentException("Fetch mode is null.");
+        }
+        UserDAO userDAO = new UserDAOJDBC(this, fetchMode);
+        if (caches != null) {
+            userDAO = new CachingUserDAO(userDAO, this, caches, fetchMode);
+        }
+        return (metrics != null || events != null)
+            ? Instrumentation.dao(UserDAO.class, userDAO, metrics, events) : userDAO;
     }
  
     // You can add more DAO implementation getters here.
     
     public ProjectDAO getProjectDAO() {
-        return new ProjectDAOJDBC(this);
+        return getProjectDAO(fetchMode);
+    }
+
+    /**
+     * Returns the Project DAO associated with the current DAOFactory, which fills the associations
+     * of the returned models with the given fetch mode instead of the configured one.
+     * @param fetchMode The fetch mode of the returned DAO.
+     * @return The Project DAO associated with the current DAOFactory.
+     */
+    public ProjectDAO getProjectDAO(FetchMode fetchMode) {
+        if (fetchMode == null) {
+            throw new IllegalArgumentException("Fetch mode is null.");
+        }
+        ProjectDAO projectDAO = new ProjectDAOJDBC(this, fetchMode);
+        if (caches != null) {
+            projectDAO = new CachingProjectDAO(projectDAO, this, caches, fetchMode);
+        }
+        return (metrics != null || events != null)
+            ? Instrumentation.dao(ProjectDAO.class, projectDAO, metrics, events) : projectDAO;
+    }
+
+    /**
+     * Returns the asynchronous User DAO associated with the current DAOFactory.
+     * @return The asynchronous User DAO associated with the current DAOFactory.
+     */
+    public AsyncUserDAO getAsyncUserDAO() {
+        return getAsyncUserDAO(fetchMode);
+    }
+
+    /**
+     * Returns the asynchronous User DAO associated with the current DAOFactory, which fills the
+     * associations of the returned models with the given fetch mode instead of the configured one.
+     * @param fetchMode The fetch mode of the returned DAO.
+     * @return The asynchronous User DAO associated with the current DAOFactory.
+     */
+    public AsyncUserDAO getAsyncUserDAO(FetchMode fetchMode) {
+        DAOExecutor executor = getAsyncExecutor();
+        return new AsyncUserDAOAdapter(getUserDAO(fetchMode), executor, executor.getTimeout());
+    }
+
+    /**
+     * Returns the asynchronous Project DAO associated with the current DAOFactory.
+     * @return The asynchronous Project DAO associated with the current DAOFactory.
+     */
+    public AsyncProjectDAO getAsyncProjectDAO() {
+        return getAsyncProjectDAO(fetchMode);
+    }
+
+    /**
+     * Returns the asynchronous Project DAO associated with the current DAOFactory, which fills the
+     * associations of the returned models with the given fetch mode instead of the configured one.
+     * @param fetchMode The fetch mode of the returned DAO.
+     * @return The asynchronous Project DAO associated with the current DAOFactory.
+     */
+    public AsyncProjectDAO getAsyncProjectDAO(FetchMode fetchMode) {
+        DAOExecutor executor = getAsyncExecutor();
+        return new AsyncProjectDAOAdapter(getProjectDAO(fetchMode), executor, executor.getTimeout());
     }
  
 }
@@ -158,7 +980,7 @@ class DriverManagerDAOFactory extends DAOFactory {
     }
  
     @Override
-    Connection getConnection() throws SQLException {
+    Connection openConnection() throws SQLException {
         return DriverManager.getConnection(url, username, password);
     }
 }
@@ -174,7 +996,7 @@ class DataSourceDAOFactory extends DAOFactory {
     }
  
     @Override
-    Connection getConnection() throws SQLException {
+    Connection openConnection() throws SQLException {
         return dataSource.getConnection();
     }
 }
@@ -194,7 +1016,7 @@ class DataSourceWithLoginDAOFactory extends DAOFactory {
     }
  
     @Override
-    Connection getConnection() throws SQLException {
+    Connection openConnection() throws SQLException {
         return dataSource.getConnection(username, password);
     }
 }
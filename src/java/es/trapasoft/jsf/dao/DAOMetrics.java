@@ -0,0 +1,282 @@
+
+package es.trapasoft.jsf.dao;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * This class holds the metrics of the DAO's of a database name: the statistics of every DAO method
+ * and of every SQL statement, and the latency of acquiring connections together with the amount of
+ * active and idle pooled connections. It is enabled with the 'name.metrics' property, see
+ * {@link DAOFactory}; when it is disabled, and so are the {@link DAOEvents}, no DAO, connection or
+ * statement is wrapped at all.
+ *
+ * There is one instance per database name, shared by all DAOFactory instances of that name. It is
+ * registered in the platform MBean server as 'es.trapasoft.jsf.dao:type=DAOMetrics,database=name',
+ * and each operation below it with the additional keys 'kind' (method or sql) and 'name'. The
+ * {@link #report()} is also served as plain text by the DAOMetricsServlet.
+ *
+ * @author alejandro
+ */
+public final class DAOMetrics implements DAOMetricsMBean {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    private static final Logger LOG = Logger.getLogger(DAOMetrics.class.getName());
+    private static final String DOMAIN = "es.trapasoft.jsf.dao";
+    private static final ConcurrentMap<String, DAOMetrics> INSTANCES =
+        new ConcurrentHashMap<String, DAOMetrics>();
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private final String name;
+    private final ConcurrentMap<Method, OperationStats> methods =
+        new ConcurrentHashMap<Method, OperationStats>();
+    private final ConcurrentMap<String, OperationStats> statements =
+        new ConcurrentHashMap<String, OperationStats>();
+    private final OperationStats acquires = new OperationStats("connection.acquire");
+    private volatile DAOFactory daoFactory;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    private DAOMetrics(String name) {
+        this.name = name;
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Returns the metrics of the given database name, creating and registering them on first call.
+     * The pool counts are taken from the given DAOFactory from now on. Package private so that it
+     * can be used inside the DAO package only.
+     * @param name The database name.
+     * @param daoFactory The DAOFactory of the database name which has been created last.
+     * @return The metrics of the given database name.
+     */
+    static DAOMetrics getInstance(String name, DAOFactory daoFactory) {
+        DAOMetrics metrics = INSTANCES.get(name);
+
+        if (metrics == null) {
+            DAOMetrics created = new DAOMetrics(name);
+            metrics = INSTANCES.putIfAbsent(name, created);
+            if (metrics == null) {
+                metrics = created;
+                register(metrics, objectName(name, null, null));
+            }
+        }
+
+        metrics.daoFactory = daoFactory;
+        return metrics;
+    }
+
+    /**
+     * Returns the metrics of all database names which have them enabled.
+     * @return The metrics of all database names which have them enabled, ordered by name.
+     */
+    public static Collection<DAOMetrics> getInstances() {
+        return Collections.unmodifiableCollection(
+            new TreeMap<String, DAOMetrics>(INSTANCES).values());
+    }
+
+    /**
+     * Unregister all metrics from the platform MBean server and forget them, for example when the
+     * web application is undeployed.
+     */
+    public static void unregisterAll() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        for (String name : new ArrayList<String>(INSTANCES.keySet())) {
+            if (INSTANCES.remove(name) == null) {
+                continue;
+            }
+            try {
+                for (ObjectName objectName : server.queryNames(objectName(name, "*", null), null)) {
+                    server.unregisterMBean(objectName);
+                }
+            } catch (JMException e) {
+                LOG.log(Level.WARNING, "Cannot unregister DAO metrics of '" + name + "'.", e);
+            }
+        }
+    }
+
+    /**
+     * Returns the statistics of the given DAO method, creating and registering them on first call.
+     * @param method The DAO interface method.
+     * @return The statistics of the given DAO method.
+     */
+    OperationStats method(Method method) {
+        OperationStats stats = methods.get(method);
+        return (stats != null) ? stats : add(methods, method, Instrumentation.name(method), "method");
+    }
+
+    /**
+     * Returns the statistics of the given SQL statement, creating and registering them on first
+     * call.
+     * @param sql The SQL statement.
+     * @return The statistics of the given SQL statement.
+     */
+    OperationStats statement(String sql) {
+        OperationStats stats = statements.get(sql);
+        return (stats != null) ? stats : add(statements, sql, sql, "sql");
+    }
+
+    /**
+     * Record one attempt to acquire a connection.
+     * @param nanos The time spent in nanoseconds, including waiting for a pooled connection.
+     * @param failed Whether acquiring the connection has failed.
+     */
+    void connectionAcquired(long nanos, boolean failed) {
+        acquires.record(nanos, failed);
+    }
+
+    /**
+     * Returns all metrics as plain text, one operation per line with its latencies in
+     * microseconds, the DAO methods ordered by name and then the SQL statements ordered by SQL.
+     * @return All metrics as plain text.
+     */
+    @Override
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        report.append("# ").append(name).append('\n');
+        report.append("connections active=").append(getActiveConnections())
+            .append(" idle=").append(getIdleConnections()).append('\n');
+        report.append(acquires.getName()).append(' ').append(acquires).append('\n');
+
+        Map<String, OperationStats> sorted = new TreeMap<String, OperationStats>();
+        for (OperationStats stats : methods.values()) {
+            sorted.put(stats.getName(), stats);
+        }
+        for (OperationStats stats : sorted.values()) {
+            report.append("method ").append(stats.getName()).append(' ').append(stats).append('\n');
+        }
+
+        for (OperationStats stats : new TreeMap<String, OperationStats>(statements).values()) {
+            report.append("sql \"").append(stats.getName().replaceAll("\\s+", " ")).append("\" ")
+                .append(stats).append('\n');
+        }
+
+        return report.toString();
+    }
+
+    // Getters ------------------------------------------------------------------------------------
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int getActiveConnections() {
+        DAOFactory daoFactory = this.daoFactory;
+        return (daoFactory instanceof PooledDAOFactory)
+            ? ((PooledDAOFactory) daoFactory).getActiveCount() : -1;
+    }
+
+    @Override
+    public int getIdleConnections() {
+        DAOFactory daoFactory = this.daoFactory;
+        return (daoFactory instanceof PooledDAOFactory)
+            ? ((PooledDAOFactory) daoFactory).getIdleCount() : -1;
+    }
+
+    @Override
+    public long getConnectionAcquires() {
+        return acquires.getCalls();
+    }
+
+    @Override
+    public long getConnectionAcquireErrors() {
+        return acquires.getErrors();
+    }
+
+    @Override
+    public long getConnectionAcquireP50Micros() {
+        return acquires.getP50Micros();
+    }
+
+    @Override
+    public long getConnectionAcquireP95Micros() {
+        return acquires.getP95Micros();
+    }
+
+    @Override
+    public long getConnectionAcquireP99Micros() {
+        return acquires.getP99Micros();
+    }
+
+    @Override
+    public long getConnectionAcquireMaxMicros() {
+        return acquires.getMaxMicros();
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    /**
+     * Add new statistics for the given key to the given map, unless another thread was first, and
+     * register them in the platform MBean server.
+     */
+    private <K> OperationStats add(ConcurrentMap<K, OperationStats> map, K key, String operation,
+        String kind)
+    {
+        OperationStats created = new OperationStats(operation);
+        OperationStats stats = map.putIfAbsent(key, created);
+
+        if (stats == null) {
+            stats = created;
+            register(stats, objectName(name, kind, operation));
+        }
+
+        return stats;
+    }
+
+    /**
+     * Returns the JMX object name of the given database name, or of its operation of the given
+     * kind and name. A kind of "*" returns the pattern of the database name and all its
+     * operations.
+     */
+    private static ObjectName objectName(String name, String kind, String operation) {
+        StringBuilder objectName = new StringBuilder(DOMAIN)
+            .append(":type=DAOMetrics,database=").append(ObjectName.quote(name));
+
+        if ("*".equals(kind)) {
+            objectName.append(",*");
+        } else if (kind != null) {
+            objectName.append(",kind=").append(kind)
+                .append(",name=").append(ObjectName.quote(operation.replaceAll("\\s+", " ")));
+        }
+
+        try {
+            return new ObjectName(objectName.toString());
+        } catch (JMException e) {
+            throw new IllegalArgumentException("Invalid object name '" + objectName + "'.", e);
+        }
+    }
+
+    /**
+     * Register the given MBean in the platform MBean server. Failures are logged, the metrics are
+     * still served by the DAOMetricsServlet.
+     */
+    private static void register(Object mbean, ObjectName objectName) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(mbean, objectName);
+            }
+        } catch (JMException e) {
+            LOG.log(Level.WARNING, "Cannot register MBean '" + objectName + "'.", e);
+        }
+    }
+
+}
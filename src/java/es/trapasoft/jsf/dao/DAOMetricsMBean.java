@@ -0,0 +1,32 @@
+
+package es.trapasoft.jsf.dao;
+
+/**
+ * The JMX management interface of {@link DAOMetrics}. The latencies are in microseconds, the
+ * connection counts are -1 when the DAOFactory does not pool its connections.
+ *
+ * @author alejandro
+ */
+public interface DAOMetricsMBean {
+
+    String getName();
+
+    int getActiveConnections();
+
+    int getIdleConnections();
+
+    long getConnectionAcquires();
+
+    long getConnectionAcquireErrors();
+
+    long getConnectionAcquireP50Micros();
+
+    long getConnectionAcquireP95Micros();
+
+    long getConnectionAcquireP99Micros();
+
+    long getConnectionAcquireMaxMicros();
+
+    String report();
+
+}
@@ -84,5 +84,28 @@ public class DAOProperties {
  
         return property;
     }
- 
+
+    /**
+     * Returns the DAOProperties instance specific property value associated with the given key as
+     * a long, or the given default value when the property is not specified.
+     * @param key The key to be associated with a DAOProperties instance specific value.
+     * @param defaultValue The value to be returned when the property is null or empty.
+     * @return The DAOProperties instance specific property value associated with the given key.
+     * @throws DAOConfigurationException If the property value is not a valid number.
+     */
+    public long getNumberProperty(String key, long defaultValue) throws DAOConfigurationException {
+        String property = getProperty(key, false);
+
+        if (property == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Long.parseLong(property.trim());
+        } catch (NumberFormatException e) {
+            throw new DAOConfigurationException("Property '" + specificKey + "." + key + "'"
+                + " in properties file '" + PROPERTIES_FILE + "' is not a valid number.", e);
+        }
+    }
+
 }
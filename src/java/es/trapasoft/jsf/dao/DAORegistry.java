@@ -0,0 +1,105 @@
+
+package es.trapasoft.jsf.dao;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class holds the one DAOFactory per database name which is shared by the whole application.
+ * {@link DAOFactory#getInstance(String)} reads the properties, loads the driver or looks up the
+ * DataSource and creates the pool, the caches and the in-memory structures anew on every call, so
+ * that it should be called once per database name, not once per session. The registry does that on
+ * first {@link #get(String)}, or at application startup with {@link #warmUp(String)}, which also
+ * checks that the database is reachable, primes the pooled connections and loads the user
+ * directory, the project hierarchy and the project name index, so that the first requests after a
+ * deploy are not slow.
+ *
+ * @author alejandro
+ */
+public final class DAORegistry {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    private static final Logger LOG = Logger.getLogger(DAORegistry.class.getName());
+    private static final ConcurrentMap<String, DAOFactory> INSTANCES =
+        new ConcurrentHashMap<String, DAOFactory>();
+
+    // Constructors -------------------------------------------------------------------------------
+
+    private DAORegistry() {
+        // Utility class, hide constructor.
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Returns the shared DAOFactory of the given database name, creating it on first call.
+     * @param name The database name to return the shared DAOFactory for.
+     * @return The shared DAOFactory of the given database name.
+     * @throws DAOConfigurationException If the database name is null, or if the DAOFactory cannot
+     * be created, see {@link DAOFactory#getInstance(String)}.
+     */
+    public static DAOFactory get(String name) throws DAOConfigurationException {
+        if (name == null) {
+            throw new DAOConfigurationException("Database name is null.");
+        }
+
+        DAOFactory instance = INSTANCES.get(name);
+
+        if (instance == null) {
+            // A DAOFactory may start threads and open connections, so never create one in vain.
+            synchronized (INSTANCES) {
+                instance = INSTANCES.get(name);
+                if (instance == null) {
+                    instance = DAOFactory.getInstance(name);
+                    INSTANCES.put(name, instance);
+                }
+            }
+        }
+
+        return instance;
+    }
+
+    /**
+     * Returns the shared DAOFactory of the given database name, creating it on first call, after
+     * checking that the database is reachable, priming its connections and loading its in-memory
+     * structures. Meant to be called at application startup.
+     * @param name The database name to warm up the shared DAOFactory for.
+     * @return The shared DAOFactory of the given database name.
+     * @throws DAOConfigurationException If the DAOFactory cannot be created.
+     * @throws DAOException If the database cannot be reached or the loading fails at database
+     * level. The DAOFactory is registered nonetheless.
+     */
+    public static DAOFactory warmUp(String name) throws DAOConfigurationException, DAOException {
+        DAOFactory instance = get(name);
+        long start = System.nanoTime();
+
+        instance.primeConnections();
+        instance.getUserDirectory();
+        instance.getProjectHierarchy();
+        instance.getProjectNameIndex();
+        instance.getEmailFilter();
+
+        LOG.log(Level.INFO, "DAOFactory '" + name + "' warmed up in "
+            + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms.");
+        return instance;
+    }
+
+    /**
+     * Shut down and forget all shared DAOFactory instances, for example when the web application
+     * is undeployed.
+     */
+    public static void shutdown() {
+        for (String name : new ArrayList<String>(INSTANCES.keySet())) {
+            DAOFactory instance = INSTANCES.remove(name);
+            if (instance != null) {
+                instance.shutdown();
+            }
+        }
+    }
+
+}
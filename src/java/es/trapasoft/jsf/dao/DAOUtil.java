@@ -10,11 +10,16 @@ import java.sql.Date;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Utility class for DAO's. This class contains commonly used DAO logic which is been refactored in
- * single static methods. As far it contains a PreparedStatement values setter and a
- * <code>java.util.Date</code> to <code>java.sql.Date</code> converter.
+ * single static methods. As far it contains a PreparedStatement values setter, a
+ * <code>java.util.Date</code> to <code>java.sql.Date</code> converter and a waiter for the results of
+ * the asynchronous DAO's. PreparedStatements of pooled
+ * connections are taken from the statement cache of the connection when it has one.
  *
  * @author BalusC
  * @link http://balusc.blogspot.com/2008/07/dao-tutorial-data-layer.html
@@ -42,9 +47,57 @@ public final class DAOUtil {
         (Connection connection, String sql, boolean returnGeneratedKeys, Object... values)
             throws SQLException
     {
-        PreparedStatement statement = connection.prepareStatement(sql,
-            returnGeneratedKeys ? Statement.RETURN_GENERATED_KEYS : Statement.NO_GENERATED_KEYS);
-        setValues(statement, values);
+        PreparedStatement statement = prepare(connection, sql, returnGeneratedKeys);
+        try {
+            setValues(statement, values);
+        } catch (SQLException e) {
+            statement.close();
+            throw e;
+        }
+        return statement;
+    }
+
+    /**
+     * Returns a PreparedStatement of the given connection, set with the given SQL query and the
+     * given parameter values, bound according to the parameter types declared by the query.
+     * @param connection The Connection to create the PreparedStatement from.
+     * @param query The SQL query to construct the PreparedStatement with.
+     * @param returnGeneratedKeys Set whether to return generated keys or not.
+     * @param values The parameter values to be set in the created PreparedStatement.
+     * @throws SQLException If something fails during creating the PreparedStatement.
+     */
+    static PreparedStatement prepareStatement
+        (Connection connection, SqlQuery query, boolean returnGeneratedKeys, Object... values)
+            throws SQLException
+    {
+        PreparedStatement statement = prepare(connection, query.getSql(), returnGeneratedKeys);
+        try {
+            query.setValues(statement, values);
+        } catch (SQLException e) {
+            statement.close();
+            throw e;
+        }
+        return statement;
+    }
+
+    /**
+     * Returns a PreparedStatement of the given connection, set with the given SQL query taking a
+     * single BIGINT parameter, typically an ID, which is set without boxing.
+     * @param connection The Connection to create the PreparedStatement from.
+     * @param query The SQL query to construct the PreparedStatement with.
+     * @param id The value of the single parameter.
+     * @throws SQLException If something fails during creating the PreparedStatement.
+     */
+    static PreparedStatement prepareStatement(Connection connection, SqlQuery query, long id)
+        throws SQLException
+    {
+        PreparedStatement statement = prepare(connection, query.getSql(), false);
+        try {
+            statement.setLong(1, id);
+        } catch (SQLException e) {
+            statement.close();
+            throw e;
+        }
         return statement;
     }
 
@@ -58,10 +111,67 @@ public final class DAOUtil {
         throws SQLException
     {
         for (int i = 0; i < values.length; i++) {
-            statement.setObject(i + 1, values[i]);
+            Object value = values[i];
+            if (value instanceof Long) {
+                statement.setLong(i + 1, (Long) value);
+            } else if (value instanceof String) {
+                statement.setString(i + 1, (String) value);
+            } else {
+                statement.setObject(i + 1, value);
+            }
+        }
+    }
+
+    /**
+     * Waits for the result of the given call of an asynchronous DAO. When the call has failed with
+     * a runtime exception, such as a DAOException, that exception is thrown as is instead of
+     * wrapped in a CompletionException, just like the synchronous DAO's would throw it.
+     * @param future The future result of an asynchronous DAO call.
+     * @return The result of the call.
+     * @throws DAOException If the call has failed with a checked exception, or if the current
+     * thread has been interrupted while waiting.
+     */
+    public static <T> T join(CompletableFuture<T> future) throws DAOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DAOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = (e.getCause() instanceof CompletionException
+                && e.getCause().getCause() != null) ? e.getCause().getCause() : e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new DAOException(cause);
         }
     }
 
+    // Helpers ------------------------------------------------------------------------------------
+
+    /**
+     * Returns a new PreparedStatement of the given connection, or a cached one when the connection
+     * has a statement cache.
+     */
+    private static PreparedStatement prepare
+        (Connection connection, String sql, boolean returnGeneratedKeys) throws SQLException
+    {
+        StatementCache cache = (connection instanceof StatementCachingConnection)
+            ? ((StatementCachingConnection) connection).getStatementCache() : null;
+
+        if (cache == null) {
+            return connection.prepareStatement(sql,
+                returnGeneratedKeys ? Statement.RETURN_GENERATED_KEYS : Statement.NO_GENERATED_KEYS);
+        }
+
+        // The cached statements bypass connection.prepareStatement(), so record them here.
+        PreparedStatement statement = cache.prepareStatement(sql, returnGeneratedKeys);
+        return (connection instanceof MonitoredConnection)
+            ? Instrumentation.statement(statement, sql, (MonitoredConnection) connection) : statement;
+    }
+
     /**
      * Converts the given java.util.Date to java.sql.Date.
      * @param date The java.util.Date to be converted to java.sql.Date.
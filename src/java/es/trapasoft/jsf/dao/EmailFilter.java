@@ -0,0 +1,308 @@
+package es.trapasoft.jsf.dao;
+
+import es.trapasoft.jsf.models.User;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Filtro de Bloom de los emails de la tabla users, para que {@link UserDAO#existEmail(String)}
+ * conteste "no existe" sin ir a la bd, que es la respuesta de casi todas las comprobaciones del
+ * formulario de alta. Si el filtro dice que un email puede existir, hay que preguntar a la bd: con
+ * una probabilidad cercana a la configurada el filtro da un falso positivo, pero nunca un falso
+ * negativo.
+ *
+ * El tamaño se calcula con el número de filas de users (más un margen para las altas) y la
+ * probabilidad de falso positivo deseada. Los emails se normalizan como los compara la collation
+ * de la bd (sin distinguir mayúsculas, tildes ni espacios al final).
+ *
+ * Los create y update de los UserDAO de la misma DAOFactory añaden su email al filtro. Un filtro
+ * de Bloom no permite quitar elementos, así que los emails borrados o cambiados siguen dando
+ * positivo hasta que el filtro se reconstruye entero de la bd, cosa que se hace en segundo plano
+ * cada cierto tiempo, lo que además lo redimensiona si la tabla ha crecido. Los emails añadidos
+ * durante los dos últimos periodos se vuelven a meter en cada filtro nuevo, para no perder los
+ * de transacciones que aún no estaban confirmadas o que la réplica aún no tenía cuando se leyó.
+ *
+ * @author alejandro
+ */
+final class EmailFilter implements UserChangeListener {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    private static final Logger LOG = Logger.getLogger(EmailFilter.class.getName());
+
+    private static final String SQL_COUNT
+            = "select count(*) from users";
+    private static final String SQL_LIST_EMAILS
+            = "select email from users";
+
+    private static final StreamingQuery.Mapper<String> EMAIL = new StreamingQuery.Mapper<String>() {
+        @Override
+        public String map(ResultSet resultSet) throws SQLException {
+            return resultSet.getString(1);
+        }
+    };
+
+    /** Capacidad mínima, para que una tabla vacía o pequeña no dé un filtro que se llena enseguida. */
+    private static final long MIN_CAPACITY = 1024;
+
+    /** Margen sobre el número de filas, para las altas hasta la siguiente reconstrucción. */
+    private static final double GROWTH = 1.5;
+
+    private static final AtomicInteger REBUILDER_COUNT = new AtomicInteger();
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private final DAOFactory daoFactory;
+    private final double falsePositiveRate;
+    private final ScheduledExecutorService rebuilder;
+    private volatile Bits bits;
+    private volatile Set<String> recent = newRecentSet();
+    private volatile Set<String> previous = newRecentSet();
+
+    // Constructors -------------------------------------------------------------------------------
+
+    /**
+     * Construye el filtro de la DAOFactory dada, lo carga de la bd y programa su reconstrucción.
+     *
+     * @param daoFactory La DAOFactory de la que leer los emails.
+     * @param falsePositiveRate La probabilidad de falso positivo deseada, entre 0 y 1.
+     * @param rebuildInterval Los milisegundos entre reconstrucciones, o 0 para no reconstruir.
+     * @throws DAOException Si falla algo en la bd.
+     */
+    EmailFilter(DAOFactory daoFactory, double falsePositiveRate, long rebuildInterval)
+        throws DAOException
+    {
+        this.daoFactory = daoFactory;
+        this.falsePositiveRate = falsePositiveRate;
+        rebuild();
+
+        if (rebuildInterval > 0) {
+            rebuilder = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable,
+                        "dao-email-filter-" + REBUILDER_COUNT.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            rebuilder.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        rebuild();
+                    } catch (DAOException e) {
+                        LOG.log(Level.WARNING, "Cannot rebuild email filter, keeping the old one.", e);
+                    }
+                }
+            }, rebuildInterval, rebuildInterval, TimeUnit.MILLISECONDS);
+        } else {
+            rebuilder = null;
+        }
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Devuelve false si el email dado seguro que no está en la bd, y true si puede estar.
+     *
+     * @param email El email a comprobar.
+     * @return False si el email no existe, true si puede existir.
+     */
+    boolean mightContain(String email) {
+        return email == null || bits.mightContain(normalize(email));
+    }
+
+    /**
+     * Vuelve a cargar el filtro entero de la bd, con el tamaño que corresponde al número de filas
+     * actual, y lo sustituye al terminar. Mientras tanto el filtro anterior sigue contestando.
+     *
+     * @throws DAOException Si falla algo en la bd.
+     */
+    synchronized void rebuild() throws DAOException {
+        // Lo añadido antes de esta reconstrucción se guarda un periodo más.
+        previous = recent;
+        recent = newRecentSet();
+
+        final Bits loaded = new Bits(capacity(count()), falsePositiveRate);
+
+        StreamingQuery.forEach(daoFactory, SQL_LIST_EMAILS, EMAIL, new Consumer<String>() {
+            @Override
+            public void accept(String email) {
+                if (email != null) {
+                    loaded.add(normalize(email));
+                }
+            }
+        });
+
+        addRecent(loaded);
+        bits = loaded;
+        // Lo que se haya añadido al filtro anterior entre medias.
+        addRecent(loaded);
+    }
+
+    /**
+     * Para la reconstrucción en segundo plano.
+     */
+    void shutdown() {
+        if (rebuilder != null) {
+            rebuilder.shutdownNow();
+        }
+    }
+
+    @Override
+    public void usersSaved(List<User> users) {
+        for (User user : users) {
+            if (user.getEmail() != null) {
+                String email = normalize(user.getEmail());
+                recent.add(email);
+                bits.add(email);
+            }
+        }
+    }
+
+    @Override
+    public void userDeleted(Long id) {
+        // No se puede quitar de un filtro de Bloom, se queda hasta la siguiente reconstrucción.
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    private long count() throws DAOException {
+        try (
+            Connection connection = daoFactory.acquireReadConnection();
+            PreparedStatement statement = connection.prepareStatement(SQL_COUNT);
+            ResultSet resultSet = statement.executeQuery();
+        ) {
+            return resultSet.next() ? resultSet.getLong(1) : 0;
+        } catch (SQLException e) {
+            throw new DAOException(e);
+        }
+    }
+
+    private void addRecent(Bits target) {
+        for (String email : previous) {
+            target.add(email);
+        }
+        for (String email : recent) {
+            target.add(email);
+        }
+    }
+
+    private static long capacity(long rows) {
+        return Math.max(MIN_CAPACITY, (long) (rows * GROWTH));
+    }
+
+    private static Set<String> newRecentSet() {
+        return ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Normaliza el email dado como lo compara la collation de la bd.
+     */
+    private static String normalize(String email) {
+        int end = email.length();
+        while (end > 0 && email.charAt(end - 1) == ' ') {
+            end--;
+        }
+        return ProjectNameIndex.normalize(email.substring(0, end));
+    }
+
+    // Inner classes ------------------------------------------------------------------------------
+
+    /**
+     * Los bits del filtro. Se marcan sin bloqueos, así que se pueden añadir y consultar emails a la
+     * vez desde varios hilos.
+     */
+    private static final class Bits {
+
+        private final AtomicLongArray words;
+        private final long size;
+        private final int hashes;
+
+        /**
+         * Calcula el número de bits y de funciones hash óptimos para la capacidad y la probabilidad
+         * de falso positivo dadas: m = -n ln(p) / ln(2)^2 y k = m / n ln(2).
+         */
+        Bits(long capacity, double falsePositiveRate) {
+            long bitCount = (long) Math.ceil(
+                -capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+            int wordCount = (int) Math.min(Integer.MAX_VALUE - 8, (bitCount + 63) >>> 6);
+            words = new AtomicLongArray(wordCount);
+            size = (long) wordCount << 6;
+            hashes = Math.max(1, (int) Math.round((double) size / capacity * Math.log(2)));
+        }
+
+        void add(String email) {
+            long hash = hash(email);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+
+            for (int i = 1; i <= hashes; i++) {
+                long bit = index(h1 + i * h2);
+                int word = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long current;
+                while (((current = words.get(word)) & mask) == 0
+                    && !words.compareAndSet(word, current, current | mask))
+                {
+                    // Otro hilo ha cambiado la palabra entre medias, se reintenta.
+                }
+            }
+        }
+
+        boolean mightContain(String email) {
+            long hash = hash(email);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+
+            for (int i = 1; i <= hashes; i++) {
+                long bit = index(h1 + i * h2);
+                if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        private long index(int combined) {
+            return (combined & 0xFFFFFFFFL) % size;
+        }
+
+        /**
+         * Hash de 64 bits FNV-1a de los bytes UTF-8, con la mezcla final de MurmurHash3 para
+         * repartir bien las dos mitades.
+         */
+        private static long hash(String email) {
+            long hash = 0xCBF29CE484222325L;
+            for (byte b : email.getBytes(StandardCharsets.UTF_8)) {
+                hash ^= b & 0xFF;
+                hash *= 0x100000001B3L;
+            }
+            hash ^= hash >>> 33;
+            hash *= 0xFF51AFD7ED558CCDL;
+            hash ^= hash >>> 33;
+            hash *= 0xC4CEB93F2D3ABEB9L;
+            hash ^= hash >>> 33;
+            return hash;
+        }
+
+    }
+
+}
@@ -0,0 +1,208 @@
+
+package es.trapasoft.jsf.dao;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class represents a bounded in-memory cache of entities by key, used by the caching DAO
+ * decorators. When the cache is full, the least recently used entry is evicted. Entries older
+ * than the time to live are treated as absent. The hit, miss and eviction counts can be read for
+ * monitoring purposes. All methods are thread safe.
+ *
+ * A value loaded after a miss is cached with {@link #reserve(Object)} and
+ * {@link #put(Object, Object, Object)}: the reservation is cancelled when the key is removed or the
+ * cache is cleared meanwhile, so that a value read before a concurrent write is not cached after
+ * the write has invalidated the key.
+ *
+ * @param <K> The type of the keys, typically the entity ID.
+ * @param <V> The type of the cached values.
+ * @author alejandro
+ */
+public final class EntityCache<K, V> {
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private final String name;
+    private final int maxSize;
+    private final long timeToLive;
+    private final LinkedHashMap<K, Entry<V>> entries;
+    private final Map<K, Object> reservations = new HashMap<K, Object>();
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    /**
+     * Construct an entity cache. Package private so that it can be constructed inside the DAO
+     * package only.
+     * @param name The name of the cache, for monitoring purposes.
+     * @param maxSize The maximum amount of entries.
+     * @param timeToLive The time in milliseconds an entry is valid, or 0 to keep it until evicted.
+     */
+    EntityCache(String name, int maxSize, long timeToLive) {
+        if (maxSize < 1) {
+            throw new DAOConfigurationException(
+                "Invalid size " + maxSize + " for cache '" + name + "'.");
+        }
+
+        this.name = name;
+        this.maxSize = maxSize;
+        this.timeToLive = timeToLive;
+        this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Returns the value cached for the given key, or null if there is none or it has expired.
+     * @param key The key of the value.
+     * @return The value cached for the given key, or null.
+     */
+    synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+
+        if (entry.isExpired()) {
+            entries.remove(key);
+            expirations++;
+            misses++;
+            return null;
+        }
+
+        hits++;
+        return entry.value;
+    }
+
+    /**
+     * Reserve the given key for a value which is about to be loaded after a miss.
+     * @param key The key of the value.
+     * @return The token to pass to {@link #put(Object, Object, Object)}.
+     */
+    synchronized Object reserve(K key) {
+        Object token = new Object();
+        reservations.put(key, token);
+        return token;
+    }
+
+    /**
+     * Cache the given value for the given key, evicting the least recently used entry if full,
+     * unless the reservation with the given token has been cancelled by a removal or clear, or
+     * replaced by a newer one.
+     * @param key The key of the value.
+     * @param value The value to be cached, null values are not cached.
+     * @param token The token returned by {@link #reserve(Object)}.
+     */
+    synchronized void put(K key, V value, Object token) {
+        if (!reservations.remove(key, token) || value == null) {
+            return;
+        }
+
+        long expiresAt = (timeToLive > 0) ? System.currentTimeMillis() + timeToLive : Long.MAX_VALUE;
+        entries.put(key, new Entry<V>(value, expiresAt));
+
+        if (entries.size() > maxSize) {
+            Iterator<K> eldest = entries.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Remove the value cached for the given key, if any.
+     * @param key The key of the value.
+     */
+    synchronized void remove(K key) {
+        entries.remove(key);
+        reservations.remove(key);
+    }
+
+    /**
+     * Remove all cached values.
+     */
+    synchronized void clear() {
+        entries.clear();
+        reservations.clear();
+    }
+
+    // Getters ------------------------------------------------------------------------------------
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getExpirations() {
+        return expirations;
+    }
+
+    /**
+     * Returns the ratio of hits to lookups, or 0 when there have been no lookups yet.
+     * @return The ratio of hits to lookups.
+     */
+    public synchronized double getHitRatio() {
+        long lookups = hits + misses;
+        return (lookups == 0) ? 0 : (double) hits / lookups;
+    }
+
+    // Object overrides ---------------------------------------------------------------------------
+
+    @Override
+    public synchronized String toString() {
+        return String.format("EntityCache[name=%s,size=%d/%d,hits=%d,misses=%d,evictions=%d]",
+            name, entries.size(), maxSize, hits, misses, evictions);
+    }
+
+    // Inner classes ------------------------------------------------------------------------------
+
+    /**
+     * A cached value with its expiration time.
+     */
+    private static final class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired() {
+            return expiresAt != Long.MAX_VALUE && System.currentTimeMillis() > expiresAt;
+        }
+    }
+
+}
@@ -0,0 +1,27 @@
+
+package es.trapasoft.jsf.dao;
+
+
+/**
+ * This enum represents the way the DAO's fill the associations of the models they return, like
+ * {@link es.trapasoft.jsf.models.Project#getUsers()} and
+ * {@link es.trapasoft.jsf.models.User#getProjects()}. The default of a DAOFactory is set with the
+ * 'name.fetch' property of the DAO properties file; a DAO with another fetch mode can be obtained
+ * with {@link DAOFactory#getUserDAO(FetchMode)} and {@link DAOFactory#getProjectDAO(FetchMode)}.
+ *
+ * @author alejandro
+ */
+public enum FetchMode {
+
+    /**
+     * The associations are loaded on first access, in one go for all models returned by the same
+     * DAO call. This is the default.
+     */
+    LAZY,
+
+    /**
+     * The associations are loaded by the DAO call itself, before it returns.
+     */
+    EAGER;
+
+}
@@ -0,0 +1,412 @@
+
+package es.trapasoft.jsf.dao;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This class wraps DAO's, connections, prepared statements and result sets in proxies which record
+ * their calls in a {@link DAOMetrics} and emit them as {@link DAOEvents}: the DAO methods and the
+ * executions of the SQL statements with their duration, failures and returned or affected rows.
+ * The rows of a query are counted as its ResultSet is read and recorded when it is closed. The
+ * DAO method being called is tracked per thread, so that the statement events and the time spent
+ * waiting for a connection are attributed to it. Only used when the metrics or the events are
+ * enabled, so that otherwise they cost nothing but a null check per connection.
+ *
+ * @author alejandro
+ */
+final class Instrumentation {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    private static final ThreadLocal<Operation> CURRENT = new ThreadLocal<Operation>();
+    private static final ConcurrentMap<Method, String> NAMES = new ConcurrentHashMap<Method, String>();
+
+    // Constructors -------------------------------------------------------------------------------
+
+    private Instrumentation() {
+        // Utility class, hide constructor.
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Returns the given DAO wrapped so that the calls of its interface methods are recorded.
+     * @param type The DAO interface.
+     * @param dao The DAO to be wrapped.
+     * @param metrics The metrics to record the calls in, may be null.
+     * @param events The events to emit for the calls, may be null.
+     * @return The wrapped DAO.
+     */
+    static <T> T dao(Class<T> type, T dao, DAOMetrics metrics, DAOEvents events) {
+        return type.cast(Proxy.newProxyInstance(Instrumentation.class.getClassLoader(),
+            new Class<?>[] { type }, new DAOHandler(dao, metrics, events)));
+    }
+
+    /**
+     * Returns the given connection wrapped so that the statements prepared on it are recorded. The
+     * statement cache of the connection, if any, remains available.
+     * @param connection The connection to be wrapped.
+     * @param metrics The metrics to record the statements in, may be null.
+     * @param events The events to emit for the statements, may be null.
+     * @return The wrapped connection.
+     */
+    static Connection connection(Connection connection, DAOMetrics metrics, DAOEvents events) {
+        return (Connection) Proxy.newProxyInstance(Instrumentation.class.getClassLoader(),
+            new Class<?>[] {
+                Connection.class, StatementCachingConnection.class, MonitoredConnection.class
+            }, new ConnectionHandler(connection, metrics, events));
+    }
+
+    /**
+     * Returns the given prepared statement wrapped so that its executions are recorded.
+     * @param statement The prepared statement to be wrapped.
+     * @param sql The SQL of the prepared statement.
+     * @param connection The monitored connection the statement belongs to.
+     * @return The wrapped prepared statement.
+     */
+    static PreparedStatement statement(PreparedStatement statement, String sql,
+        MonitoredConnection connection)
+    {
+        return statement(statement, sql, connection.getMetrics(), connection.getEvents());
+    }
+
+    /**
+     * Add the given time spent waiting for a connection to the DAO method being called in the
+     * current thread, if any.
+     * @param nanos The time spent waiting for a connection in nanoseconds.
+     */
+    static void connectionAcquired(long nanos) {
+        Operation operation = CURRENT.get();
+
+        if (operation != null) {
+            operation.connectionWait += nanos;
+        }
+    }
+
+    /**
+     * Returns the name of the given DAO method, as its interface, name and parameter types, for
+     * example 'UserDAO.find(Long)'.
+     * @param method The DAO interface method.
+     * @return The name of the given DAO method.
+     */
+    static String name(Method method) {
+        String name = NAMES.get(method);
+
+        if (name == null) {
+            StringBuilder builder = new StringBuilder(method.getDeclaringClass().getSimpleName())
+                .append('.').append(method.getName()).append('(');
+            Class<?>[] parameterTypes = method.getParameterTypes();
+            for (int i = 0; i < parameterTypes.length; i++) {
+                builder.append((i > 0) ? ", " : "").append(parameterTypes[i].getSimpleName());
+            }
+            name = builder.append(')').toString();
+            NAMES.putIfAbsent(method, name);
+        }
+
+        return name;
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    private static PreparedStatement statement(PreparedStatement statement, String sql,
+        DAOMetrics metrics, DAOEvents events)
+    {
+        return (PreparedStatement) Proxy.newProxyInstance(Instrumentation.class.getClassLoader(),
+            new Class<?>[] { PreparedStatement.class }, new StatementHandler(statement, sql,
+                (metrics != null) ? metrics.statement(sql) : null, events));
+    }
+
+    /**
+     * Returns the result of equals or hashCode, which the proxies answer by identity, or null for
+     * any other method.
+     */
+    private static Object identity(Object proxy, Method method, Object[] args) {
+        if ("equals".equals(method.getName()) && args != null && args.length == 1) {
+            return proxy == args[0];
+        } else if ("hashCode".equals(method.getName()) && args == null) {
+            return System.identityHashCode(proxy);
+        }
+        return null;
+    }
+
+    /**
+     * Invoke the given method on the given target, unwrapping the exception thrown by it.
+     */
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Returns the amount of rows in the given result of a DAO method: the size of collections and
+     * maps, one for any other returned model, and zero for anything else.
+     */
+    private static long rows(Object result) {
+        if (result instanceof Collection) {
+            return ((Collection<?>) result).size();
+        } else if (result instanceof Map) {
+            return ((Map<?, ?>) result).size();
+        } else if (result == null || result instanceof Boolean || result instanceof AutoCloseable) {
+            return 0;
+        }
+        return 1;
+    }
+
+    // Inner classes ------------------------------------------------------------------------------
+
+    /**
+     * The DAO method being called in a thread, with what it has done so far.
+     */
+    private static final class Operation {
+        private final String name;
+        private final Operation outer;
+        private long connectionWait;
+        private int statements;
+
+        Operation(String name, Operation outer) {
+            this.name = name;
+            this.outer = outer;
+        }
+    }
+
+    /**
+     * Records the calls of the methods of a DAO interface.
+     */
+    private static final class DAOHandler implements InvocationHandler {
+        private final Object dao;
+        private final DAOMetrics metrics;
+        private final DAOEvents events;
+
+        DAOHandler(Object dao, DAOMetrics metrics, DAOEvents events) {
+            this.dao = dao;
+            this.metrics = metrics;
+            this.events = events;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                Object identity = identity(proxy, method, args);
+                return (identity != null) ? identity : Instrumentation.invoke(dao, method, args);
+            }
+
+            OperationStats stats = (metrics != null) ? metrics.method(method) : null;
+            Operation operation = null;
+            Object event = null;
+
+            if (events != null) {
+                operation = new Operation(name(method), CURRENT.get());
+                CURRENT.set(operation);
+                event = events.beginOperation();
+            }
+
+            long start = System.nanoTime();
+            boolean failed = true;
+            long rows = 0;
+
+            try {
+                Object result = Instrumentation.invoke(dao, method, args);
+                rows = rows(result);
+                failed = false;
+                return result;
+            } finally {
+                if (stats != null) {
+                    stats.addRows(rows);
+                    stats.record(System.nanoTime() - start, failed);
+                }
+                if (operation != null) {
+                    if (operation.outer != null) {
+                        CURRENT.set(operation.outer);
+                    } else {
+                        CURRENT.remove();
+                    }
+                    events.endOperation(event, operation.name, rows, operation.connectionWait,
+                        operation.statements);
+                }
+            }
+        }
+    }
+
+    /**
+     * Wraps the prepared statements of a connection, and forwards everything else.
+     */
+    private static final class ConnectionHandler implements InvocationHandler {
+        private final Connection connection;
+        private final DAOMetrics metrics;
+        private final DAOEvents events;
+
+        ConnectionHandler(Connection connection, DAOMetrics metrics, DAOEvents events) {
+            this.connection = connection;
+            this.metrics = metrics;
+            this.events = events;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+
+            if ("getMetrics".equals(name)) {
+                return metrics;
+            } else if ("getEvents".equals(name)) {
+                return events;
+            } else if ("getStatementCache".equals(name)) {
+                return (connection instanceof StatementCachingConnection)
+                    ? ((StatementCachingConnection) connection).getStatementCache() : null;
+            } else if ("toString".equals(name)) {
+                return "MonitoredConnection[" + connection + "]";
+            }
+
+            Object identity = identity(proxy, method, args);
+            if (identity != null) {
+                return identity;
+            }
+
+            Object result = Instrumentation.invoke(connection, method, args);
+            return ("prepareStatement".equals(name))
+                ? statement((PreparedStatement) result, (String) args[0], metrics, events) : result;
+        }
+    }
+
+    /**
+     * Records the executions of a prepared statement, with the highest parameter index bound.
+     */
+    private static final class StatementHandler implements InvocationHandler {
+        private final PreparedStatement statement;
+        private final String sql;
+        private final OperationStats stats;
+        private final DAOEvents events;
+        private int bindCount;
+
+        StatementHandler(PreparedStatement statement, String sql, OperationStats stats,
+            DAOEvents events)
+        {
+            this.statement = statement;
+            this.sql = sql;
+            this.stats = stats;
+            this.events = events;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+
+            if (!name.startsWith("execute")) {
+                if (method.getDeclaringClass() == PreparedStatement.class && name.startsWith("set")
+                    && args != null && args[0] instanceof Integer)
+                {
+                    bindCount = Math.max(bindCount, (Integer) args[0]);
+                } else if ("clearParameters".equals(name)) {
+                    bindCount = 0;
+                }
+                Object identity = identity(proxy, method, args);
+                return (identity != null) ? identity : Instrumentation.invoke(statement, method, args);
+            }
+
+            Operation operation = (events != null) ? CURRENT.get() : null;
+            String operationName = (operation != null) ? operation.name : null;
+            Object event = (events != null) ? events.beginStatement() : null;
+            long start = System.nanoTime();
+            boolean failed = true;
+            long rows = 0;
+
+            if (operation != null) {
+                operation.statements++;
+            }
+
+            try {
+                Object result = Instrumentation.invoke(statement, method, args);
+                if (result instanceof ResultSet) {
+                    if (stats != null || event != null) {
+                        result = Proxy.newProxyInstance(Instrumentation.class.getClassLoader(),
+                            new Class<?>[] { ResultSet.class },
+                            new ResultSetHandler((ResultSet) result, this, event, operationName));
+                        event = null;
+                    }
+                } else if (result instanceof Integer) {
+                    rows = (Integer) result;
+                } else if (result instanceof int[]) {
+                    for (int count : (int[]) result) {
+                        rows += (count == Statement.SUCCESS_NO_INFO) ? 1 : Math.max(0, count);
+                    }
+                }
+                failed = false;
+                return result;
+            } finally {
+                if (stats != null) {
+                    stats.addRows(rows);
+                    stats.record(System.nanoTime() - start, failed);
+                }
+                if (event != null) {
+                    events.endStatement(event, operationName, sql, bindCount, rows);
+                }
+            }
+        }
+
+        /**
+         * Record the rows read from a closed ResultSet of this statement.
+         */
+        void closed(Object event, String operationName, long rows) {
+            if (stats != null) {
+                stats.addRows(rows);
+            }
+            if (event != null) {
+                events.endStatement(event, operationName, sql, bindCount, rows);
+            }
+        }
+    }
+
+    /**
+     * Counts the rows read from a result set and records them when it is closed.
+     */
+    private static final class ResultSetHandler implements InvocationHandler {
+        private final ResultSet resultSet;
+        private final StatementHandler statement;
+        private final Object event;
+        private final String operationName;
+        private long rows;
+        private boolean closed;
+
+        ResultSetHandler(ResultSet resultSet, StatementHandler statement, Object event,
+            String operationName)
+        {
+            this.resultSet = resultSet;
+            this.statement = statement;
+            this.event = event;
+            this.operationName = operationName;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+
+            if ("next".equals(name)) {
+                boolean next = resultSet.next();
+                if (next) {
+                    rows++;
+                }
+                return next;
+            } else if ("close".equals(name) && !closed) {
+                closed = true;
+                statement.closed(event, operationName, rows);
+            }
+
+            Object identity = identity(proxy, method, args);
+            return (identity != null) ? identity : Instrumentation.invoke(resultSet, method, args);
+        }
+    }
+
+}
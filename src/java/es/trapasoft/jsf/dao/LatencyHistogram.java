@@ -0,0 +1,133 @@
+
+package es.trapasoft.jsf.dao;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class counts latencies in microseconds in log-linear buckets, like an HdrHistogram with two
+ * significant digits: values below 32 have a bucket each, and every power of two above is split in
+ * 16 buckets, so any percentile is reported with an error of at most 1/16 of its value, while the
+ * whole range up to Long.MAX_VALUE fits in 960 counters. Recording is lock free and does not
+ * allocate; reading is not atomic with respect to concurrent recording, which is acceptable for
+ * monitoring purposes.
+ *
+ * @author alejandro
+ */
+final class LatencyHistogram {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+    private static final int BUCKETS = LINEAR_LIMIT + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Record the given latency.
+     * @param micros The latency in microseconds, negative values are recorded as 0.
+     */
+    void record(long micros) {
+        long value = Math.max(0, micros);
+        counts.incrementAndGet(index(value));
+        count.increment();
+        sum.add(value);
+
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // Retry until this value is stored or a greater one has been stored meanwhile.
+        }
+    }
+
+    /**
+     * Returns the recorded latency below or at which the given fraction of all recorded latencies
+     * fall, or 0 when nothing has been recorded yet.
+     * @param fraction The fraction, between 0 and 1, for example 0.99 for the 99th percentile.
+     * @return The latency in microseconds at the given percentile.
+     */
+    long getPercentile(double fraction) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestValue(i), max.get());
+            }
+        }
+
+        return max.get();
+    }
+
+    // Getters ------------------------------------------------------------------------------------
+
+    long getCount() {
+        return count.sum();
+    }
+
+    long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the mean of the recorded latencies in microseconds, or 0 when nothing has been
+     * recorded yet.
+     * @return The mean of the recorded latencies in microseconds.
+     */
+    double getMean() {
+        long count = this.count.sum();
+        return (count == 0) ? 0 : (double) sum.sum() / count;
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    /**
+     * Returns the bucket of the given non-negative value.
+     */
+    private static int index(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+        return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the highest value which falls in the given bucket.
+     */
+    private static long highestValue(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+
+        int shift = (index - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+        long subBucket = (index - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+        long highest = ((subBucket + 1) << shift) - 1;
+        return (highest < 0) ? Long.MAX_VALUE : highest;
+    }
+
+}
@@ -0,0 +1,221 @@
+
+package es.trapasoft.jsf.dao;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * Lista de una asociación que no se carga de la bd hasta que se accede a ella. Todas las listas
+ * creadas por un mismo {@link Batch}, es decir, las de las entidades devueltas por una misma
+ * llamada a un DAO (por bloques), se cargan juntas en el primer acceso a cualquiera de ellas. Una
+ * vez cargadas sueltan el Batch, para que una lista que sigue en uso no retenga a las demás.
+ *
+ * La carga usa una conexión de la DAOFactory, así que funciona también cuando la unidad de trabajo
+ * en la que se leyeron las entidades ya ha terminado. Al serializarse se convierte en una
+ * ArrayList normal con los elementos ya cargados.
+ *
+ * Una copia de una lista aún sin cargar, de {@link #copy(UnaryOperator)}, es otra lista perezosa
+ * con sus propios elementos: al accederse carga la original (con su Batch) y se queda con copias
+ * de sus elementos, de modo que cambiar una no cambia la otra.
+ *
+ * @param <E> El tipo de los elementos de la lista.
+ * @author alejandro
+ */
+final class LazyList<E> extends AbstractList<E> implements Serializable {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    private static final long serialVersionUID = 1L;
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private transient volatile Batch<E> batch;
+    private final transient LazyList<E> source;
+    private final transient UnaryOperator<E> copier;
+    private volatile List<E> delegate;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    private LazyList(Batch<E> batch) {
+        this.batch = batch;
+        this.source = null;
+        this.copier = null;
+    }
+
+    private LazyList(LazyList<E> source, UnaryOperator<E> copier) {
+        this.batch = null;
+        this.source = source;
+        this.copier = copier;
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Devuelve true si la lista ya se ha cargado de la bd.
+     *
+     * @return true si la lista ya se ha cargado de la bd.
+     */
+    boolean isLoaded() {
+        return delegate != null;
+    }
+
+    /**
+     * Devuelve una copia de esta lista que tampoco se carga hasta que se accede a ella, y que
+     * entonces contiene copias de los elementos de esta.
+     *
+     * @param copier La función que copia cada elemento.
+     * @return Una copia perezosa de esta lista.
+     */
+    LazyList<E> copy(UnaryOperator<E> copier) {
+        return new LazyList<E>(this, copier);
+    }
+
+    @Override
+    public E get(int index) {
+        return delegate().get(index);
+    }
+
+    @Override
+    public int size() {
+        return delegate().size();
+    }
+
+    @Override
+    public E set(int index, E element) {
+        return delegate().set(index, element);
+    }
+
+    @Override
+    public void add(int index, E element) {
+        delegate().add(index, element);
+        modCount++;
+    }
+
+    @Override
+    public E remove(int index) {
+        modCount++;
+        return delegate().remove(index);
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    /**
+     * Devuelve la lista con los elementos, cargándola antes si hace falta.
+     */
+    private List<E> delegate() {
+        List<E> list = delegate;
+
+        if (list == null) {
+            if (source != null) {
+                list = copyFromSource();
+            } else {
+                // si ya no hay Batch es que otro hilo acaba de cargar la lista
+                Batch<E> b = batch;
+                if (b != null) {
+                    b.load();
+                }
+                list = delegate;
+            }
+        }
+
+        return list;
+    }
+
+    /**
+     * Carga la lista original y se queda con copias de sus elementos, si no se ha hecho ya.
+     */
+    private synchronized List<E> copyFromSource() {
+        if (delegate == null) {
+            List<E> elements = source.delegate();
+            List<E> copies = new ArrayList<E>(elements.size());
+            for (E element : elements) {
+                copies.add(copier.apply(element));
+            }
+            delegate = copies;
+        }
+
+        return delegate;
+    }
+
+    /**
+     * Serializa los elementos en lugar de la lista perezosa, que depende de la DAOFactory.
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        return new ArrayList<E>(delegate());
+    }
+
+    // Inner classes ------------------------------------------------------------------------------
+
+    /**
+     * Conjunto de listas perezosas de una misma asociación que se cargan juntas.
+     *
+     * @param <E> El tipo de los elementos de las listas.
+     */
+    static final class Batch<E> {
+        private final DAOFactory daoFactory;
+        private final AssociationLoader.Association<E> association;
+        private final Map<Long, LazyList<E>> lists = new LinkedHashMap<Long, LazyList<E>>();
+
+        /**
+         * Crea una lista perezosa por cada id dado.
+         *
+         * @param daoFactory La DAOFactory de la que obtener la conexión para la carga.
+         * @param association La asociación que se carga.
+         * @param ids Los ids del lado conocido de la asociación.
+         */
+        Batch(DAOFactory daoFactory, AssociationLoader.Association<E> association, Collection<Long> ids) {
+            this.daoFactory = daoFactory;
+            this.association = association;
+
+            for (Long id : ids) {
+                if (!lists.containsKey(id)) {
+                    lists.put(id, new LazyList<E>(this));
+                }
+            }
+        }
+
+        /**
+         * Devuelve las listas perezosas por id.
+         *
+         * @return Las listas perezosas por id.
+         */
+        @SuppressWarnings("unchecked")
+        Map<Long, List<E>> getLists() {
+            return (Map<Long, List<E>>) (Map<Long, ?>) lists;
+        }
+
+        /**
+         * Carga todas las listas del conjunto, si no se han cargado ya. Las listas cargadas
+         * sueltan el Batch, que deja de estar alcanzable desde ellas.
+         *
+         * @throws DAOException Si falla algo en la bd.
+         */
+        synchronized void load() throws DAOException {
+            if (lists.isEmpty() || lists.values().iterator().next().isLoaded()) {
+                return;
+            }
+
+            try (Connection connection = daoFactory.getReadConnection()) {
+                Map<Long, List<E>> loaded = association.find(connection, lists.keySet());
+
+                for (Map.Entry<Long, LazyList<E>> entry : lists.entrySet()) {
+                    LazyList<E> list = entry.getValue();
+                    list.delegate = loaded.get(entry.getKey());
+                    list.batch = null;
+                }
+            } catch (SQLException e) {
+                throw new DAOException(e);
+            }
+        }
+    }
+
+}
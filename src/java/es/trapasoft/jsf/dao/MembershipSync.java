@@ -0,0 +1,176 @@
+package es.trapasoft.jsf.dao;
+
+import static es.trapasoft.jsf.dao.DAOUtil.prepareStatement;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Deja las asociaciones de un proyecto o de un usuario en la tabla projects_users igual que un
+ * conjunto de ids dado. En lugar de un insert o un delete por asociación, lee las asociaciones
+ * actuales, calcula la diferencia y la aplica con como mucho un lote de delete y un lote de insert,
+ * en una sola transacción. Las asociaciones que ya existen no se vuelven a insertar, así que los
+ * duplicados no hacen fallar la operación.
+ *
+ * Antes de leer las asociaciones actuales se bloquea la fila del proyecto o usuario con SELECT ...
+ * FOR UPDATE, de modo que dos llamadas a la vez sobre el mismo proyecto o usuario se esperan una a
+ * otra en lugar de calcular la diferencia sobre el mismo estado, también cuando aún no tiene
+ * ninguna asociación, y sin bloquear las asociaciones de los demás. Las asociaciones se leen
+ * también con FOR UPDATE: una lectura con bloqueo lee siempre la última versión confirmada de las
+ * filas, mientras que un SELECT normal dentro de una transacción que ya había leído algo antes
+ * vería su instantánea antigua y calcularía mal la diferencia. Para que la lectura por project_id
+ * no recorra la tabla entera hace falta el índice de WEB-INF/projects-users-index-migration.sql.
+ * Las filas se borran e insertan ordenadas por id, para bloquearlas siempre en el mismo orden.
+ *
+ * @author alejandro
+ */
+final class MembershipSync {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    /** Los usuarios de un proyecto. */
+    static final MembershipSync PROJECT_MEMBERS =
+        new MembershipSync("projects", "project_id", "user_id");
+
+    /** Los proyectos de un usuario. */
+    static final MembershipSync USER_PROJECTS =
+        new MembershipSync("users", "user_id", "project_id");
+
+    private static final BatchUpdate.Callback NONE = new BatchUpdate.Callback() {
+        @Override
+        public void executed(int from, int to) {
+            // Nada que hacer por lote, la transacción se confirma al final.
+        }
+    };
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private final SqlQuery sqlLock;
+    private final SqlQuery sqlList;
+    private final SqlQuery sqlDelete;
+    private final SqlQuery sqlInsert;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    /**
+     * @param ownerTable La tabla del proyecto o usuario cuyas asociaciones se sustituyen.
+     * @param ownerColumn La columna del id cuyas asociaciones se sustituyen.
+     * @param memberColumn La columna de los ids asociados.
+     */
+    private MembershipSync(String ownerTable, String ownerColumn, String memberColumn) {
+        sqlLock = new SqlQuery("select id from " + ownerTable + " where id = ? for update",
+            Types.BIGINT);
+        sqlList = new SqlQuery("select " + memberColumn + " from projects_users where "
+            + ownerColumn + " = ? for update", Types.BIGINT);
+        sqlDelete = new SqlQuery("delete from projects_users where " + ownerColumn + " = ? and "
+            + memberColumn + " = ?", Types.BIGINT, Types.BIGINT);
+        sqlInsert = new SqlQuery("insert into projects_users (" + ownerColumn + ", " + memberColumn
+            + ") values (?, ?)", Types.BIGINT, Types.BIGINT);
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Deja asociados al id dado exactamente los ids dados.
+     *
+     * @param daoFactory La DAOFactory de la que obtener la conexión.
+     * @param ownerId El id del proyecto o usuario.
+     * @param memberIds Los ids de los usuarios o proyectos que han de quedar asociados.
+     * @throws IllegalArgumentException Si el id, el conjunto o alguno de sus ids es nulo.
+     * @throws DAOException Si el proyecto o usuario no existe o falla algo en la bd; en ese caso
+     * no se cambia nada.
+     */
+    void replace(DAOFactory daoFactory, Long ownerId, Set<Long> memberIds) throws DAOException {
+        if (ownerId == null || memberIds == null) {
+            throw new IllegalArgumentException("El ID y el conjunto de IDs asociados no pueden ser nulos.");
+        }
+
+        TreeSet<Long> toInsert = new TreeSet<Long>();
+        for (Long memberId : memberIds) {
+            if (memberId == null) {
+                throw new IllegalArgumentException("El conjunto de IDs asociados contiene un nulo.");
+            }
+            toInsert.add(memberId);
+        }
+
+        try (Connection connection = daoFactory.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+
+            if (autoCommit) {
+                connection.setAutoCommit(false);
+            }
+
+            try {
+                try (
+                    PreparedStatement statement = prepareStatement(connection, sqlLock, ownerId);
+                    ResultSet resultSet = statement.executeQuery();
+                ) {
+                    if (!resultSet.next()) {
+                        throw new DAOException("No existe el ID " + ownerId + " cuyas asociaciones"
+                            + " se quieren cambiar.");
+                    }
+                }
+
+                TreeSet<Long> toDelete = new TreeSet<Long>();
+
+                try (
+                    PreparedStatement statement = prepareStatement(connection, sqlList, ownerId);
+                    ResultSet resultSet = statement.executeQuery();
+                ) {
+                    while (resultSet.next()) {
+                        Long memberId = resultSet.getLong(1);
+                        if (!toInsert.remove(memberId)) {
+                            toDelete.add(memberId);
+                        }
+                    }
+                }
+
+                execute(connection, sqlDelete, ownerId, toDelete);
+                execute(connection, sqlInsert, ownerId, toInsert);
+
+                if (autoCommit) {
+                    connection.commit();
+                }
+            } catch (SQLException | DAOException e) {
+                if (autoCommit) {
+                    connection.rollback();
+                }
+                throw e;
+            } finally {
+                if (autoCommit) {
+                    connection.setAutoCommit(true);
+                }
+            }
+        } catch (SQLException e) {
+            throw new DAOException(e);
+        }
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    /**
+     * Lanza la sentencia dada para cada id asociado dado, en un único lote.
+     */
+    private static void execute(Connection connection, SqlQuery query, Long ownerId,
+        Set<Long> memberIds) throws SQLException
+    {
+        if (memberIds.isEmpty()) {
+            return;
+        }
+
+        List<Object[]> rows = new ArrayList<Object[]>(memberIds.size());
+        for (Long memberId : memberIds) {
+            rows.add(new Object[] { ownerId, memberId });
+        }
+
+        BatchUpdate.execute(connection, query, rows, rows.size(), null, NONE);
+    }
+
+}
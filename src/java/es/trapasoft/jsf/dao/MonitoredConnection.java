@@ -0,0 +1,25 @@
+
+package es.trapasoft.jsf.dao;
+
+/**
+ * Implemented by the connection proxies which record the SQL statements executed on them, so that
+ * {@link DAOUtil#prepareStatement} can also monitor the statements it takes from a
+ * {@link StatementCache}.
+ *
+ * @author alejandro
+ */
+interface MonitoredConnection {
+
+    /**
+     * Returns the metrics the statements of this connection are recorded in.
+     * @return The metrics the statements of this connection are recorded in, or null.
+     */
+    DAOMetrics getMetrics();
+
+    /**
+     * Returns the events the statements of this connection are emitted as.
+     * @return The events the statements of this connection are emitted as, or null.
+     */
+    DAOEvents getEvents();
+
+}
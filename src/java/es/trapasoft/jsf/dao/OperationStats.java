@@ -0,0 +1,117 @@
+
+package es.trapasoft.jsf.dao;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class holds the call, error and row counts and the latency histogram of one monitored
+ * operation, which is either a DAO method or a SQL statement, for monitoring purposes. All methods
+ * are thread safe. Instances are created and registered as MBeans by {@link DAOMetrics}.
+ *
+ * @author alejandro
+ */
+public final class OperationStats implements OperationStatsMBean {
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private final String name;
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    // Constructors -------------------------------------------------------------------------------
+
+    /**
+     * Construct the statistics of the operation with the given name. Package private so that it
+     * can be constructed inside the DAO package only.
+     * @param name The name of the operation.
+     */
+    OperationStats(String name) {
+        this.name = name;
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Record one call of this operation.
+     * @param nanos The duration of the call in nanoseconds.
+     * @param failed Whether the call has thrown an exception.
+     */
+    void record(long nanos, boolean failed) {
+        latencies.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+        if (failed) {
+            errors.increment();
+        }
+    }
+
+    /**
+     * Add the given amount of rows to the rows returned or affected by this operation.
+     * @param count The amount of rows.
+     */
+    void addRows(long count) {
+        if (count > 0) {
+            rows.add(count);
+        }
+    }
+
+    // Getters ------------------------------------------------------------------------------------
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getCalls() {
+        return latencies.getCount();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getRows() {
+        return rows.sum();
+    }
+
+    @Override
+    public double getMeanMicros() {
+        return latencies.getMean();
+    }
+
+    @Override
+    public long getP50Micros() {
+        return latencies.getPercentile(0.50);
+    }
+
+    @Override
+    public long getP95Micros() {
+        return latencies.getPercentile(0.95);
+    }
+
+    @Override
+    public long getP99Micros() {
+        return latencies.getPercentile(0.99);
+    }
+
+    @Override
+    public long getMaxMicros() {
+        return latencies.getMax();
+    }
+
+    // Object overrides ---------------------------------------------------------------------------
+
+    /**
+     * Returns the statistics as one line of text, latencies in microseconds.
+     */
+    @Override
+    public String toString() {
+        return String.format("calls=%d errors=%d rows=%d mean=%.1f p50=%d p95=%d p99=%d max=%d",
+            getCalls(), getErrors(), getRows(), getMeanMicros(), getP50Micros(), getP95Micros(),
+            getP99Micros(), getMaxMicros());
+    }
+
+}
@@ -0,0 +1,29 @@
+
+package es.trapasoft.jsf.dao;
+
+/**
+ * The JMX management interface of {@link OperationStats}. The latencies are in microseconds.
+ *
+ * @author alejandro
+ */
+public interface OperationStatsMBean {
+
+    String getName();
+
+    long getCalls();
+
+    long getErrors();
+
+    long getRows();
+
+    double getMeanMicros();
+
+    long getP50Micros();
+
+    long getP95Micros();
+
+    long getP99Micros();
+
+    long getMaxMicros();
+
+}
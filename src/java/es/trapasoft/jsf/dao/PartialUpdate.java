@@ -0,0 +1,117 @@
+package es.trapasoft.jsf.dao;
+
+import java.sql.Types;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This class generates the UPDATE statements of a table which only set the changed columns, so
+ * that an update does not rewrite unchanged columns, such as large TEXT columns, into the binlog.
+ * The changed columns are given as a bitmask in which bit i stands for the i-th updatable column.
+ * The generated statements are cached per bitmask, so that each shape is built only once and the
+ * pooled connections can reuse their prepared statements.
+ *
+ * @author alejandro
+ */
+final class PartialUpdate {
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private final String table;
+    private final String[] columns;
+    private final int[] types;
+    private final int allColumns;
+    private final ConcurrentMap<Integer, SqlQuery> queries = new ConcurrentHashMap<Integer, SqlQuery>();
+
+    // Constructors -------------------------------------------------------------------------------
+
+    /**
+     * Construct the partial updates of the given table, which is keyed by a BIGINT 'id' column.
+     * @param table The table name.
+     * @param columns The updatable columns, in bit order.
+     * @param types The SQL types of the updatable columns, as constants from {@link Types}.
+     */
+    PartialUpdate(String table, String[] columns, int... types) {
+        if (columns.length != types.length || columns.length > 30) {
+            throw new IllegalArgumentException("Table '" + table + "' has " + columns.length
+                + " columns, but " + types.length + " types are given.");
+        }
+
+        this.table = table;
+        this.columns = columns.clone();
+        this.types = types.clone();
+        this.allColumns = (1 << columns.length) - 1;
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Returns the UPDATE statement which sets the given columns of the row with a given id.
+     * @param changed The bitmask of the columns to set, at least one.
+     * @return The UPDATE statement; its parameters are the column values in bit order and the id.
+     */
+    SqlQuery query(int changed) {
+        int key = changed & allColumns;
+        if (key == 0) {
+            throw new IllegalArgumentException("No columns of table '" + table + "' to update.");
+        }
+
+        SqlQuery query = queries.get(key);
+
+        if (query == null) {
+            StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(" SET ");
+            int[] queryTypes = new int[Integer.bitCount(key) + 1];
+            int index = 0;
+
+            for (int i = 0; i < columns.length; i++) {
+                if ((key & (1 << i)) != 0) {
+                    sql.append(index > 0 ? ", " : "").append(columns[i]).append(" = ?");
+                    queryTypes[index++] = types[i];
+                }
+            }
+
+            sql.append(" WHERE id = ?");
+            queryTypes[index] = Types.BIGINT;
+            query = new SqlQuery(sql.toString(), queryTypes);
+            SqlQuery existing = queries.putIfAbsent(key, query);
+            if (existing != null) {
+                query = existing;
+            }
+        }
+
+        return query;
+    }
+
+    /**
+     * Returns the parameter values of {@link #query(int)} for the given columns.
+     * @param changed The bitmask of the columns to set.
+     * @param values The values of all updatable columns, in bit order.
+     * @param id The id of the row to update.
+     * @return The values of the given columns in bit order, followed by the id.
+     */
+    Object[] values(int changed, Object[] values, Long id) {
+        int key = changed & allColumns;
+        Object[] selected = new Object[Integer.bitCount(key) + 1];
+        int index = 0;
+
+        for (int i = 0; i < columns.length; i++) {
+            if ((key & (1 << i)) != 0) {
+                selected[index++] = values[i];
+            }
+        }
+
+        selected[index] = id;
+        return selected;
+    }
+
+    // Getters ------------------------------------------------------------------------------------
+
+    /**
+     * Returns the bitmask of all updatable columns.
+     * @return The bitmask of all updatable columns.
+     */
+    int getAllColumns() {
+        return allColumns;
+    }
+
+}
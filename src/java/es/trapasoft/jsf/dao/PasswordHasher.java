@@ -0,0 +1,249 @@
+
+package es.trapasoft.jsf.dao;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * This class hashes and verifies the user passwords in the application instead of in the database,
+ * so that a login costs the database one indexed lookup by email and the hashing scales with the
+ * application nodes. Passwords are hashed with PBKDF2-HMAC-SHA512, a random 16 byte salt per
+ * password and a configurable amount of iterations, and stored as
+ * 'pbkdf2-sha512$iterations$salt$hash' with the salt and hash in unpadded base64, which is about 90
+ * characters: the users.password column must be widened from VARCHAR(32), see
+ * WEB-INF/password-hash-migration.sql.
+ *
+ * The hashing runs on a dedicated {@link DAOExecutor} with 'threads' threads and a bounded queue:
+ * once the queue is full, further hashes fail right away with a DAOException instead of piling up
+ * behind a burst of logins. The calling thread waits for its own hash.
+ *
+ * Passwords which are still stored as the MD5 hex digest of the former schema are recognized and
+ * verified as such; {@link #needsRehash(String)} tells the DAO to store them anew after a
+ * successful login, and likewise when the amount of iterations has changed.
+ *
+ * A login must take as long for an unknown email as for a known one, otherwise the response time
+ * tells which emails are registered: {@link #verifyDummy(String)} runs the same PBKDF2 against a
+ * hash which matches no password, and legacy MD5 digests are verified at the same cost as well.
+ *
+ * @author alejandro
+ */
+final class PasswordHasher {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA512";
+    private static final String SCHEME = "pbkdf2-sha512";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    private static final int LEGACY_MD5_LENGTH = 32;
+
+    /** The lowest amount of iterations which is accepted in the configuration. */
+    static final int MIN_ITERATIONS = 1000;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private final int iterations;
+    private final DAOExecutor executor;
+    private final int parallelism;
+    private final byte[] dummySalt;
+    private final String dummyHash;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    /**
+     * Construct a password hasher.
+     * @param iterations The amount of PBKDF2 iterations of new hashes.
+     * @param executor The bounded executor to hash on.
+     * @param parallelism The amount of threads of the executor, which bounds the amount of
+     * hashes of a batch submitted at once.
+     */
+    PasswordHasher(int iterations, DAOExecutor executor, int parallelism) {
+        if (iterations < MIN_ITERATIONS) {
+            throw new DAOConfigurationException("Password iterations " + iterations
+                + " is less than " + MIN_ITERATIONS + ".");
+        }
+
+        this.iterations = iterations;
+        this.executor = executor;
+        this.parallelism = Math.max(1, parallelism);
+
+        // Random bytes as hash: no password matches it, and building it costs nothing.
+        Base64.Encoder base64 = Base64.getEncoder().withoutPadding();
+        this.dummySalt = new byte[SALT_BYTES];
+        byte[] dummy = new byte[HASH_BITS / 8];
+        RANDOM.nextBytes(dummySalt);
+        RANDOM.nextBytes(dummy);
+        this.dummyHash = SCHEME + "$" + iterations + "$" + base64.encodeToString(dummySalt) + "$"
+            + base64.encodeToString(dummy);
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Returns the hash to store of the given password.
+     * @param password The plain password, may be null.
+     * @return The hash to store, or null when the password is null.
+     * @throws DAOException If the hashing pool is saturated or the hashing times out.
+     */
+    String hash(String password) throws DAOException {
+        return (password != null) ? DAOUtil.join(submitHash(password)) : null;
+    }
+
+    /**
+     * Returns the hashes to store of the given passwords, hashed in parallel on the pool. At most
+     * as many hashes as the pool has threads are submitted at once, so a large batch neither
+     * saturates the queue nor waits behind itself until the timeout expires.
+     * @param passwords The plain passwords, each may be null.
+     * @return The hashes to store, in the same order.
+     * @throws DAOException If the hashing pool is saturated or the hashing times out.
+     */
+    List<String> hashAll(List<String> passwords) throws DAOException {
+        List<String> hashes = new ArrayList<String>(passwords.size());
+
+        for (int from = 0; from < passwords.size(); from += parallelism) {
+            List<CompletableFuture<String>> futures = new ArrayList<CompletableFuture<String>>();
+
+            for (String password
+                : passwords.subList(from, Math.min(from + parallelism, passwords.size())))
+            {
+                futures.add((password != null) ? submitHash(password)
+                    : CompletableFuture.completedFuture((String) null));
+            }
+
+            for (CompletableFuture<String> future : futures) {
+                hashes.add(DAOUtil.join(future));
+            }
+        }
+
+        return hashes;
+    }
+
+    /**
+     * Returns true if the given password matches the given stored hash.
+     * @param password The plain password.
+     * @param stored The stored hash, in the current or the legacy MD5 format.
+     * @return True if the password matches, false if not or if either is null.
+     * @throws DAOException If the hashing pool is saturated or the hashing times out.
+     */
+    boolean verify(final String password, final String stored) throws DAOException {
+        if (password == null || stored == null) {
+            return false;
+        }
+
+        return DAOUtil.join(executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws GeneralSecurityException {
+                return matches(password, stored);
+            }
+        }, executor.getTimeout()));
+    }
+
+    /**
+     * Verify the given password against a hash which matches no password, taking as long as
+     * {@link #verify(String, String)} of a stored hash. To be called when no user has the given
+     * email, so that the response time does not tell whether the email is registered.
+     * @param password The plain password.
+     * @throws DAOException If the hashing pool is saturated or the hashing times out.
+     */
+    void verifyDummy(String password) throws DAOException {
+        verify((password != null) ? password : "", dummyHash);
+    }
+
+    /**
+     * Returns true if the given stored hash should be replaced by a new hash of the same password:
+     * when it is a legacy MD5 digest or has another amount of iterations.
+     * @param stored The stored hash.
+     * @return True if the stored hash should be replaced.
+     */
+    boolean needsRehash(String stored) {
+        String[] parts = stored.split("\\$");
+        return parts.length != 4 || !SCHEME.equals(parts[0])
+            || !String.valueOf(iterations).equals(parts[1]);
+    }
+
+    /**
+     * Stop the hashing threads.
+     */
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    private CompletableFuture<String> submitHash(final String password) {
+        return executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws GeneralSecurityException {
+                byte[] salt = new byte[SALT_BYTES];
+                RANDOM.nextBytes(salt);
+                Base64.Encoder base64 = Base64.getEncoder().withoutPadding();
+                return SCHEME + "$" + iterations + "$" + base64.encodeToString(salt) + "$"
+                    + base64.encodeToString(pbkdf2(password, salt, iterations));
+            }
+        }, executor.getTimeout());
+    }
+
+    /**
+     * Returns true if the given password matches the given stored hash, in constant time and at
+     * the cost of the current amount of iterations at least.
+     */
+    private boolean matches(String password, String stored) throws GeneralSecurityException {
+        if (stored.length() == LEGACY_MD5_LENGTH && stored.indexOf('$') < 0) {
+            // As slow as the current scheme, so that legacy accounts cannot be told apart.
+            pbkdf2(password, dummySalt, iterations);
+            byte[] digest = MessageDigest.getInstance("MD5")
+                .digest(password.getBytes(StandardCharsets.UTF_8));
+            return MessageDigest.isEqual(hex(digest).getBytes(StandardCharsets.US_ASCII),
+                stored.toLowerCase().getBytes(StandardCharsets.US_ASCII));
+        }
+
+        String[] parts = stored.split("\\$");
+
+        try {
+            if (parts.length == 4 && SCHEME.equals(parts[0])) {
+                int storedIterations = Integer.parseInt(parts[1]);
+                byte[] salt = Base64.getDecoder().decode(parts[2]);
+                byte[] hash = Base64.getDecoder().decode(parts[3]);
+                if (storedIterations > 0) {
+                    return MessageDigest.isEqual(hash, pbkdf2(password, salt, storedIterations));
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // Malformed, verified at the same cost below.
+        }
+
+        pbkdf2(password, dummySalt, iterations);
+        return false;
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations)
+        throws GeneralSecurityException
+    {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+}
@@ -0,0 +1,414 @@
+
+package es.trapasoft.jsf.dao;
+
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The DriverManager based DAOFactory which keeps a bounded pool of physical connections. It is
+ * selected by {@link DAOFactory#getInstance(String)} when the 'name.pool.max' property is given.
+ *
+ * Connections handed out by {@link #openConnection()} are proxies: closing them returns the
+ * physical connection to the pool instead of closing it. Waiting threads are served in FIFO order
+ * and give up after 'maxWait' milliseconds. Idle connections are validated before being reused
+ * when they have been idle for a while, and are evicted by a background thread once they exceed
+ * 'idleTimeout', but never below 'min'. The 'min' connections are opened at construction time.
+ * Each physical connection keeps a {@link StatementCache} of up to 'statementCacheSize' prepared
+ * statements, which survives while the connection is in the pool.
+ *
+ * @author alejandro
+ */
+class PooledDAOFactory extends DAOFactory {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    private static final Logger LOG = Logger.getLogger(PooledDAOFactory.class.getName());
+
+    /** Connections idle for less than this are handed out without running the validation query. */
+    private static final long VALIDATION_THRESHOLD = 5000;
+
+    private static final AtomicInteger EVICTOR_COUNT = new AtomicInteger();
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private final String url;
+    private final String username;
+    private final String password;
+    private final int minSize;
+    private final long maxWait;
+    private final long idleTimeout;
+    private final String validationQuery;
+    private final int statementCacheSize;
+    private final StatementCacheStats statementCacheStats;
+
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledConnection> idle;
+    private final AtomicInteger openCount = new AtomicInteger();
+    private final ScheduledExecutorService evictor;
+    private volatile boolean shutdown;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    /**
+     * Construct a pooled DAOFactory and warm it up with the minimum amount of connections.
+     * @param url The JDBC URL of the database.
+     * @param username The username of the database login.
+     * @param password The password of the database login.
+     * @param maxSize The maximum amount of connections, idle or in use.
+     * @param minSize The amount of connections which are kept open even when idle.
+     * @param maxWait The maximum time in milliseconds to wait for a free connection.
+     * @param idleTimeout The time in milliseconds after which an idle connection is evicted.
+     * @param validationQuery The SQL query to validate idle connections with, may be null.
+     * @param statementCacheSize The maximum amount of prepared statements cached per connection,
+     * or 0 to not cache them.
+     */
+    PooledDAOFactory(String url, String username, String password, int maxSize, int minSize,
+        long maxWait, long idleTimeout, String validationQuery, int statementCacheSize)
+    {
+        if (maxSize < 1 || minSize < 0 || minSize > maxSize) {
+            throw new DAOConfigurationException(
+                "Invalid pool size, min=" + minSize + " and max=" + maxSize + ".");
+        }
+
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.minSize = minSize;
+        this.maxWait = maxWait;
+        this.idleTimeout = idleTimeout;
+        this.validationQuery = validationQuery;
+        this.statementCacheSize = statementCacheSize;
+        this.statementCacheStats = (statementCacheSize > 0)
+            ? new StatementCacheStats(statementCacheSize) : null;
+        this.permits = new Semaphore(maxSize, true);
+        this.idle = new LinkedBlockingDeque<PooledConnection>(maxSize);
+
+        fill();
+
+        long interval = Math.max(1000, idleTimeout / 2);
+        evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "dao-pool-evictor-" + EVICTOR_COUNT.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                evict();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    @Override
+    Connection openConnection() throws SQLException {
+        try {
+            if (!permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS)) {
+                throw new PoolExhaustedException(
+                    "Timeout waiting " + maxWait + " ms for a pooled connection.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a pooled connection.", e);
+        }
+
+        return checkout();
+    }
+
+    /**
+     * Returns a pooled connection without waiting, or null when all connections are handed out.
+     */
+    @Override
+    Connection tryOpenConnection() throws SQLException {
+        return permits.tryAcquire() ? checkout() : null;
+    }
+
+    /**
+     * Returns true when all connections are handed out, so that a new one would have to wait.
+     */
+    @Override
+    boolean isExhausted() {
+        return permits.availablePermits() == 0;
+    }
+
+    @Override
+    public StatementCacheStats getStatementCacheStats() {
+        return statementCacheStats;
+    }
+
+    /**
+     * Stop the evictor and close the idle connections. Connections which are still handed out are
+     * closed as soon as they are given back.
+     */
+    @Override
+    void shutdown() {
+        super.shutdown();
+        shutdown = true;
+        evictor.shutdownNow();
+
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            discard(pooled);
+        }
+    }
+
+    /**
+     * Returns the amount of connections which are currently handed out.
+     * @return The amount of connections which are currently handed out.
+     */
+    int getActiveCount() {
+        return openCount.get() - idle.size();
+    }
+
+    /**
+     * Returns the amount of open connections which are currently waiting in the pool.
+     * @return The amount of open connections which are currently waiting in the pool.
+     */
+    int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Prime every idle connection, and at least the 'min' ones, also when some of them are checked
+     * out right now, for example by a replica health check.
+     */
+    @Override
+    int getPrimeCount() {
+        return Math.max(1, Math.max(getIdleCount(), minSize));
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    /**
+     * Hand out an idle connection, or a new one if none is usable, for an acquired permit. The
+     * permit is released again when this fails.
+     */
+    private Connection checkout() throws SQLException {
+        try {
+            PooledConnection pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (isUsable(pooled)) {
+                    return pooled.checkout();
+                }
+                discard(pooled);
+            }
+            return open().checkout();
+        } catch (SQLException e) {
+            permits.release();
+            throw e;
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Open a new physical connection and account it in the pool.
+     */
+    private PooledConnection open() throws SQLException {
+        Connection connection = DriverManager.getConnection(url, username, password);
+        openCount.incrementAndGet();
+        return new PooledConnection(connection);
+    }
+
+    /**
+     * Open idle connections until the minimum pool size is reached.
+     */
+    private void fill() {
+        try {
+            while (openCount.get() < minSize && permits.tryAcquire()) {
+                try {
+                    idle.offerLast(open());
+                } finally {
+                    permits.release();
+                }
+            }
+        } catch (SQLException e) {
+            LOG.log(Level.WARNING, "Cannot open idle connections for '" + url + "'.", e);
+        }
+    }
+
+    /**
+     * Close the connections which have been idle for too long, keeping at least the minimum pool
+     * size open. The least recently used connections sit at the tail of the deque.
+     */
+    private void evict() {
+        long now = System.currentTimeMillis();
+        Iterator<PooledConnection> iterator = idle.descendingIterator();
+
+        while (iterator.hasNext() && openCount.get() > minSize) {
+            PooledConnection pooled = iterator.next();
+            if (now - pooled.lastUsed > idleTimeout && idle.remove(pooled)) {
+                discard(pooled);
+            }
+        }
+
+        fill();
+    }
+
+    /**
+     * Returns true if the given idle connection can be handed out again.
+     */
+    private boolean isUsable(PooledConnection pooled) {
+        try {
+            if (pooled.connection.isClosed()) {
+                return false;
+            }
+            if (validationQuery == null
+                || System.currentTimeMillis() - pooled.lastUsed < VALIDATION_THRESHOLD)
+            {
+                return true;
+            }
+            try (Statement statement = pooled.connection.createStatement()) {
+                statement.execute(validationQuery);
+            }
+            return true;
+        } catch (SQLException e) {
+            LOG.log(Level.FINE, "Discarding broken pooled connection.", e);
+            return false;
+        }
+    }
+
+    /**
+     * Close the given physical connection and remove it from the pool accounting.
+     */
+    private void discard(PooledConnection pooled) {
+        openCount.decrementAndGet();
+        try {
+            pooled.connection.close();
+        } catch (SQLException e) {
+            LOG.log(Level.FINE, "Cannot close pooled connection.", e);
+        }
+    }
+
+    /**
+     * Give the given checked out connection back to the pool.
+     */
+    private void checkin(PooledConnection pooled) {
+        try {
+            if (shutdown || pooled.connection.isClosed()) {
+                discard(pooled);
+                return;
+            }
+            if (!pooled.connection.getAutoCommit()) {
+                pooled.connection.rollback();
+                pooled.connection.setAutoCommit(true);
+            }
+            pooled.lastUsed = System.currentTimeMillis();
+            if (!idle.offerFirst(pooled)) {
+                discard(pooled);
+            }
+        } catch (SQLException e) {
+            discard(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    // Inner classes ------------------------------------------------------------------------------
+
+    /**
+     * Thrown when no pooled connection becomes free within 'maxWait'. The database itself may be
+     * fine, it is only busy.
+     */
+    static final class PoolExhaustedException extends SQLTransientConnectionException {
+
+        private static final long serialVersionUID = 1L;
+
+        PoolExhaustedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * A physical connection owned by the pool.
+     */
+    private final class PooledConnection {
+        private final Connection connection;
+        private final StatementCache statementCache;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        PooledConnection(Connection connection) {
+            this.connection = connection;
+            this.statementCache = (statementCacheSize > 0)
+                ? new StatementCache(connection, statementCacheSize, statementCacheStats) : null;
+        }
+
+        /**
+         * Returns a new proxy for this physical connection which gives it back on close.
+         */
+        Connection checkout() {
+            return (Connection) Proxy.newProxyInstance(PooledDAOFactory.class.getClassLoader(),
+                new Class<?>[] { Connection.class, StatementCachingConnection.class }, new Handle(this));
+        }
+    }
+
+    /**
+     * The handler of a checked out connection. Each checkout gets its own handle, so a stale proxy
+     * which is used or closed after having been returned cannot affect the next borrower.
+     */
+    private final class Handle implements InvocationHandler {
+        private PooledConnection pooled;
+
+        Handle(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public synchronized Object invoke(Object proxy, Method method, Object[] args)
+            throws Throwable
+        {
+            String name = method.getName();
+
+            if ("close".equals(name)) {
+                if (pooled != null) {
+                    PooledConnection returned = pooled;
+                    pooled = null;
+                    checkin(returned);
+                }
+                return null;
+            } else if ("isClosed".equals(name)) {
+                return pooled == null || pooled.connection.isClosed();
+            } else if ("equals".equals(name)) {
+                return proxy == args[0];
+            } else if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            } else if ("toString".equals(name)) {
+                return "PooledConnection[" + (pooled != null ? pooled.connection : "closed") + "]";
+            } else if ("getStatementCache".equals(name)) {
+                return (pooled != null) ? pooled.statementCache : null;
+            } else if (pooled == null) {
+                throw new SQLException("Connection has already been returned to the pool.");
+            }
+
+            try {
+                return method.invoke(pooled.connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+}
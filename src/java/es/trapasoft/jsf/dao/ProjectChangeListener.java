@@ -0,0 +1,28 @@
+
+package es.trapasoft.jsf.dao;
+
+import es.trapasoft.jsf.models.Project;
+
+/**
+ * Recibe los cambios de proyectos hechos a través de los DAO de una DAOFactory, para mantener al
+ * día las estructuras en memoria que dependen de la tabla projects.
+ *
+ * @author alejandro
+ */
+interface ProjectChangeListener {
+
+    /**
+     * Se llama tras crear o actualizar el proyecto dado en la bd.
+     *
+     * @param project El proyecto creado o actualizado, ya con su ID.
+     */
+    void projectSaved(Project project);
+
+    /**
+     * Se llama tras borrar de la bd el proyecto con el ID dado.
+     *
+     * @param id El ID del proyecto borrado.
+     */
+    void projectDeleted(Long id);
+
+}
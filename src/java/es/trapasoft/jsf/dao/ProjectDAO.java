@@ -3,6 +3,9 @@ package es.trapasoft.jsf.dao;
 import es.trapasoft.jsf.models.Project;
 import es.trapasoft.jsf.models.User;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 public interface ProjectDAO {
 
@@ -56,7 +59,9 @@ public interface ProjectDAO {
     /**
      * Actualiza el proyecto dado en la bd. El ID del proyecto NO puede ser
      * nulo. Si lo es lanza un IllegalArgumentException. NO se actualizan
-     * usuarios. Usar addUserToProject o delUserFromProject
+     * usuarios. Usar addUserToProject o delUserFromProject. Sólo se escriben las
+     * columnas cambiadas desde que se leyó o se grabó el proyecto, ver
+     * {@link Project#getDirtyFields()}, y nada si no ha cambiado ninguna.
      *
      * @param project El proyecto a modificar
      * @throws IllegalArgumentException Si el ID del proyecto es nulo
@@ -64,6 +69,30 @@ public interface ProjectDAO {
      */
     public void update(Project project) throws IllegalArgumentException, DAOException;
 
+    /**
+     * Crea los proyectos dados en la bd por lotes del tamaño configurado, con un commit por lote.
+     * Los IDs han de ser null, si no lanza un IllegalArgumentException sin crear ninguno. Tras la
+     * creacion, se carga el ID de cada proyecto. Si falla un lote, los proyectos de los lotes
+     * anteriores quedan creados y con su ID, los demas no.
+     *
+     * @param projects Los proyectos a crear
+     * @throws IllegalArgumentException Si el ID de algun proyecto no es nulo
+     * @throws DAOException Si hay fallos a nivel de base de datos
+     */
+    public void createAll(List<Project> projects) throws IllegalArgumentException, DAOException;
+
+    /**
+     * Actualiza los proyectos dados en la bd por lotes del tamaño configurado, con un commit por
+     * lote. Los IDs NO pueden ser nulos, si no lanza un IllegalArgumentException sin actualizar
+     * ninguno. NO se actualizan usuarios. Los proyectos sin cambios se saltan, y en los demás se
+     * escriben las columnas cambiadas en cualquiera de ellos.
+     *
+     * @param projects Los proyectos a modificar
+     * @throws IllegalArgumentException Si el ID de algun proyecto es nulo
+     * @throws DAOException Si hay fallos a nivel de base de datos
+     */
+    public void updateAll(List<Project> projects) throws IllegalArgumentException, DAOException;
+
     /**
      * Borra el proyecto de la base de datos.
      * Tiene que borrar también la asignación de usuarios.
@@ -89,6 +118,19 @@ public interface ProjectDAO {
      * @throws DAOException 
      */
     public void delUserFromProject(Long userId, Long projectId) throws DAOException;
+
+    /**
+     * Deja en el proyecto con el ID dado exactamente los usuarios con los IDs dados: quita los que
+     * sobran y añade los que faltan, con como mucho un lote de delete y uno de insert en una sola
+     * transacción. Los que ya estaban en el proyecto no se tocan.
+     * @param projectId El ID del proyecto.
+     * @param userIds Los IDs de los usuarios que han de participar, vacío para ninguno.
+     * @throws IllegalArgumentException Si el ID, el conjunto o alguno de sus IDs es nulo.
+     * @throws DAOException Si el proyecto no existe o falla algo en la bd; en ese caso no se cambia
+     * ningún participante.
+     */
+    public void setProjectMembers(Long projectId, Set<Long> userIds)
+        throws IllegalArgumentException, DAOException;
     
     /**
      * Devuelve la lista de usuarios que participan en este proyecto
@@ -96,4 +138,34 @@ public interface ProjectDAO {
      * @throws DAOException 
      */
     public List<User> findUsersByProjectId(Long id) throws DAOException;
+
+    /**
+     * Pasa todos los proyectos de la bd, ordenados por ID, a la acción dada. Los proyectos se leen
+     * de uno en uno con un cursor de sólo avance, así que la memoria usada no depende del número
+     * de proyectos. Los proyectos se pasan sin sus usuarios.
+     *
+     * @param action La acción a ejecutar con cada proyecto
+     * @throws DAOException Si falla algo en la bd.
+     */
+    public void forEach(Consumer<Project> action) throws DAOException;
+
+    /**
+     * Igual que {@link #forEach(Consumer)}, pero si reuseRow es true se rellena y se pasa siempre
+     * la misma instancia de Project, así que la acción no debe guardarse referencias a ella.
+     *
+     * @param action La acción a ejecutar con cada proyecto
+     * @param reuseRow Si se usa la misma instancia de Project para todas las filas
+     * @throws DAOException Si falla algo en la bd.
+     */
+    public void forEach(Consumer<Project> action, boolean reuseRow) throws DAOException;
+
+    /**
+     * Devuelve un Stream con todos los proyectos de la bd, igual que {@link #forEach(Consumer)}.
+     * El Stream mantiene una conexión abierta hasta que se cierra, así que hay que cerrarlo
+     * siempre, mejor con try-with-resources.
+     *
+     * @return Un Stream con todos los proyectos, que hay que cerrar
+     * @throws DAOException Si falla algo en la bd, también al recorrer el Stream.
+     */
+    public Stream<Project> stream() throws DAOException;
 }
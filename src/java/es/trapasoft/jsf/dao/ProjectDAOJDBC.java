@@ -5,17 +5,25 @@
  */
 package es.trapasoft.jsf.dao;
 
+import static es.trapasoft.jsf.dao.AssociationLoader.fetchUsers;
 import static es.trapasoft.jsf.dao.DAOUtil.prepareStatement;
 import static es.trapasoft.jsf.dao.DAOUtil.toSqlDate;
+import static es.trapasoft.jsf.dao.RowMapper.PROJECT;
+import static es.trapasoft.jsf.dao.RowMapper.USER;
 import es.trapasoft.jsf.models.Project;
 import es.trapasoft.jsf.models.User;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.IllegalFormatException;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -25,54 +33,78 @@ import java.util.logging.Logger;
  */
 public class ProjectDAOJDBC implements ProjectDAO {
 
-    private static final String SQL_FIND_BY_ID
-            = "select id, name, description, startDate, dueDate, estimatedHours, createdAt, updatedAt from projects where id=?";
-    private static final String SQL_FIND_USERS_BY_PROJECT_ID
-            = "select u.* from users u, projects_users pu where u.id = pu.user_id and pu.project_id = ?";
-    private static final String SQL_FIND_BY_NAME
-            = "select id, name, description, startDate, dueDate, estimatedHours, createdAt, updatedAt from projects where upper(name) like ?";
-    private static final String SQL_FIND_PARENT
-            = "select id, name, description, startDate, dueDate, estimatedHours, createdAt, updatedAt from projects where "
-            + " id = (select parent_id from projects where id = ?)";
-    private static final String SQL_FIND_CHILDREN
-            = "select * from projects where parent_id = ? ";
-
-    private static final String SQL_INSERT
-            = "insert into projects (name, description, startdate, duedate, estimatedhours, parent_id) values (?, ?, ?, ?, ?, ?)";
-
-    private static final String SQL_UPDATE
-            = "update projects set name=?, description=?, startdate=?, duedate=?, estimatedhours=?, parent_id=? where id = ?";
-    private static final String SQL_DELETE
-            = "delete from projects where id = ? ";
-
-    private static final String SQL_ADD_USER_TO_PROJECT
-            = "insert into projects_users (user_id, project_id) values (?, ?)";
-    private static final String SQL_DEL_USER_FROM_PROJECT
-            = " delete from projects_users where user_id = ? and project_id = ?";
+    private static final SqlQuery SQL_FIND_BY_ID = new SqlQuery(
+            "select " + PROJECT.columns() + " from projects where id = ?",
+            Types.BIGINT);
+    private static final SqlQuery SQL_FIND_USERS_BY_PROJECT_ID = new SqlQuery(
+            "select " + USER.columns("u") + " from users u join projects_users pu on u.id = pu.user_id where pu.project_id = ?",
+            Types.BIGINT);
+    private static final SqlQuery SQL_FIND_BY_NAME = new SqlQuery(
+            "select " + PROJECT.columns() + " from projects where upper(name) like ?",
+            Types.VARCHAR);
+    private static final String SQL_FIND_BY_IDS
+            = "select " + PROJECT.columns() + " from projects where id in (%s) order by id";
+    private static final SqlQuery SQL_FIND_PARENT = new SqlQuery(
+            "select " + PROJECT.columns() + " from projects"
+            + " where id = (select parent_id from projects where id = ?)",
+            Types.BIGINT);
+    private static final SqlQuery SQL_FIND_CHILDREN = new SqlQuery(
+            "select " + PROJECT.columns() + " from projects where parent_id = ?",
+            Types.BIGINT);
+
+    private static final String SQL_SCAN
+            = "select " + PROJECT.columns() + " from projects order by id";
+
+    private static final SqlQuery SQL_INSERT = new SqlQuery(
+            "insert into projects (name, description, startdate, duedate, estimatedhours, parent_id) values (?, ?, ?, ?, ?, ?)",
+            Types.VARCHAR, Types.LONGVARCHAR, Types.DATE, Types.DATE, Types.DOUBLE, Types.BIGINT);
+
+    /** Las columnas de Project.FIELD_NAME a FIELD_PARENT_ID, en ese orden. */
+    private static final PartialUpdate SQL_UPDATE = new PartialUpdate("projects",
+            new String[] { "name", "description", "startdate", "duedate", "estimatedhours", "parent_id" },
+            Types.VARCHAR, Types.LONGVARCHAR, Types.DATE, Types.DATE, Types.DOUBLE, Types.BIGINT);
+    private static final SqlQuery SQL_DELETE = new SqlQuery(
+            "delete from projects where id = ? ",
+            Types.BIGINT);
+
+    private static final SqlQuery SQL_ADD_USER_TO_PROJECT = new SqlQuery(
+            "insert into projects_users (user_id, project_id) values (?, ?)",
+            Types.BIGINT, Types.BIGINT);
+    private static final SqlQuery SQL_DEL_USER_FROM_PROJECT = new SqlQuery(
+            " delete from projects_users where user_id = ? and project_id = ?",
+            Types.BIGINT, Types.BIGINT);
     
     
     private DAOFactory daoFactory;
+    private FetchMode fetchMode;
 
     /**
      * Construct a Project DAO for the given DAOFactory. Package private so that
      * it can be constructed inside the DAO package only.
      *
      * @param daoFactory The DAOFactory to construct this User DAO for.
+     * @param fetchMode The way this DAO fills the associations of the returned models.
      */
-    ProjectDAOJDBC(DAOFactory daoFactory) {
+    ProjectDAOJDBC(DAOFactory daoFactory, FetchMode fetchMode) {
         this.daoFactory = daoFactory;
+        this.fetchMode = fetchMode;
     }
 
     @Override
     public Project find(Long id) throws DAOException {
+        if (id == null) {
+            return null;
+        }
+
         Project project = null;
-        try {
-            Connection connection = daoFactory.getConnection();
-            PreparedStatement statement = prepareStatement(connection, SQL_FIND_BY_ID, false, id);
+        try (
+            Connection connection = daoFactory.getReadConnection();
+            PreparedStatement statement = prepareStatement(connection, SQL_FIND_BY_ID, id.longValue());
             ResultSet resultSet = statement.executeQuery();
+        ) {
             if (resultSet.next()) {
-                project = map(resultSet);
-                project.setUsers(findUsersByProjectId(id));
+                project = PROJECT.map(resultSet);
+                fetchUsers(daoFactory, fetchMode, connection, Collections.singletonList(project));
             }
         } catch (SQLException e) {
             throw new DAOException(e);
@@ -83,16 +115,21 @@ public class ProjectDAOJDBC implements ProjectDAO {
 
     @Override
     public List<Project> find(String name) throws DAOException {
+        ProjectNameIndex index = daoFactory.getProjectNameIndex();
+        if (index != null) {
+            return find(index.search(name));
+        }
+
         List<Project> projects = new ArrayList<Project>();
-        try {
-            Connection connection = daoFactory.getConnection();
+        try (
+            Connection connection = daoFactory.getReadConnection();
             PreparedStatement p = prepareStatement(connection, SQL_FIND_BY_NAME, false, '%' + name.toUpperCase() + '%');
             ResultSet rs = p.executeQuery();
+        ) {
             while (rs.next()) {
-                Project project = map(rs);
-                project.setUsers(findUsersByProjectId(project.getId()));
-                projects.add(project);
+                projects.add(PROJECT.map(rs));
             }
+            fetchUsers(daoFactory, fetchMode, connection, projects);
         } catch (SQLException ex) {
             Logger.getLogger(ProjectDAOJDBC.class.getName()).log(Level.SEVERE, null, ex);
             throw new DAOException(ex);
@@ -100,17 +137,57 @@ public class ProjectDAOJDBC implements ProjectDAO {
         return projects;
     }
 
+    /**
+     * Devuelve los proyectos con los ids dados, ordenados por id, con una consulta por cada bloque
+     * de ids. Los ids que ya no estén en la bd se ignoran.
+     */
+    private List<Project> find(long[] ids) throws DAOException {
+        List<Project> projects = new ArrayList<Project>(ids.length);
+        if (ids.length == 0) {
+            return projects;
+        }
+
+        try (Connection connection = daoFactory.getReadConnection()) {
+            for (int from = 0; from < ids.length; from += AssociationLoader.CHUNK_SIZE) {
+                int to = Math.min(from + AssociationLoader.CHUNK_SIZE, ids.length);
+                List<Long> chunkIds = new ArrayList<Long>(to - from);
+                for (int i = from; i < to; i++) {
+                    chunkIds.add(ids[i]);
+                }
+                Object[] chunk = AssociationLoader.inValues(chunkIds);
+                String sql = String.format(SQL_FIND_BY_IDS, AssociationLoader.placeholders(chunk.length));
+
+                try (
+                    PreparedStatement statement = prepareStatement(connection, sql, false, chunk);
+                    ResultSet resultSet = statement.executeQuery();
+                ) {
+                    while (resultSet.next()) {
+                        projects.add(PROJECT.map(resultSet));
+                    }
+                }
+            }
+            fetchUsers(daoFactory, fetchMode, connection, projects);
+        } catch (SQLException e) {
+            throw new DAOException(e);
+        }
+        return projects;
+    }
+
     @Override
     public Project findParent(Long id) throws DAOException {
+        if (id == null) {
+            return null;
+        }
 
         Project project = null;
-        try {
-            Connection connection = daoFactory.getConnection();
-            PreparedStatement statement = prepareStatement(connection, SQL_FIND_PARENT, false, id);
+        try (
+            Connection connection = daoFactory.getReadConnection();
+            PreparedStatement statement = prepareStatement(connection, SQL_FIND_PARENT, id.longValue());
             ResultSet resultSet = statement.executeQuery();
+        ) {
             if (resultSet.next()) {
-                project = map(resultSet);
-                project.setUsers(findUsersByProjectId(project.getId()));
+                project = PROJECT.map(resultSet);
+                fetchUsers(daoFactory, fetchMode, connection, Collections.singletonList(project));
             }
         } catch (SQLException e) {
             throw new DAOException(e);
@@ -122,15 +199,19 @@ public class ProjectDAOJDBC implements ProjectDAO {
     @Override
     public List<Project> findChildren(Long id) throws DAOException {
         List<Project> projects = new ArrayList<Project>();
-        try {
-            Connection connection = daoFactory.getConnection();
-            PreparedStatement statement = prepareStatement(connection, SQL_FIND_CHILDREN, false, id);
+        if (id == null) {
+            return projects;
+        }
+
+        try (
+            Connection connection = daoFactory.getReadConnection();
+            PreparedStatement statement = prepareStatement(connection, SQL_FIND_CHILDREN, id.longValue());
             ResultSet resultSet = statement.executeQuery();
+        ) {
             while (resultSet.next()) {
-                Project project = map(resultSet);
-                project.setUsers(findUsersByProjectId(project.getId()));
-                projects.add(project);
+                projects.add(PROJECT.map(resultSet));
             }
+            fetchUsers(daoFactory, fetchMode, connection, projects);
         } catch (SQLException e) {
             throw new DAOException(e);
         }
@@ -138,56 +219,20 @@ public class ProjectDAOJDBC implements ProjectDAO {
     }
 
 
-    /**
-     * Carga el objeto Project con los datos del ResultSet
-     *
-     * @param rs
-     * @return un objeto Project relleno
-     * @throws SQLException
-     */
-    private static Project map(ResultSet rs) throws SQLException {
-        /*
-        id            
-        name          
-        description   
-        startDate     
-        dueDate       
-        estimatedHours
-        createdAt     
-        updatedAt     
-        parent_id 
-         */
-        Project p = new Project();
-        p.setId(rs.getLong("id"));
-        p.setName(rs.getString("name"));
-        p.setDescription(rs.getString("description"));
-        p.setStartDate(rs.getDate("startDate"));
-        p.setDueDate(rs.getDate("dueDate"));
-        p.setEstimatedHours(rs.getLong("estimatedHours"));
-        p.setCreatedAt(rs.getTimestamp("createdAt"));
-        p.setUpdatedAt(rs.getTimestamp("updatedAt"));
-        p.setParentId(rs.getLong("parent_id"));
-
-        // FIXME faltan los usuarios
-        // p.setUsers(users);
-        return p;
-    }
-
     @Override
     public List<User> findUsersByProjectId(Long id) {
         List<User> users = new ArrayList<User>();
-        try {
-            Connection connection = daoFactory.getConnection();
-            PreparedStatement p = prepareStatement(connection, SQL_FIND_USERS_BY_PROJECT_ID, false, id);
+        if (id == null) {
+            return users;
+        }
+
+        try (
+            Connection connection = daoFactory.getReadConnection();
+            PreparedStatement p = prepareStatement(connection, SQL_FIND_USERS_BY_PROJECT_ID, id.longValue());
             ResultSet rs = p.executeQuery();
+        ) {
             while (rs.next()) {
-                User u = new User();
-                u.setId(rs.getLong("id"));
-                u.setFirstname(rs.getString("firstname"));
-                u.setLastname(rs.getString("lastname"));
-                u.setEmail(rs.getString("email"));
-                u.setBirthdate(rs.getDate("birthdate"));
-                users.add(u);
+                users.add(USER.map(rs));
             }
         } catch (SQLException ex) {
             Logger.getLogger(ProjectDAOJDBC.class.getName()).log(Level.SEVERE, null, ex);
@@ -197,6 +242,21 @@ public class ProjectDAOJDBC implements ProjectDAO {
 
     }
 
+    @Override
+    public void forEach(Consumer<Project> action) throws DAOException {
+        forEach(action, false);
+    }
+
+    @Override
+    public void forEach(Consumer<Project> action, boolean reuseRow) throws DAOException {
+        StreamingQuery.forEach(daoFactory, SQL_SCAN, reuseRow ? PROJECT.reusing() : PROJECT, action);
+    }
+
+    @Override
+    public Stream<Project> stream() throws DAOException {
+        return StreamingQuery.stream(daoFactory, SQL_SCAN, PROJECT);
+    }
+
     @Override
     public void create(Project project) throws IllegalArgumentException, DAOException {
         if (project.getId() != null) {
@@ -212,22 +272,63 @@ public class ProjectDAOJDBC implements ProjectDAO {
             project.getParentId()
         };
 
-        try {
-                Connection connection = daoFactory.getConnection();
-                PreparedStatement statement = prepareStatement(connection, SQL_INSERT, true, values);
+        try (
+            Connection connection = daoFactory.getConnection();
+            PreparedStatement statement = prepareStatement(connection, SQL_INSERT, true, values);
+        ) {
             int affectedRows = statement.executeUpdate();
             if (affectedRows == 0) {
                 throw new DAOException("Error al crear proyecto: no hay filas insertadas.");
             }
 
-            try {
-                ResultSet generatedKeys = statement.getGeneratedKeys() ;
+            try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
                 if (generatedKeys.next()) {
                     project.setId(generatedKeys.getLong(1));
                 } else {
                     throw new DAOException("Error al crear proyecto, no se obtiene identificador.");
                 }
-            } catch (Exception e) {}
+            }
+        } catch (SQLException e) {
+            throw new DAOException(e);
+        }
+
+        project.markClean();
+        daoFactory.fireProjectSaved(project);
+    }
+
+    @Override
+    public void createAll(final List<Project> projects) throws IllegalArgumentException, DAOException {
+        List<Object[]> rows = new ArrayList<Object[]>(projects.size());
+
+        for (Project project : projects) {
+            if (project.getId() != null) {
+                throw new IllegalArgumentException("Proyecto ya existe, el ID no es nulo");
+            }
+            rows.add(new Object[] {
+                project.getName(),
+                project.getDescription(),
+                toSqlDate(project.getStartDate()),
+                toSqlDate(project.getDueDate()),
+                project.getEstimatedHours(),
+                project.getParentId()
+            });
+        }
+
+        final long[] ids = new long[projects.size()];
+
+        try (Connection connection = daoFactory.getConnection()) {
+            BatchUpdate.execute(connection, SQL_INSERT, rows, daoFactory.getBatchSize(), ids,
+                new BatchUpdate.Callback() {
+                    @Override
+                    public void executed(int from, int to) {
+                        for (int i = from; i < to; i++) {
+                            Project project = projects.get(i);
+                            project.setId(ids[i]);
+                            project.markClean();
+                            daoFactory.fireProjectSaved(project);
+                        }
+                    }
+                });
         } catch (SQLException e) {
             throw new DAOException(e);
         }
@@ -239,19 +340,18 @@ public class ProjectDAOJDBC implements ProjectDAO {
             throw new IllegalArgumentException("El ID del proyecto es nulo no se puede actualizar.");
         }
 
-        //"update project set name=?, description=?, startdate=?, duedate=?, estimatedhours=?, parent_id=? where id = ?";
-        Object[] values = {
-            project.getName(),
-            project.getDescription(),
-            toSqlDate(project.getStartDate()),
-            toSqlDate(project.getDueDate()),
-            project.getEstimatedHours(),
-            project.getParentId(),
-            project.getId()
-        };
-        try {
-                Connection connection = daoFactory.getConnection();
-                PreparedStatement statement = prepareStatement(connection, SQL_UPDATE, false, values);
+        // Sólo se escriben las columnas cambiadas (la descripción es un TEXT), y nada si no ha
+        // cambiado ninguna.
+        int changed = project.getDirtyFields() & SQL_UPDATE.getAllColumns();
+        if (changed == 0) {
+            return;
+        }
+
+        Object[] values = SQL_UPDATE.values(changed, updateValues(project), project.getId());
+        try (
+            Connection connection = daoFactory.getConnection();
+            PreparedStatement statement = prepareStatement(connection, SQL_UPDATE.query(changed), false, values);
+        ) {
             int affectedRows = statement.executeUpdate();
             if (affectedRows == 0) {
                 throw new DAOException("Error al actualizar proyecto. No se actualiza ninguna fila.");
@@ -259,6 +359,52 @@ public class ProjectDAOJDBC implements ProjectDAO {
         } catch (SQLException e) {
             throw new DAOException(e);
         }
+
+        project.markClean();
+        daoFactory.fireProjectSaved(project);
+    }
+
+    @Override
+    public void updateAll(List<Project> projects) throws IllegalArgumentException, DAOException {
+        // Un lote lleva una sola sentencia, así que escribe las columnas cambiadas en cualquiera
+        // de los proyectos.
+        final List<Project> dirtyProjects = new ArrayList<Project>(projects.size());
+        int changed = 0;
+
+        for (Project project : projects) {
+            if (project.getId() == null) {
+                throw new IllegalArgumentException("El ID del proyecto es nulo no se puede actualizar.");
+            }
+            int projectChanged = project.getDirtyFields() & SQL_UPDATE.getAllColumns();
+            if (projectChanged != 0) {
+                dirtyProjects.add(project);
+                changed |= projectChanged;
+            }
+        }
+
+        if (dirtyProjects.isEmpty()) {
+            return;
+        }
+
+        List<Object[]> rows = new ArrayList<Object[]>(dirtyProjects.size());
+        for (Project project : dirtyProjects) {
+            rows.add(SQL_UPDATE.values(changed, updateValues(project), project.getId()));
+        }
+
+        try (Connection connection = daoFactory.getConnection()) {
+            BatchUpdate.execute(connection, SQL_UPDATE.query(changed), rows,
+                daoFactory.getBatchSize(), null, new BatchUpdate.Callback() {
+                    @Override
+                    public void executed(int from, int to) {
+                        for (Project project : dirtyProjects.subList(from, to)) {
+                            project.markClean();
+                            daoFactory.fireProjectSaved(project);
+                        }
+                    }
+                });
+        } catch (SQLException e) {
+            throw new DAOException(e);
+        }
     }
 
     @Override
@@ -267,9 +413,10 @@ public class ProjectDAOJDBC implements ProjectDAO {
             project.getId()
         };
 
-        try {
-                Connection connection = daoFactory.getConnection();
-                PreparedStatement statement = prepareStatement(connection, SQL_DELETE, false, values);
+        try (
+            Connection connection = daoFactory.getConnection();
+            PreparedStatement statement = prepareStatement(connection, SQL_DELETE, false, values);
+        ) {
             int affectedRows = statement.executeUpdate();
             if (affectedRows == 0) {
                 throw new DAOException("Error al borrar proyecto. No se actualiza ninguna fila.");
@@ -278,6 +425,8 @@ public class ProjectDAOJDBC implements ProjectDAO {
             throw new DAOException(e);
         }
 
+        daoFactory.fireProjectDeleted(project.getId());
+
     }
 
     @Override
@@ -287,9 +436,10 @@ public class ProjectDAOJDBC implements ProjectDAO {
             projectId
         };
 
-        try {
+        try (
             Connection connection = daoFactory.getConnection();
             PreparedStatement statement = prepareStatement(connection, SQL_ADD_USER_TO_PROJECT, false, values);
+        ) {
             int affectedRows = statement.executeUpdate();
             if (affectedRows == 0) {
                 throw new DAOException("Error al añadir usuario al proyecto. No se actualiza ninguna fila.");
@@ -307,9 +457,10 @@ public class ProjectDAOJDBC implements ProjectDAO {
             projectId
         };
 
-        try {
+        try (
             Connection connection = daoFactory.getConnection();
             PreparedStatement statement = prepareStatement(connection, SQL_DEL_USER_FROM_PROJECT, false, values);
+        ) {
             int affectedRows = statement.executeUpdate();
             if (affectedRows == 0) {
                 throw new DAOException("Error al eliminar usuario del proyecto. No se actualiza ninguna fila.");
@@ -319,6 +470,25 @@ public class ProjectDAOJDBC implements ProjectDAO {
         }
     }
 
+    @Override
+    public void setProjectMembers(Long projectId, Set<Long> userIds)
+        throws IllegalArgumentException, DAOException
+    {
+        MembershipSync.PROJECT_MEMBERS.replace(daoFactory, projectId, userIds);
+    }
 
+    /**
+     * Devuelve los valores de todas las columnas de SQL_UPDATE del proyecto dado, en su orden.
+     */
+    private static Object[] updateValues(Project project) {
+        return new Object[] {
+            project.getName(),
+            project.getDescription(),
+            toSqlDate(project.getStartDate()),
+            toSqlDate(project.getDueDate()),
+            project.getEstimatedHours(),
+            project.getParentId()
+        };
+    }
 
 }
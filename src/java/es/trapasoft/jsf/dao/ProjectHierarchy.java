@@ -0,0 +1,425 @@
+
+package es.trapasoft.jsf.dao;
+
+import es.trapasoft.jsf.models.Project;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Copia en memoria del árbol de proyectos (la columna parent_id) que responde sin ir a la bd a
+ * las preguntas sobre antecesores, descendientes y profundidad de un proyecto. Se carga entera
+ * una vez con una sola consulta y después se mantiene al día con los create, update y delete de
+ * los ProjectDAO de la misma DAOFactory, sin volver a leer la tabla.
+ *
+ * La estructura guarda sólo arrays de primitivos: los ids ordenados, el índice del padre de cada
+ * proyecto y la lista de hijos en formato CSR (el inicio de los hijos de cada proyecto en un array
+ * común). Las consultas trabajan sobre una instantánea inmutable, así que no se bloquean nunca; los
+ * cambios construyen una instantánea nueva y la publican.
+ *
+ * Los proyectos cuyo padre no existe se tratan como raíces hasta que se crea el padre.
+ *
+ * @author alejandro
+ */
+public final class ProjectHierarchy implements ProjectChangeListener {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    private static final String SQL_LIST_PARENTS
+            = "select id, parent_id from projects order by id";
+
+    private static final long[] NONE = new long[0];
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private final DAOFactory daoFactory;
+    private final Object refreshLock = new Object();
+    private volatile Snapshot snapshot;
+    private List<Change> pending;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    /**
+     * Construye la jerarquía de la DAOFactory dada, pero no la carga: la DAOFactory la registra
+     * para recibir los cambios de los ProjectDAO antes de llamar a {@link #refresh()}, para no
+     * perder los que se hagan durante la carga. Package private, se obtiene con
+     * {@link DAOFactory#getProjectHierarchy()}.
+     *
+     * @param daoFactory La DAOFactory de la que leer los proyectos.
+     */
+    ProjectHierarchy(DAOFactory daoFactory) {
+        this.daoFactory = daoFactory;
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Vuelve a cargar el árbol entero de la bd, por ejemplo tras cambios hechos por otras
+     * aplicaciones. Mientras tanto la instantánea anterior sigue contestando; los cambios que
+     * llegan entre medias se aplican a ella y se guardan para aplicarlos otra vez sobre lo cargado,
+     * que puede haberse leído antes o después de cada uno.
+     *
+     * @throws DAOException Si falla algo en la bd.
+     */
+    public void refresh() throws DAOException {
+        synchronized (refreshLock) {
+            synchronized (this) {
+                pending = new ArrayList<Change>();
+            }
+
+            try {
+                Snapshot loaded = load();
+
+                synchronized (this) {
+                    for (Change change : pending) {
+                        loaded = change.applyTo(loaded);
+                    }
+                    snapshot = loaded;
+                }
+            } finally {
+                synchronized (this) {
+                    pending = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Devuelve true si el proyecto con el ID dado está en la jerarquía.
+     *
+     * @param id El ID del proyecto.
+     * @return true si el proyecto existe.
+     */
+    public boolean contains(long id) {
+        return snapshot.indexOf(id) >= 0;
+    }
+
+    /**
+     * Devuelve el ID del padre del proyecto dado, o null si es una raíz o no existe.
+     *
+     * @param id El ID del proyecto.
+     * @return El ID del padre, o null.
+     */
+    public Long parent(long id) {
+        Snapshot s = snapshot;
+        int index = s.indexOf(id);
+        return (index >= 0 && s.parents[index] >= 0) ? s.ids[s.parents[index]] : null;
+    }
+
+    /**
+     * Devuelve los IDs de los antecesores del proyecto dado, empezando por su padre y terminando
+     * por la raíz. Está vacío si el proyecto es una raíz o no existe.
+     *
+     * @param id El ID del proyecto.
+     * @return Los IDs de los antecesores, del padre a la raíz.
+     */
+    public long[] ancestors(long id) {
+        Snapshot s = snapshot;
+        int index = s.indexOf(id);
+
+        if (index < 0) {
+            return NONE;
+        }
+
+        long[] ancestors = new long[8];
+        int size = 0;
+
+        // el límite protege de ciclos en parent_id
+        for (int p = s.parents[index]; p >= 0 && size < s.ids.length; p = s.parents[p]) {
+            if (size == ancestors.length) {
+                ancestors = Arrays.copyOf(ancestors, size * 2);
+            }
+            ancestors[size++] = s.ids[p];
+        }
+
+        return Arrays.copyOf(ancestors, size);
+    }
+
+    /**
+     * Devuelve los IDs de todos los descendientes del proyecto dado, en preorden y sin incluir el
+     * propio proyecto. Está vacío si el proyecto no tiene hijos o no existe.
+     *
+     * @param id El ID del proyecto.
+     * @return Los IDs de los descendientes, en preorden.
+     */
+    public long[] subtree(long id) {
+        Snapshot s = snapshot;
+        int index = s.indexOf(id);
+
+        if (index < 0) {
+            return NONE;
+        }
+
+        long[] subtree = new long[s.ids.length];
+        boolean[] visited = new boolean[s.ids.length];
+        int[] stack = new int[s.ids.length];
+        int size = 0;
+        int top = 0;
+
+        visited[index] = true;
+        stack[top++] = index;
+
+        while (top > 0) {
+            int current = stack[--top];
+            if (current != index) {
+                subtree[size++] = s.ids[current];
+            }
+            // se apilan al revés para que salgan en el orden de los ids
+            for (int c = s.childEnd(current) - 1; c >= s.childStart[current]; c--) {
+                int child = s.children[c];
+                if (!visited[child]) {
+                    visited[child] = true;
+                    stack[top++] = child;
+                }
+            }
+        }
+
+        return Arrays.copyOf(subtree, size);
+    }
+
+    /**
+     * Devuelve los IDs de los hijos directos del proyecto dado, ordenados.
+     *
+     * @param id El ID del proyecto.
+     * @return Los IDs de los hijos.
+     */
+    public long[] children(long id) {
+        Snapshot s = snapshot;
+        int index = s.indexOf(id);
+
+        if (index < 0) {
+            return NONE;
+        }
+
+        long[] children = new long[s.childEnd(index) - s.childStart[index]];
+        for (int i = 0; i < children.length; i++) {
+            children[i] = s.ids[s.children[s.childStart[index] + i]];
+        }
+        return children;
+    }
+
+    /**
+     * Devuelve la profundidad del proyecto dado: 0 para una raíz, 1 para sus hijos, etc.
+     *
+     * @param id El ID del proyecto.
+     * @return La profundidad, o -1 si el proyecto no existe.
+     */
+    public int depth(long id) {
+        Snapshot s = snapshot;
+        int index = s.indexOf(id);
+
+        if (index < 0) {
+            return -1;
+        }
+
+        int depth = 0;
+        for (int p = s.parents[index]; p >= 0 && depth < s.ids.length; p = s.parents[p]) {
+            depth++;
+        }
+        return depth;
+    }
+
+    /**
+     * Devuelve el número de proyectos de la jerarquía.
+     *
+     * @return El número de proyectos.
+     */
+    public int size() {
+        return snapshot.ids.length;
+    }
+
+    @Override
+    public void projectSaved(Project project) {
+        long parentId = (project.getParentId() != null) ? project.getParentId() : 0;
+        apply(new Change(project.getId(), parentId, false));
+    }
+
+    @Override
+    public void projectDeleted(Long id) {
+        apply(new Change(id, 0, true));
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    private Snapshot load() throws DAOException {
+        long[] ids = new long[64];
+        long[] parentIds = new long[64];
+        int size = 0;
+
+        try (
+            Connection connection = daoFactory.getConnection();
+            PreparedStatement statement = connection.prepareStatement(SQL_LIST_PARENTS);
+            ResultSet resultSet = statement.executeQuery();
+        ) {
+            while (resultSet.next()) {
+                if (size == ids.length) {
+                    ids = Arrays.copyOf(ids, size * 2);
+                    parentIds = Arrays.copyOf(parentIds, size * 2);
+                }
+                ids[size] = resultSet.getLong(1);
+                long parentId = resultSet.getLong(2);
+                parentIds[size] = resultSet.wasNull() ? 0 : parentId;
+                size++;
+            }
+        } catch (SQLException e) {
+            throw new DAOException(e);
+        }
+
+        return new Snapshot(Arrays.copyOf(ids, size), Arrays.copyOf(parentIds, size));
+    }
+
+    /**
+     * Aplica el cambio dado a la instantánea actual, si ya se ha cargado, y lo guarda si hay una
+     * carga en curso.
+     */
+    private synchronized void apply(Change change) {
+        if (pending != null) {
+            pending.add(change);
+        }
+
+        Snapshot s = snapshot;
+        if (s != null) {
+            snapshot = change.applyTo(s);
+        }
+    }
+
+    /**
+     * Devuelve la instantánea dada con el padre del proyecto dado cambiado o con el proyecto
+     * añadido, o la misma si no cambia nada.
+     */
+    private static Snapshot save(Snapshot s, long id, long parentId) {
+        int index = s.indexOf(id);
+
+        if (index >= 0) {
+            if (s.parentIdOf(index) == parentId) {
+                return s;
+            }
+            long[] parentIds = s.parentIds();
+            parentIds[index] = parentId;
+            return new Snapshot(s.ids, parentIds);
+        }
+
+        int insertAt = -(index + 1);
+        long[] ids = insert(s.ids, insertAt, id);
+        long[] parentIds = insert(s.parentIds(), insertAt, parentId);
+        return new Snapshot(ids, parentIds);
+    }
+
+    /**
+     * Devuelve la instantánea dada sin el proyecto dado, o la misma si no está.
+     */
+    private static Snapshot delete(Snapshot s, long id) {
+        int index = s.indexOf(id);
+
+        if (index < 0) {
+            return s;
+        }
+
+        return new Snapshot(remove(s.ids, index), remove(s.parentIds(), index));
+    }
+
+    private static long[] insert(long[] array, int index, long value) {
+        long[] result = new long[array.length + 1];
+        System.arraycopy(array, 0, result, 0, index);
+        result[index] = value;
+        System.arraycopy(array, index, result, index + 1, array.length - index);
+        return result;
+    }
+
+    private static long[] remove(long[] array, int index) {
+        long[] result = new long[array.length - 1];
+        System.arraycopy(array, 0, result, 0, index);
+        System.arraycopy(array, index + 1, result, index, array.length - index - 1);
+        return result;
+    }
+
+    // Inner classes ------------------------------------------------------------------------------
+
+    /**
+     * Un cambio recibido de los ProjectDAO: el padre del proyecto grabado (0 si no tiene), o su
+     * borrado.
+     */
+    private static final class Change {
+        private final long id;
+        private final long parentId;
+        private final boolean deleted;
+
+        Change(long id, long parentId, boolean deleted) {
+            this.id = id;
+            this.parentId = parentId;
+            this.deleted = deleted;
+        }
+
+        Snapshot applyTo(Snapshot s) {
+            return deleted ? delete(s, id) : save(s, id, parentId);
+        }
+    }
+
+    /**
+     * Instantánea inmutable del árbol. Los proyectos se identifican por su posición en ids.
+     */
+    private static final class Snapshot {
+        private final long[] ids;
+        private final long[] parentIds;
+        private final int[] parents;
+        private final int[] childStart;
+        private final int[] children;
+
+        /**
+         * Construye la instantánea a partir de los ids ordenados y el id del padre de cada uno
+         * (0 si no tiene).
+         */
+        Snapshot(long[] ids, long[] parentIds) {
+            int size = ids.length;
+            this.ids = ids;
+            this.parentIds = parentIds;
+            this.parents = new int[size];
+            this.childStart = new int[size + 1];
+            this.children = new int[size];
+
+            for (int i = 0; i < size; i++) {
+                int parent = (parentIds[i] != 0) ? Arrays.binarySearch(ids, parentIds[i]) : -1;
+                parents[i] = (parent >= 0 && parent != i) ? parent : -1;
+                if (parents[i] >= 0) {
+                    childStart[parents[i] + 1]++;
+                }
+            }
+
+            for (int i = 0; i < size; i++) {
+                childStart[i + 1] += childStart[i];
+            }
+
+            int[] next = Arrays.copyOf(childStart, size);
+            for (int i = 0; i < size; i++) {
+                if (parents[i] >= 0) {
+                    children[next[parents[i]]++] = i;
+                }
+            }
+        }
+
+        int indexOf(long id) {
+            return Arrays.binarySearch(ids, id);
+        }
+
+        int childEnd(int index) {
+            return childStart[index + 1];
+        }
+
+        long parentIdOf(int index) {
+            return parentIds[index];
+        }
+
+        /**
+         * Devuelve una copia del id del padre de cada proyecto, 0 si no tiene. Se conservan los
+         * padres que no existen, por si se crean después.
+         */
+        long[] parentIds() {
+            return parentIds.clone();
+        }
+    }
+
+}
@@ -0,0 +1,446 @@
+
+package es.trapasoft.jsf.dao;
+
+import es.trapasoft.jsf.models.Project;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Índice de trigramas de los nombres de los proyectos, para buscar por subcadena sin recorrer la
+ * tabla con un LIKE '%x%'. Cada nombre se normaliza (mayúsculas y sin tildes, como la collation
+ * utf8_spanish_ci) y se parte en todas sus subcadenas de 3 caracteres; para cada trigrama se
+ * guarda la lista ordenada de ids de los proyectos que lo contienen. Una búsqueda intersecta las
+ * listas de los trigramas de la cadena buscada y comprueba los candidatos contra el nombre.
+ *
+ * Se carga de la bd una vez y después se mantiene al día con los create, update y delete de los
+ * ProjectDAO de la misma DAOFactory. Los cambios hechos por otras aplicaciones, o por otros nodos
+ * del cluster, no se ven hasta {@link #refresh()}, que se hace también en segundo plano cada
+ * cierto tiempo.
+ *
+ * @author alejandro
+ */
+final class ProjectNameIndex implements ProjectChangeListener {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    private static final Logger LOG = Logger.getLogger(ProjectNameIndex.class.getName());
+
+    private static final String SQL_LIST_NAMES
+            = "select id, name from projects";
+
+    private static final long[] NONE = new long[0];
+
+    private static final AtomicInteger REFRESHER_COUNT = new AtomicInteger();
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private final DAOFactory daoFactory;
+    private final ScheduledExecutorService refresher;
+    private final Object refreshLock = new Object();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Map<Long, String> names = new HashMap<Long, String>();
+    private Map<Long, long[]> postings = new HashMap<Long, long[]>();
+    private List<Change> pending;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    /**
+     * Construye el índice de la DAOFactory dada y programa su recarga, pero no lo carga: la
+     * DAOFactory lo registra para recibir los cambios de los ProjectDAO antes de llamar a
+     * {@link #refresh()}, para no perder los que se hagan durante la carga.
+     *
+     * @param daoFactory La DAOFactory de la que leer los proyectos.
+     * @param refreshInterval Los milisegundos entre recargas, o 0 para no recargar.
+     */
+    ProjectNameIndex(DAOFactory daoFactory, long refreshInterval) {
+        this.daoFactory = daoFactory;
+
+        if (refreshInterval > 0) {
+            refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable,
+                        "dao-project-name-index-" + REFRESHER_COUNT.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            refresher.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        refresh();
+                    } catch (DAOException e) {
+                        LOG.log(Level.WARNING, "Cannot refresh project name index, keeping the old one.", e);
+                    }
+                }
+            }, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+        } else {
+            refresher = null;
+        }
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Vuelve a cargar el índice entero de la bd. Mientras tanto el índice anterior sigue
+     * contestando; los cambios que llegan entre medias se aplican a él y se guardan para aplicarlos
+     * otra vez sobre lo cargado, que puede haberse leído antes o después de cada uno.
+     *
+     * @throws DAOException Si falla algo en la bd.
+     */
+    void refresh() throws DAOException {
+        synchronized (refreshLock) {
+            lock.writeLock().lock();
+            try {
+                pending = new ArrayList<Change>();
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            try {
+                load();
+            } finally {
+                lock.writeLock().lock();
+                try {
+                    pending = null;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Para la recarga en segundo plano.
+     */
+    void shutdown() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+        }
+    }
+
+    /**
+     * Devuelve los ids, ordenados, de los proyectos cuyo nombre contiene el texto dado, sin
+     * distinguir mayúsculas ni tildes.
+     *
+     * @param text El texto a buscar.
+     * @return Los ids de los proyectos encontrados, ordenados.
+     */
+    long[] search(String text) {
+        String query = normalize(text);
+
+        lock.readLock().lock();
+        try {
+            long[] candidates;
+
+            if (query.length() < 3) {
+                candidates = new long[names.size()];
+                int size = 0;
+                for (Long id : names.keySet()) {
+                    candidates[size++] = id;
+                }
+                Arrays.sort(candidates);
+            } else {
+                candidates = intersect(trigrams(query));
+            }
+
+            long[] result = new long[candidates.length];
+            int size = 0;
+            for (long id : candidates) {
+                if (names.get(id).contains(query)) {
+                    result[size++] = id;
+                }
+            }
+            return Arrays.copyOf(result, size);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Devuelve el número de proyectos del índice.
+     *
+     * @return El número de proyectos del índice.
+     */
+    int size() {
+        lock.readLock().lock();
+        try {
+            return names.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void projectSaved(Project project) {
+        apply(new Change(project.getId(), normalize(project.getName())));
+    }
+
+    @Override
+    public void projectDeleted(Long id) {
+        apply(new Change(id, null));
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    /**
+     * Lee los nombres de la bd, construye el índice y lo sustituye, aplicando otra vez los cambios
+     * recibidos mientras tanto.
+     */
+    private void load() throws DAOException {
+        Map<Long, String> loadedNames = new HashMap<Long, String>();
+        Map<Long, long[]> loadedPostings = new HashMap<Long, long[]>();
+        Map<Long, int[]> sizes = new HashMap<Long, int[]>();
+
+        try (
+            Connection connection = daoFactory.getConnection();
+            PreparedStatement statement = connection.prepareStatement(SQL_LIST_NAMES);
+            ResultSet resultSet = statement.executeQuery();
+        ) {
+            while (resultSet.next()) {
+                loadedNames.put(resultSet.getLong(1), normalize(resultSet.getString(2)));
+            }
+        } catch (SQLException e) {
+            throw new DAOException(e);
+        }
+
+        // los ids se añaden en orden para que las listas salgan ordenadas sin reordenar
+        Long[] ids = loadedNames.keySet().toArray(new Long[loadedNames.size()]);
+        Arrays.sort(ids);
+
+        for (Long id : ids) {
+            for (long trigram : trigrams(loadedNames.get(id))) {
+                long[] list = loadedPostings.get(trigram);
+                int[] size = sizes.get(trigram);
+                if (list == null) {
+                    list = new long[4];
+                    size = new int[1];
+                    sizes.put(trigram, size);
+                } else if (size[0] > 0 && list[size[0] - 1] == id) {
+                    continue;
+                } else if (size[0] == list.length) {
+                    list = Arrays.copyOf(list, size[0] * 2);
+                }
+                list[size[0]++] = id;
+                loadedPostings.put(trigram, list);
+            }
+        }
+
+        for (Map.Entry<Long, long[]> entry : loadedPostings.entrySet()) {
+            entry.setValue(Arrays.copyOf(entry.getValue(), sizes.get(entry.getKey())[0]));
+        }
+
+        lock.writeLock().lock();
+        try {
+            names = loadedNames;
+            postings = loadedPostings;
+            for (Change change : pending) {
+                change.apply(this);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Aplica el cambio dado al índice y lo guarda si hay una carga en curso.
+     */
+    private void apply(Change change) {
+        lock.writeLock().lock();
+        try {
+            if (pending != null) {
+                pending.add(change);
+            }
+            change.apply(this);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Cambia el nombre del proyecto dado en el índice. Se llama con el bloqueo de escritura.
+     */
+    private void save(long id, String name) {
+        String old = names.put(id, name);
+        if (old != null) {
+            if (old.equals(name)) {
+                return;
+            }
+            for (long trigram : trigrams(old)) {
+                removePosting(trigram, id);
+            }
+        }
+        for (long trigram : trigrams(name)) {
+            addPosting(trigram, id);
+        }
+    }
+
+    /**
+     * Quita el proyecto dado del índice. Se llama con el bloqueo de escritura.
+     */
+    private void delete(long id) {
+        String old = names.remove(id);
+        if (old != null) {
+            for (long trigram : trigrams(old)) {
+                removePosting(trigram, id);
+            }
+        }
+    }
+
+
+    /**
+     * Devuelve el texto en mayúsculas y sin tildes ni diéresis, conservando la Ñ.
+     */
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+
+        String upper = text.toUpperCase(Locale.ROOT).replace('Ñ', '\u0000');
+        String stripped = Normalizer.normalize(upper, Normalizer.Form.NFD).replaceAll("\\p{M}", "");
+        return stripped.replace('\u0000', 'Ñ');
+    }
+
+    /**
+     * Devuelve los trigramas distintos del texto dado, cada uno codificado en un long con sus tres
+     * caracteres de 16 bits.
+     */
+    private static long[] trigrams(String text) {
+        if (text.length() < 3) {
+            return NONE;
+        }
+
+        long[] trigrams = new long[text.length() - 2];
+        for (int i = 0; i < trigrams.length; i++) {
+            trigrams[i] = ((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16) | text.charAt(i + 2);
+        }
+
+        Arrays.sort(trigrams);
+        int size = 0;
+        for (int i = 0; i < trigrams.length; i++) {
+            if (i == 0 || trigrams[i] != trigrams[i - 1]) {
+                trigrams[size++] = trigrams[i];
+            }
+        }
+        return Arrays.copyOf(trigrams, size);
+    }
+
+    /**
+     * Devuelve la intersección de las listas de ids de los trigramas dados, empezando por la más
+     * corta.
+     */
+    private long[] intersect(long[] trigrams) {
+        long[][] lists = new long[trigrams.length][];
+
+        for (int i = 0; i < trigrams.length; i++) {
+            lists[i] = postings.get(trigrams[i]);
+            if (lists[i] == null) {
+                return NONE;
+            }
+        }
+
+        Arrays.sort(lists, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                return Integer.compare(a.length, b.length);
+            }
+        });
+        long[] result = lists[0];
+
+        for (int i = 1; i < lists.length && result.length > 0; i++) {
+            long[] other = lists[i];
+            long[] common = new long[result.length];
+            int size = 0;
+            for (long id : result) {
+                if (Arrays.binarySearch(other, id) >= 0) {
+                    common[size++] = id;
+                }
+            }
+            result = Arrays.copyOf(common, size);
+        }
+
+        return result;
+    }
+
+    private void addPosting(long trigram, long id) {
+        long[] list = postings.get(trigram);
+
+        if (list == null) {
+            postings.put(trigram, new long[] { id });
+            return;
+        }
+
+        int index = Arrays.binarySearch(list, id);
+        if (index < 0) {
+            index = -(index + 1);
+            long[] grown = new long[list.length + 1];
+            System.arraycopy(list, 0, grown, 0, index);
+            grown[index] = id;
+            System.arraycopy(list, index, grown, index + 1, list.length - index);
+            postings.put(trigram, grown);
+        }
+    }
+
+    private void removePosting(long trigram, long id) {
+        long[] list = postings.get(trigram);
+        int index = (list != null) ? Arrays.binarySearch(list, id) : -1;
+
+        if (index < 0) {
+            return;
+        }
+
+        if (list.length == 1) {
+            postings.remove(trigram);
+        } else {
+            long[] shrunk = new long[list.length - 1];
+            System.arraycopy(list, 0, shrunk, 0, index);
+            System.arraycopy(list, index + 1, shrunk, index, list.length - index - 1);
+            postings.put(trigram, shrunk);
+        }
+    }
+
+    // Inner classes ------------------------------------------------------------------------------
+
+    /**
+     * Un cambio recibido de los ProjectDAO: el nombre ya normalizado del proyecto grabado, o null
+     * si se ha borrado.
+     */
+    private static final class Change {
+        private final long id;
+        private final String name;
+
+        Change(long id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        void apply(ProjectNameIndex index) {
+            if (name != null) {
+                index.save(id, name);
+            } else {
+                index.delete(id);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,355 @@
+
+package es.trapasoft.jsf.dao;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The DAOFactory which splits reads and writes over one primary database and its read replicas.
+ * It is selected by {@link DAOFactory#getInstance(String)} when the 'name.replicas' property lists
+ * the database names of the replicas, each of which is configured in dao.properties like any other
+ * database. Writes, and everything else which uses {@link #getConnection()}, go to the primary.
+ * The read-only DAO methods use {@link #getReadConnection()} and go to a replica, picked round
+ * robin or by the lowest latency of its last health checks, unless:
+ *
+ * - the current unit of work has already used the primary, typically to write, in which case the
+ *   rest of the request reads from the primary as well, so that it reads its own writes, also
+ *   after releaseConnection() has given the primary connection back;
+ * - no replica is healthy, in which case everything goes to the primary.
+ *
+ * Within a unit of work, the replica picked first serves all further reads of the request.
+ * A replica is ejected after 'ejectAfter' consecutive failures, either when acquiring a connection
+ * or in the health check which runs the 'checkQuery' on every replica each 'checkInterval' ms, and
+ * it is taken back as soon as a health check succeeds again. A replica whose connection pool is
+ * exhausted is busy rather than broken: it is tried after the others, a timeout waiting for its
+ * pool sends the read to the primary without counting as a failure, and its health check is
+ * skipped. The health check runs on a pooled connection and its latency is that of the query
+ * alone. Replication lag is not measured, so a read may not see yet what other requests have just
+ * written.
+ *
+ * @author alejandro
+ */
+class RoutingDAOFactory extends DAOFactory {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    private static final Logger LOG = Logger.getLogger(RoutingDAOFactory.class.getName());
+    private static final AtomicInteger CHECKER_COUNT = new AtomicInteger();
+
+    /** The weight of the newest health check latency in the moving average. */
+    private static final double LATENCY_WEIGHT = 0.3;
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private final DAOFactory primary;
+    private final List<Replica> replicas;
+    private final Balance balance;
+    private final int ejectAfter;
+    private final String checkQuery;
+    private final AtomicInteger next = new AtomicInteger();
+    private final ScheduledExecutorService checker;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    /**
+     * Construct a routing DAOFactory and start the health checks of the replicas.
+     * @param primary The DAOFactory of the primary database.
+     * @param names The database names of the replicas.
+     * @param replicas The DAOFactory of each replica, in the same order.
+     * @param balance How to pick a replica.
+     * @param ejectAfter The amount of consecutive failures after which a replica is ejected.
+     * @param checkInterval The time in milliseconds between health checks.
+     * @param checkQuery The SQL query of the health checks.
+     */
+    RoutingDAOFactory(DAOFactory primary, List<String> names, List<DAOFactory> replicas,
+        Balance balance, int ejectAfter, long checkInterval, String checkQuery)
+    {
+        if (ejectAfter < 1 || checkInterval < 1) {
+            throw new DAOConfigurationException("Invalid replica settings, ejectAfter=" + ejectAfter
+                + " and checkInterval=" + checkInterval + ".");
+        }
+
+        this.primary = primary;
+        this.replicas = new ArrayList<Replica>(replicas.size());
+        for (int i = 0; i < replicas.size(); i++) {
+            this.replicas.add(new Replica(names.get(i), replicas.get(i)));
+        }
+        this.balance = balance;
+        this.ejectAfter = ejectAfter;
+        this.checkQuery = checkQuery;
+
+        checker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "dao-replica-check-" + CHECKER_COUNT.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        checker.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                check();
+            }
+        }, 0, checkInterval, TimeUnit.MILLISECONDS);
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    @Override
+    Connection openConnection() throws SQLException {
+        return primary.openConnection();
+    }
+
+    @Override
+    Connection getReadConnection() throws SQLException {
+        UnitOfWork unit = UnitOfWork.current();
+
+        if (unit != null) {
+            if (unit.isUsed(this)) {
+                return unit.getConnection(this);
+            }
+            for (Replica replica : replicas) {
+                if (unit.isBound(replica.daoFactory)) {
+                    return unit.getConnection(replica.daoFactory);
+                }
+            }
+        }
+
+        for (Replica replica : candidates()) {
+            try {
+                return replica.daoFactory.getConnection();
+            } catch (PooledDAOFactory.PoolExhaustedException e) {
+                busy(replica, e);
+                break;
+            } catch (SQLException e) {
+                failed(replica, e);
+            }
+        }
+
+        return getConnection();
+    }
+
+    /**
+     * Reads go to the primary once the current unit of work has used it, even if its connection
+     * has been released since.
+     */
+    @Override
+    boolean readsFromPrimary() {
+        UnitOfWork unit = UnitOfWork.current();
+        return unit != null && unit.isUsed(this);
+    }
+
+    @Override
+    void releaseConnection() throws SQLException {
+        super.releaseConnection();
+        UnitOfWork unit = UnitOfWork.current();
+        if (unit != null) {
+            for (Replica replica : replicas) {
+                unit.release(replica.daoFactory);
+            }
+        }
+    }
+
+    @Override
+    Connection acquireReadConnection() throws SQLException {
+        for (Replica replica : candidates()) {
+            try {
+                return replica.daoFactory.acquireConnection();
+            } catch (PooledDAOFactory.PoolExhaustedException e) {
+                busy(replica, e);
+                break;
+            } catch (SQLException e) {
+                failed(replica, e);
+            }
+        }
+
+        return acquireConnection();
+    }
+
+    @Override
+    Connection tryOpenConnection() throws SQLException {
+        return primary.tryOpenConnection();
+    }
+
+    @Override
+    boolean isExhausted() {
+        return primary.isExhausted();
+    }
+
+    /**
+     * Prime the primary and then every replica. A replica which cannot be reached is only logged,
+     * the health checks take care of it.
+     */
+    @Override
+    void primeConnections() throws DAOException {
+        primary.primeConnections();
+
+        for (Replica replica : replicas) {
+            try {
+                replica.daoFactory.primeConnections();
+            } catch (DAOException e) {
+                LOG.log(Level.WARNING, "Cannot warm up replica '" + replica.name + "'.", e);
+            }
+        }
+    }
+
+    /**
+     * Stop the health checks, and shut down the primary and every replica.
+     */
+    @Override
+    void shutdown() {
+        super.shutdown();
+        checker.shutdownNow();
+        primary.shutdown();
+
+        for (Replica replica : replicas) {
+            replica.daoFactory.shutdown();
+        }
+    }
+
+    @Override
+    public StatementCacheStats getStatementCacheStats() {
+        return primary.getStatementCacheStats();
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    /**
+     * Returns the healthy replicas in the order they should be tried, those whose connection pool
+     * is exhausted last.
+     */
+    private List<Replica> candidates() {
+        List<Replica> healthy = new ArrayList<Replica>(replicas.size());
+        int start = (balance == Balance.ROUND_ROBIN)
+            ? Math.abs(next.getAndIncrement() % replicas.size()) : 0;
+
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get((start + i) % replicas.size());
+            if (replica.healthy) {
+                healthy.add(replica);
+            }
+        }
+
+        if (balance == Balance.LEAST_LATENCY && healthy.size() > 1) {
+            Collections.sort(healthy, new Comparator<Replica>() {
+                @Override
+                public int compare(Replica left, Replica right) {
+                    return Double.compare(left.latency, right.latency);
+                }
+            });
+        }
+
+        List<Replica> exhausted = new ArrayList<Replica>();
+        for (Iterator<Replica> iterator = healthy.iterator(); iterator.hasNext();) {
+            Replica replica = iterator.next();
+            if (replica.daoFactory.isExhausted()) {
+                iterator.remove();
+                exhausted.add(replica);
+            }
+        }
+        healthy.addAll(exhausted);
+
+        return healthy;
+    }
+
+    /**
+     * Run the health check query on every replica, and take back those which pass it. A replica
+     * without a free pooled connection is serving reads, so it is not checked this time.
+     */
+    private void check() {
+        for (Replica replica : replicas) {
+            long latency;
+
+            try (Connection connection = replica.daoFactory.tryOpenConnection()) {
+                if (connection == null) {
+                    continue;
+                }
+
+                long start = System.nanoTime();
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute(checkQuery);
+                }
+                latency = System.nanoTime() - start;
+            } catch (SQLException e) {
+                failed(replica, e);
+                continue;
+            } catch (RuntimeException e) {
+                LOG.log(Level.WARNING, "Health check of replica '" + replica.name + "' failed.", e);
+                continue;
+            }
+
+            replica.latency = (replica.latency == 0) ? latency
+                : LATENCY_WEIGHT * latency + (1 - LATENCY_WEIGHT) * replica.latency;
+            replica.failures.set(0);
+            if (!replica.healthy) {
+                replica.healthy = true;
+                LOG.log(Level.INFO, "Replica '" + replica.name + "' is healthy again.");
+            }
+        }
+    }
+
+    /**
+     * Count a failure of the given replica, and eject it when it has failed too often in a row.
+     */
+    private void failed(Replica replica, SQLException e) {
+        if (replica.failures.incrementAndGet() >= ejectAfter && replica.healthy) {
+            replica.healthy = false;
+            LOG.log(Level.WARNING, "Ejecting replica '" + replica.name + "' after "
+                + ejectAfter + " consecutive failures.", e);
+        } else {
+            LOG.log(Level.FINE, "Replica '" + replica.name + "' failed.", e);
+        }
+    }
+
+    /**
+     * Note that the given replica had no free connection; this does not count as a failure.
+     */
+    private void busy(Replica replica, SQLException e) {
+        LOG.log(Level.FINE, "Replica '" + replica.name + "' is busy, reading from the primary.", e);
+    }
+
+    // Inner classes ------------------------------------------------------------------------------
+
+    /**
+     * How to pick a replica for a read.
+     */
+    enum Balance {
+
+        /** Each read goes to the next healthy replica. */
+        ROUND_ROBIN,
+
+        /** Each read goes to the healthy replica with the lowest health check latency. */
+        LEAST_LATENCY;
+    }
+
+    /**
+     * A replica with its health.
+     */
+    private static final class Replica {
+        private final String name;
+        private final DAOFactory daoFactory;
+        private final AtomicInteger failures = new AtomicInteger();
+        private volatile boolean healthy = true;
+        private volatile double latency;
+
+        Replica(String name, DAOFactory daoFactory) {
+            this.name = name;
+            this.daoFactory = daoFactory;
+        }
+    }
+
+}
@@ -0,0 +1,174 @@
+
+package es.trapasoft.jsf.dao;
+
+import es.trapasoft.jsf.models.Project;
+import es.trapasoft.jsf.models.User;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Mapea las filas de users o projects a su modelo leyendo las columnas por posición, sin buscar
+ * cada columna por nombre en cada fila. Cada mapeador tiene su lista de columnas, y las consultas
+ * construyen su SELECT con {@link #columns()} o {@link #columns(String)}, de modo que la posición
+ * de cada columna queda fijada una vez por consulta y no depende del orden de la tabla ni trae
+ * columnas que no se usan, como la contraseña.
+ *
+ * Las columnas del mapeador pueden ir detrás de otras, como el id del lado conocido de una
+ * asociación; en ese caso se indica la posición de la primera con {@link #map(ResultSet, int)}.
+ *
+ * @param <T> El tipo del modelo.
+ * @author alejandro
+ */
+abstract class RowMapper<T> implements StreamingQuery.Mapper<T> {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    /** Los usuarios, sin la contraseña. */
+    static final RowMapper<User> USER = new RowMapper<User>(
+        "id", "email", "firstname", "lastname", "birthdate")
+    {
+        @Override
+        User create() {
+            return new User();
+        }
+
+        @Override
+        User map(ResultSet resultSet, int first, User user) throws SQLException {
+            user.setId(resultSet.getLong(first));
+            user.setEmail(resultSet.getString(first + 1));
+            user.setFirstname(resultSet.getString(first + 2));
+            user.setLastname(resultSet.getString(first + 3));
+            user.setBirthdate(resultSet.getDate(first + 4));
+            user.markClean();
+            return user;
+        }
+    };
+
+    /** Los proyectos. */
+    static final RowMapper<Project> PROJECT = new RowMapper<Project>(
+        "id", "name", "description", "startDate", "dueDate", "estimatedHours", "createdAt",
+        "updatedAt", "parent_id")
+    {
+        @Override
+        Project create() {
+            return new Project();
+        }
+
+        @Override
+        Project map(ResultSet resultSet, int first, Project project) throws SQLException {
+            project.setId(resultSet.getLong(first));
+            project.setName(resultSet.getString(first + 1));
+            project.setDescription(resultSet.getString(first + 2));
+            project.setStartDate(resultSet.getDate(first + 3));
+            project.setDueDate(resultSet.getDate(first + 4));
+            project.setEstimatedHours(resultSet.getDouble(first + 5));
+            project.setCreatedAt(resultSet.getTimestamp(first + 6));
+            project.setUpdatedAt(resultSet.getTimestamp(first + 7));
+            long parentId = resultSet.getLong(first + 8);
+            project.setParentId(resultSet.wasNull() ? null : parentId);
+            project.markClean();
+            return project;
+        }
+    };
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private final String[] columns;
+    private final String columnList;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    private RowMapper(String... columns) {
+        this.columns = columns;
+        this.columnList = columns(null);
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Devuelve la lista de columnas separadas por comas, para el SELECT.
+     *
+     * @return La lista de columnas.
+     */
+    String columns() {
+        return columnList;
+    }
+
+    /**
+     * Devuelve la lista de columnas separadas por comas, cada una precedida del alias de tabla
+     * dado, para el SELECT de una join.
+     *
+     * @param alias El alias de la tabla, o null para ninguno.
+     * @return La lista de columnas.
+     */
+    final String columns(String alias) {
+        StringBuilder builder = new StringBuilder();
+
+        for (String column : columns) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            if (alias != null) {
+                builder.append(alias).append('.');
+            }
+            builder.append(column);
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Mapea la fila actual, cuyas primeras columnas son las de este mapeador, a un modelo nuevo.
+     */
+    @Override
+    public T map(ResultSet resultSet) throws SQLException {
+        return map(resultSet, 1, create());
+    }
+
+    /**
+     * Mapea la fila actual a un modelo nuevo, empezando por la columna dada.
+     *
+     * @param resultSet El ResultSet posicionado en la fila a mapear.
+     * @param first La posición de la primera columna de este mapeador, empezando por 1.
+     * @return El modelo mapeado.
+     * @throws SQLException Si falla algo en la bd.
+     */
+    T map(ResultSet resultSet, int first) throws SQLException {
+        return map(resultSet, first, create());
+    }
+
+    /**
+     * Devuelve un mapeador de filas completas que rellena siempre el mismo modelo, para recorrer
+     * tablas grandes sin crear un objeto por fila.
+     *
+     * @return Un mapeador que reutiliza un único modelo.
+     */
+    StreamingQuery.Mapper<T> reusing() {
+        final T row = create();
+
+        return new StreamingQuery.Mapper<T>() {
+            @Override
+            public T map(ResultSet resultSet) throws SQLException {
+                return RowMapper.this.map(resultSet, 1, row);
+            }
+        };
+    }
+
+    /**
+     * Devuelve un modelo nuevo, vacío.
+     */
+    abstract T create();
+
+    /**
+     * Rellena el modelo dado con la fila actual, empezando por la columna dada, y lo marca sin
+     * cambios.
+     *
+     * @param resultSet El ResultSet posicionado en la fila a mapear.
+     * @param first La posición de la primera columna de este mapeador, empezando por 1.
+     * @param target El modelo a rellenar.
+     * @return El mismo modelo, relleno.
+     * @throws SQLException Si falla algo en la bd.
+     */
+    abstract T map(ResultSet resultSet, int first, T target) throws SQLException;
+
+}
@@ -0,0 +1,127 @@
+
+package es.trapasoft.jsf.dao;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+
+/**
+ * This class represents a SQL query together with the SQL types of its parameters, as constants
+ * from {@link Types}. The types are declared once with the query, so that the parameter values can
+ * be bound with the matching typed setter (setLong, setString, setDate, ...) and null values with
+ * setNull and the right SQL type, instead of letting the driver inspect every value in setObject.
+ *
+ * Use it through {@link DAOUtil#prepareStatement(java.sql.Connection, SqlQuery, boolean, Object...)}
+ * and its overloads.
+ *
+ * @author alejandro
+ */
+final class SqlQuery {
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private final String sql;
+    private final int[] types;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    /**
+     * Construct a SQL query with the given parameter types.
+     * @param sql The SQL query, with one '?' per parameter.
+     * @param types The SQL types of the parameters, in order, as constants from {@link Types}.
+     * @throws IllegalArgumentException If the amount of types does not match the amount of '?'.
+     */
+    SqlQuery(String sql, int... types) {
+        int parameters = 0;
+
+        for (int i = 0; i < sql.length(); i++) {
+            if (sql.charAt(i) == '?') {
+                parameters++;
+            }
+        }
+
+        if (parameters != types.length) {
+            throw new IllegalArgumentException("Query '" + sql + "' has " + parameters
+                + " parameters, but " + types.length + " types are given.");
+        }
+
+        this.sql = sql;
+        this.types = types.clone();
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Set the given parameter values in the given PreparedStatement using the declared types.
+     * @param statement The PreparedStatement of this query.
+     * @param values The parameter values, one per declared type.
+     * @throws SQLException If something fails during setting the PreparedStatement values.
+     */
+    void setValues(PreparedStatement statement, Object... values) throws SQLException {
+        if (values.length != types.length) {
+            throw new IllegalArgumentException("Query '" + sql + "' takes " + types.length
+                + " values, but " + values.length + " are given.");
+        }
+
+        for (int i = 0; i < values.length; i++) {
+            setValue(statement, i + 1, types[i], values[i]);
+        }
+    }
+
+    // Getters ------------------------------------------------------------------------------------
+
+    String getSql() {
+        return sql;
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    /**
+     * Set the given value of the given SQL type with the matching typed setter.
+     */
+    private static void setValue(PreparedStatement statement, int index, int type, Object value)
+        throws SQLException
+    {
+        if (value == null) {
+            statement.setNull(index, type);
+            return;
+        }
+
+        switch (type) {
+            case Types.BIGINT:
+                statement.setLong(index, ((Number) value).longValue());
+                break;
+            case Types.INTEGER:
+                statement.setInt(index, ((Number) value).intValue());
+                break;
+            case Types.DOUBLE:
+                statement.setDouble(index, ((Number) value).doubleValue());
+                break;
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+                statement.setString(index, (String) value);
+                break;
+            case Types.DATE:
+                statement.setDate(index, (value instanceof java.sql.Date) ? (java.sql.Date) value
+                    : DAOUtil.toSqlDate((java.util.Date) value));
+                break;
+            case Types.TIMESTAMP:
+                statement.setTimestamp(index, (value instanceof Timestamp) ? (Timestamp) value
+                    : new Timestamp(((java.util.Date) value).getTime()));
+                break;
+            default:
+                statement.setObject(index, value, type);
+                break;
+        }
+    }
+
+    // Object overrides ---------------------------------------------------------------------------
+
+    @Override
+    public String toString() {
+        return "SqlQuery[" + sql + "," + Arrays.toString(types) + "]";
+    }
+
+}
@@ -0,0 +1,247 @@
+
+package es.trapasoft.jsf.dao;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * This class keeps the prepared statements of one physical connection by SQL text and generated
+ * keys flag, so that a statement which is prepared again and again is parsed only once for the
+ * lifetime of the connection. When the cache is full, the least recently used statement is closed
+ * and evicted.
+ *
+ * The cached statements are handed out as proxies: closing them clears their parameters and batch,
+ * resets their max rows, fetch size and query timeout to the defaults, and gives them back to the
+ * cache instead of closing them. Each checkout gets its own proxy, whose close() gives back only
+ * its own lease; once closed, it throws on every further call, like a closed statement would, also
+ * after the statement has been handed out to someone else. A statement which is still in use is not handed out twice; preparing the same
+ * SQL again meanwhile returns a plain uncached statement.
+ *
+ * @author alejandro
+ */
+final class StatementCache {
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private final Connection connection;
+    private final int maxSize;
+    private final StatementCacheStats stats;
+    private final LinkedHashMap<Key, CachedStatement> statements;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    /**
+     * Construct a statement cache for the given physical connection.
+     * @param connection The physical connection to prepare the statements on.
+     * @param maxSize The maximum amount of cached statements.
+     * @param stats The statistics to account the hits, misses and evictions in.
+     */
+    StatementCache(Connection connection, int maxSize, StatementCacheStats stats) {
+        this.connection = connection;
+        this.maxSize = maxSize;
+        this.stats = stats;
+        this.statements = new LinkedHashMap<Key, CachedStatement>(16, 0.75f, true);
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Returns a prepared statement for the given SQL, from the cache when possible.
+     * @param sql The SQL query to prepare.
+     * @param returnGeneratedKeys Set whether to return generated keys or not.
+     * @return A prepared statement which must be closed after use.
+     * @throws SQLException If preparing the statement fails.
+     */
+    synchronized PreparedStatement prepareStatement(String sql, boolean returnGeneratedKeys)
+        throws SQLException
+    {
+        Key key = new Key(sql, returnGeneratedKeys);
+        CachedStatement cached = statements.get(key);
+
+        if (cached != null) {
+            if (cached.inUse) {
+                stats.miss();
+                return prepare(key);
+            }
+            stats.hit();
+            return cached.checkout();
+        }
+
+        stats.miss();
+        cached = new CachedStatement(key, prepare(key));
+        PreparedStatement proxy = cached.checkout();
+        statements.put(key, cached);
+
+        if (statements.size() > maxSize) {
+            Iterator<CachedStatement> eldest = statements.values().iterator();
+            CachedStatement evicted = eldest.next();
+            eldest.remove();
+            stats.eviction();
+            evicted.evict();
+        }
+
+        return proxy;
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    private PreparedStatement prepare(Key key) throws SQLException {
+        return connection.prepareStatement(key.sql,
+            key.returnGeneratedKeys ? Statement.RETURN_GENERATED_KEYS : Statement.NO_GENERATED_KEYS);
+    }
+
+    // Inner classes ------------------------------------------------------------------------------
+
+    /**
+     * The cache key: the SQL text and the generated keys flag.
+     */
+    private static final class Key {
+        private final String sql;
+        private final boolean returnGeneratedKeys;
+
+        Key(String sql, boolean returnGeneratedKeys) {
+            this.sql = sql;
+            this.returnGeneratedKeys = returnGeneratedKeys;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key
+                && ((Key) other).returnGeneratedKeys == returnGeneratedKeys
+                && ((Key) other).sql.equals(sql);
+        }
+
+        @Override
+        public int hashCode() {
+            return sql.hashCode() * 31 + (returnGeneratedKeys ? 1 : 0);
+        }
+    }
+
+    /**
+     * A cached physical statement, handed out to one borrower at a time.
+     */
+    private final class CachedStatement {
+        private final Key key;
+        private final PreparedStatement statement;
+        private boolean inUse;
+        private boolean evicted;
+
+        CachedStatement(Key key, PreparedStatement statement) {
+            this.key = key;
+            this.statement = statement;
+        }
+
+        /**
+         * Hand out the statement through a new proxy which gives it back on close.
+         */
+        PreparedStatement checkout() {
+            inUse = true;
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[] { PreparedStatement.class }, new Lease(this));
+        }
+
+        /**
+         * Close the physical statement now, or when it is given back if it is still in use.
+         */
+        void evict() {
+            evicted = true;
+            if (!inUse) {
+                closeQuietly();
+            }
+        }
+
+        /**
+         * Give the statement back to the cache, or close it if it is evicted or cannot be reset.
+         */
+        void checkin() {
+            inUse = false;
+            if (evicted) {
+                closeQuietly();
+            } else if (!reset()) {
+                // A statement which cannot be reset is not handed out again.
+                statements.remove(key, this);
+                evicted = true;
+                closeQuietly();
+            }
+        }
+
+        /**
+         * Undo what the last user may have changed on the statement; returns false if that fails.
+         */
+        private boolean reset() {
+            try {
+                statement.clearParameters();
+                statement.clearBatch();
+                statement.setMaxRows(0);
+                statement.setFetchSize(0);
+                statement.setQueryTimeout(0);
+                return true;
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        private void closeQuietly() {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                // Nothing to do, the statement is gone anyway.
+            }
+        }
+    }
+
+    /**
+     * The handler of a checked out statement. Each checkout gets its own lease, so a stale proxy
+     * which is used or closed after having been given back cannot affect the next borrower.
+     */
+    private final class Lease implements InvocationHandler {
+        private CachedStatement cached;
+
+        Lease(CachedStatement cached) {
+            this.cached = cached;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            CachedStatement current;
+
+            synchronized (StatementCache.this) {
+                current = cached;
+
+                if ("close".equals(name)) {
+                    if (current != null) {
+                        cached = null;
+                        current.checkin();
+                    }
+                    return null;
+                } else if ("isClosed".equals(name)) {
+                    return current == null || current.statement.isClosed();
+                }
+            }
+
+            if ("equals".equals(name)) {
+                return proxy == args[0];
+            } else if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            } else if (current == null) {
+                throw new SQLException("Statement has already been closed.");
+            }
+
+            try {
+                return method.invoke(current.statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+
+package es.trapasoft.jsf.dao;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class holds the hit, miss and eviction counts of the prepared statement caches of all
+ * connections of a DAOFactory, for monitoring purposes. All methods are thread safe.
+ *
+ * @author alejandro
+ */
+public final class StatementCacheStats {
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private final int maxSize;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    // Constructors -------------------------------------------------------------------------------
+
+    /**
+     * Construct the statistics of the statement caches of the given size. Package private so that
+     * it can be constructed inside the DAO package only.
+     * @param maxSize The maximum amount of statements cached per connection.
+     */
+    StatementCacheStats(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    void hit() {
+        hits.incrementAndGet();
+    }
+
+    void miss() {
+        misses.incrementAndGet();
+    }
+
+    void eviction() {
+        evictions.incrementAndGet();
+    }
+
+    // Getters ------------------------------------------------------------------------------------
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the ratio of hits to lookups, or 0 when there have been no lookups yet.
+     * @return The ratio of hits to lookups.
+     */
+    public double getHitRatio() {
+        long hits = this.hits.get();
+        long lookups = hits + misses.get();
+        return (lookups == 0) ? 0 : (double) hits / lookups;
+    }
+
+    // Object overrides ---------------------------------------------------------------------------
+
+    @Override
+    public String toString() {
+        return String.format("StatementCacheStats[maxSize=%d,hits=%d,misses=%d,evictions=%d]",
+            maxSize, hits.get(), misses.get(), evictions.get());
+    }
+
+}
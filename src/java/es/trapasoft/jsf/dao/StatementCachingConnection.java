@@ -0,0 +1,18 @@
+
+package es.trapasoft.jsf.dao;
+
+/**
+ * Implemented by the connection proxies which keep a cache of prepared statements for their
+ * physical connection, so that {@link DAOUtil#prepareStatement} can reuse them.
+ *
+ * @author alejandro
+ */
+interface StatementCachingConnection {
+
+    /**
+     * Returns the prepared statement cache of the physical connection.
+     * @return The prepared statement cache of the physical connection.
+     */
+    StatementCache getStatementCache();
+
+}
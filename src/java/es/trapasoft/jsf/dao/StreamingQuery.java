@@ -0,0 +1,174 @@
+
+package es.trapasoft.jsf.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Recorre el resultado de una consulta fila a fila con un ResultSet de sólo avance y sólo lectura,
+ * sin cargarlo entero en memoria. Con el fetch size por defecto (Integer.MIN_VALUE) el driver de
+ * MySQL trae las filas en streaming, y mientras tanto la conexión no admite otras consultas, así
+ * que se usa una conexión propia y no la de la unidad de trabajo.
+ *
+ * @author alejandro
+ */
+final class StreamingQuery {
+
+    // Constructors -------------------------------------------------------------------------------
+
+    private StreamingQuery() {
+        // Utility class, hide constructor.
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Lanza la consulta dada y pasa cada fila mapeada a la acción dada.
+     *
+     * @param daoFactory La DAOFactory de la que obtener la conexión.
+     * @param sql La consulta a lanzar.
+     * @param mapper El mapeador de cada fila.
+     * @param action La acción a ejecutar con cada fila.
+     * @throws DAOException Si falla algo en la bd.
+     */
+    static <T> void forEach(DAOFactory daoFactory, String sql, Mapper<T> mapper,
+        Consumer<? super T> action) throws DAOException
+    {
+        try (
+            Connection connection = daoFactory.acquireReadConnection();
+            PreparedStatement statement = prepare(daoFactory, connection, sql);
+            ResultSet resultSet = statement.executeQuery();
+        ) {
+            while (resultSet.next()) {
+                action.accept(mapper.map(resultSet));
+            }
+        } catch (SQLException e) {
+            throw new DAOException(e);
+        }
+    }
+
+    /**
+     * Lanza la consulta dada y devuelve un Stream secuencial de las filas mapeadas. La conexión
+     * queda abierta hasta que se cierra el Stream, así que hay que cerrarlo siempre, por ejemplo
+     * con try-with-resources.
+     *
+     * @param daoFactory La DAOFactory de la que obtener la conexión.
+     * @param sql La consulta a lanzar.
+     * @param mapper El mapeador de cada fila.
+     * @return Un Stream de las filas, que hay que cerrar.
+     * @throws DAOException Si falla algo en la bd, también al recorrer el Stream.
+     */
+    static <T> Stream<T> stream(DAOFactory daoFactory, String sql, final Mapper<T> mapper)
+        throws DAOException
+    {
+        Connection connection = null;
+        PreparedStatement statement = null;
+
+        try {
+            connection = daoFactory.acquireReadConnection();
+            statement = prepare(daoFactory, connection, sql);
+            final ResultSet resultSet = statement.executeQuery();
+            final Connection openConnection = connection;
+            final PreparedStatement openStatement = statement;
+
+            Spliterator<T> rows = new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL)
+            {
+                @Override
+                public boolean tryAdvance(Consumer<? super T> action) {
+                    try {
+                        if (!resultSet.next()) {
+                            return false;
+                        }
+                        action.accept(mapper.map(resultSet));
+                        return true;
+                    } catch (SQLException e) {
+                        throw new DAOException(e);
+                    }
+                }
+            };
+
+            return StreamSupport.stream(rows, false).onClose(new Runnable() {
+                @Override
+                public void run() {
+                    close(openConnection, openStatement, resultSet);
+                }
+            });
+        } catch (SQLException e) {
+            close(connection, statement, null);
+            throw new DAOException(e);
+        }
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    /**
+     * Prepara la consulta dada como sólo avance y sólo lectura, con el fetch size de la DAOFactory.
+     */
+    private static PreparedStatement prepare(DAOFactory daoFactory, Connection connection,
+        String sql) throws SQLException
+    {
+        PreparedStatement statement = connection.prepareStatement(sql,
+            ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+
+        try {
+            statement.setFetchSize(daoFactory.getStreamFetchSize());
+        } catch (SQLException e) {
+            statement.close();
+            throw e;
+        }
+
+        return statement;
+    }
+
+    /**
+     * Cierra los recursos dados en orden inverso, aunque falle alguno.
+     */
+    private static void close(Connection connection, PreparedStatement statement, ResultSet resultSet) {
+        SQLException failure = null;
+
+        for (AutoCloseable resource : new AutoCloseable[] { resultSet, statement, connection }) {
+            if (resource == null) {
+                continue;
+            }
+            try {
+                resource.close();
+            } catch (Exception e) {
+                if (failure == null) {
+                    failure = (e instanceof SQLException) ? (SQLException) e : new SQLException(e);
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw new DAOException(failure);
+        }
+    }
+
+    // Inner classes ------------------------------------------------------------------------------
+
+    /**
+     * Mapea la fila actual de un ResultSet.
+     *
+     * @param <T> El tipo de la fila mapeada.
+     */
+    interface Mapper<T> {
+
+        /**
+         * Mapea la fila actual del ResultSet dado.
+         *
+         * @param resultSet El ResultSet posicionado en la fila a mapear.
+         * @return La fila mapeada.
+         * @throws SQLException Si falla algo en la bd.
+         */
+        T map(ResultSet resultSet) throws SQLException;
+    }
+
+}
@@ -0,0 +1,202 @@
+
+package es.trapasoft.jsf.dao;
+
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class binds database connections to the current thread for the duration of a unit of work,
+ * typically a HTTP request. While a unit of work is active, {@link DAOFactory#getConnection()}
+ * returns the same connection for every DAO call on the same factory; the connection is acquired
+ * lazily on the first call and released when the outermost unit of work ends. The connections
+ * handed to the DAO's ignore close(), so the DAO's can close them as usual.
+ *
+ * Use it through {@link DAOFactory#beginUnitOfWork()} and {@link DAOFactory#endUnitOfWork()}.
+ *
+ * @author alejandro
+ */
+final class UnitOfWork {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    private static final ThreadLocal<UnitOfWork> CURRENT = new ThreadLocal<UnitOfWork>();
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private final Map<DAOFactory, Binding> bindings = new IdentityHashMap<DAOFactory, Binding>(4);
+    private final Set<DAOFactory> used =
+        Collections.newSetFromMap(new IdentityHashMap<DAOFactory, Boolean>(4));
+    private int depth;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    private UnitOfWork() {
+        // Use begin() instead.
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Start a unit of work in the current thread, or join the one which is already active.
+     */
+    static void begin() {
+        UnitOfWork unit = CURRENT.get();
+
+        if (unit == null) {
+            unit = new UnitOfWork();
+            CURRENT.set(unit);
+        }
+
+        unit.depth++;
+    }
+
+    /**
+     * End the unit of work of the current thread. When this ends the outermost unit of work, all
+     * bound connections are closed, even if closing one of them fails.
+     * @throws DAOException If closing any of the bound connections fails.
+     */
+    static void end() throws DAOException {
+        UnitOfWork unit = CURRENT.get();
+
+        if (unit == null || --unit.depth > 0) {
+            return;
+        }
+
+        CURRENT.remove();
+        SQLException failure = null;
+
+        for (Binding binding : unit.bindings.values()) {
+            try {
+                binding.connection.close();
+            } catch (SQLException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.setNextException(e);
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw new DAOException(failure);
+        }
+    }
+
+    /**
+     * Returns the unit of work of the current thread, or null if there is none.
+     */
+    static UnitOfWork current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Returns the connection of the given factory bound to this unit of work, opening it first
+     * when necessary.
+     * @param factory The DAOFactory to return the bound connection for.
+     * @return A connection which ignores close().
+     * @throws SQLException If acquiring the connection fails.
+     */
+    Connection getConnection(DAOFactory factory) throws SQLException {
+        Binding binding = bindings.get(factory);
+
+        if (binding == null || binding.connection.isClosed()) {
+            binding = new Binding(factory.acquireConnection());
+            bindings.put(factory, binding);
+            used.add(factory);
+        }
+
+        return binding.proxy;
+    }
+
+    /**
+     * Release the connection of the given factory bound to this unit of work now, unless it is in
+     * a transaction. The next DAO call on the factory acquires a new one. The factory still counts
+     * as used by this unit of work, see {@link #isUsed(DAOFactory)}.
+     * @param factory The DAOFactory to release the bound connection of.
+     * @throws SQLException If releasing the connection fails.
+     */
+    void release(DAOFactory factory) throws SQLException {
+        Binding binding = bindings.get(factory);
+
+        if (binding != null && !binding.connection.isClosed() && binding.connection.getAutoCommit()) {
+            bindings.remove(factory);
+            binding.connection.close();
+        }
+    }
+
+    /**
+     * Returns true if a connection of the given factory is bound to this unit of work.
+     * @param factory The DAOFactory to check the bound connection for.
+     * @return True if a connection of the given factory is bound to this unit of work.
+     * @throws SQLException If checking the bound connection fails.
+     */
+    boolean isBound(DAOFactory factory) throws SQLException {
+        Binding binding = bindings.get(factory);
+        return binding != null && !binding.connection.isClosed();
+    }
+
+    /**
+     * Returns true if a connection of the given factory has been bound to this unit of work, even
+     * if it has been released since.
+     * @param factory The DAOFactory to check.
+     * @return True if this unit of work has used a connection of the given factory.
+     */
+    boolean isUsed(DAOFactory factory) {
+        return used.contains(factory);
+    }
+
+    // Inner classes ------------------------------------------------------------------------------
+
+    /**
+     * A connection bound to the unit of work with its close-ignoring proxy.
+     */
+    private static final class Binding implements InvocationHandler {
+        private final Connection connection;
+        private final Connection proxy;
+
+        Binding(Connection connection) {
+            this.connection = connection;
+            List<Class<?>> interfaces = new ArrayList<Class<?>>(3);
+            interfaces.add(Connection.class);
+            if (connection instanceof StatementCachingConnection) {
+                interfaces.add(StatementCachingConnection.class);
+            }
+            if (connection instanceof MonitoredConnection) {
+                interfaces.add(MonitoredConnection.class);
+            }
+            this.proxy = (Connection) Proxy.newProxyInstance(UnitOfWork.class.getClassLoader(),
+                interfaces.toArray(new Class<?>[interfaces.size()]), this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+
+            if ("close".equals(name)) {
+                return null;
+            } else if ("equals".equals(name)) {
+                return proxy == args[0];
+            } else if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            }
+
+            try {
+                return method.invoke(connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+}
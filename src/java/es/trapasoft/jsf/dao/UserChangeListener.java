@@ -0,0 +1,28 @@
+package es.trapasoft.jsf.dao;
+
+import es.trapasoft.jsf.models.User;
+import java.util.List;
+
+/**
+ * Recibe los cambios de usuarios hechos a través de los DAO de una DAOFactory, para mantener al
+ * día las estructuras en memoria que dependen de la tabla users.
+ *
+ * @author alejandro
+ */
+interface UserChangeListener {
+
+    /**
+     * Se llama tras crear o actualizar en la bd los usuarios dados, de uno en uno o por lotes.
+     *
+     * @param users Los usuarios creados o actualizados, ya con su ID.
+     */
+    void usersSaved(List<User> users);
+
+    /**
+     * Se llama tras borrar de la bd el usuario con el ID dado.
+     *
+     * @param id El ID del usuario borrado.
+     */
+    void userDeleted(Long id);
+
+}
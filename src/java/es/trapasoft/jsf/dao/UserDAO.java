@@ -8,6 +8,10 @@ package es.trapasoft.jsf.dao;
 import es.trapasoft.jsf.models.Project;
 import es.trapasoft.jsf.models.User;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 
 /**
@@ -32,10 +36,13 @@ public interface UserDAO {
 
     /**
      * Returns the user from the database matching the given email and password, otherwise null.
+     * The user is looked up by email only; the password is verified against its stored hash in
+     * the application.
      * @param email The email of the user to be returned.
-     * @param password The password of the user to be returned.
+     * @param password The plain password of the user to be returned.
      * @return The user from the database matching the given email and password, otherwise null.
-     * @throws DAOException If something fails at database level.
+     * @throws DAOException If something fails at database level, or if too many passwords are
+     * being verified at the same time.
      */
     public User find(String email, String password) throws DAOException;
 
@@ -47,6 +54,78 @@ public interface UserDAO {
      */
     public List<User> list() throws DAOException;
 
+    /**
+     * Returns a page of at most the given amount of users matching the given filters, in the given
+     * sort order, starting right after the given user. The position is found with the sort value
+     * and ID of the given user (keyset pagination), so the cost does not grow with the page
+     * number. Users with the same sort value are ordered by ID in the same direction.
+     * @param after The last user of the previous page, or null for the first page.
+     * @param limit The maximum amount of users to be returned.
+     * @param sortField The property to sort on, one of 'id', 'email', 'firstname', 'lastname' or
+     * 'birthdate'. Null sorts on ID.
+     * @param ascending Whether to sort ascending or descending.
+     * @param filters The properties 'email', 'firstname' or 'lastname' mapped to the value they
+     * must start with, case insensitive. May be null.
+     * @return A page of users, which is empty when there are no users after the given user.
+     * @throws IllegalArgumentException If the sort field or a filter property is not supported.
+     * @throws DAOException If something fails at database level.
+     */
+    public List<User> list(User after, int limit, String sortField, boolean ascending,
+        Map<String, String> filters) throws IllegalArgumentException, DAOException;
+
+    /**
+     * Returns a page of at most the given amount of users like {@link #list(User, int, String,
+     * boolean, Map)}, but starting at the given offset. Use this to jump to an arbitrary page only,
+     * as the database still has to walk over all skipped users.
+     * @param offset The amount of users to skip.
+     * @param limit The maximum amount of users to be returned.
+     * @param sortField The property to sort on, see {@link #list(User, int, String, boolean, Map)}.
+     * @param ascending Whether to sort ascending or descending.
+     * @param filters The filters, see {@link #list(User, int, String, boolean, Map)}.
+     * @return A page of users, which is empty when the offset is past the last user.
+     * @throws IllegalArgumentException If the sort field or a filter property is not supported.
+     * @throws DAOException If something fails at database level.
+     */
+    public List<User> list(int offset, int limit, String sortField, boolean ascending,
+        Map<String, String> filters) throws IllegalArgumentException, DAOException;
+
+    /**
+     * Returns the amount of users matching the given filters.
+     * @param filters The filters, see {@link #list(User, int, String, boolean, Map)}.
+     * @return The amount of users matching the given filters.
+     * @throws IllegalArgumentException If a filter property is not supported.
+     * @throws DAOException If something fails at database level.
+     */
+    public int count(Map<String, String> filters) throws IllegalArgumentException, DAOException;
+
+    /**
+     * Pass every user from the database, ordered by ID, to the given action. The users are read
+     * one by one with a forward-only cursor, so memory usage does not depend on the amount of
+     * users. The users are passed without their projects.
+     * @param action The action to be performed for each user.
+     * @throws DAOException If something fails at database level.
+     */
+    public void forEach(Consumer<User> action) throws DAOException;
+
+    /**
+     * Pass every user from the database like {@link #forEach(Consumer)}. When reuseRow is true,
+     * the same User instance is filled with every row and passed to the action, which must not
+     * keep a reference to it.
+     * @param action The action to be performed for each user.
+     * @param reuseRow Whether to pass the same User instance for every row.
+     * @throws DAOException If something fails at database level.
+     */
+    public void forEach(Consumer<User> action, boolean reuseRow) throws DAOException;
+
+    /**
+     * Returns a stream of every user from the database like {@link #forEach(Consumer)}. The stream
+     * holds a database connection until it is closed, so always close it, preferably with
+     * try-with-resources.
+     * @return A stream of every user from the database, which must be closed.
+     * @throws DAOException If something fails at database level, also while consuming the stream.
+     */
+    public Stream<User> stream() throws DAOException;
+
     /**
      * Create the given user in the database. The user ID must be null, otherwise it will throw
      * IllegalArgumentException. After creating, the DAO will set the obtained ID in the given user.
@@ -59,12 +138,37 @@ public interface UserDAO {
     /**
      * Update the given user in the database. The user ID must not be null, otherwise it will throw
      * IllegalArgumentException. Note: the password will NOT be updated. Use changePassword() instead.
+     * Only the columns changed since the user was loaded or saved are written, see
+     * {@link User#getDirtyFields()}, and nothing at all when none has changed.
      * @param user The user to be updated in the database.
      * @throws IllegalArgumentException If the user ID is null.
      * @throws DAOException If something fails at database level.
      */
     public void update(User user) throws IllegalArgumentException, DAOException;
 
+    /**
+     * Create the given users in the database using batches of the configured batch size, each
+     * committed on its own. The user IDs must be null, otherwise it will throw
+     * IllegalArgumentException before anything is created. After creating, the DAO will set the
+     * obtained ID in each given user. If a batch fails, the users of the previous batches are
+     * created and have their ID set, the others are not.
+     * @param users The users to be created in the database.
+     * @throws IllegalArgumentException If any user ID is not null.
+     * @throws DAOException If something fails at database level.
+     */
+    public void createAll(List<User> users) throws IllegalArgumentException, DAOException;
+
+    /**
+     * Update the given users in the database using batches of the configured batch size, each
+     * committed on its own. The user IDs must not be null, otherwise it will throw
+     * IllegalArgumentException before anything is updated. Note: the passwords will NOT be updated.
+     * Unchanged users are skipped, and the others get the columns changed in any of them written.
+     * @param users The users to be updated in the database.
+     * @throws IllegalArgumentException If any user ID is null.
+     * @throws DAOException If something fails at database level.
+     */
+    public void updateAll(List<User> users) throws IllegalArgumentException, DAOException;
+
     /**
      * Delete the given user from the database. After deleting, the DAO will set the ID of the given
      * user to null.
@@ -115,4 +219,17 @@ public interface UserDAO {
      */
     public void delProjectFromUser(Long userId, Long projectId) throws DAOException;
 
+    /**
+     * Deja asignados al usuario con el ID dado exactamente los proyectos con los IDs dados: quita
+     * los que sobran y añade los que faltan, con como mucho un lote de delete y uno de insert en
+     * una sola transacción. Los que ya estaban asignados no se tocan.
+     * @param userId El ID del usuario.
+     * @param projectIds Los IDs de los proyectos que ha de tener asignados, vacío para ninguno.
+     * @throws IllegalArgumentException Si el ID, el conjunto o alguno de sus IDs es nulo.
+     * @throws DAOException Si el usuario no existe o falla algo en la bd; en ese caso no se cambia
+     * ninguna asignación.
+     */
+    public void setUserProjects(Long userId, Set<Long> projectIds)
+        throws IllegalArgumentException, DAOException;
+
 }
@@ -1,6 +1,10 @@
 package es.trapasoft.jsf.dao;
 
+import static es.trapasoft.jsf.dao.AssociationLoader.fetchProjects;
+import static es.trapasoft.jsf.dao.AssociationLoader.fetchUsers;
 import static es.trapasoft.jsf.dao.DAOUtil.*;
+import static es.trapasoft.jsf.dao.RowMapper.PROJECT;
+import static es.trapasoft.jsf.dao.RowMapper.USER;
 import es.trapasoft.jsf.models.Project;
 import es.trapasoft.jsf.models.User;
 
@@ -8,8 +12,16 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -23,31 +35,56 @@ import java.util.logging.Logger;
 public class UserDAOJDBC implements UserDAO {
 
     // Constants ----------------------------------------------------------------------------------
-    private static final String SQL_FIND_BY_ID
-            = "SELECT id, email, firstname, lastname, birthdate FROM users WHERE id = ?";
-    private static final String SQL_FIND_BY_EMAIL_AND_PASSWORD
-            = "SELECT id, email, firstname, lastname, birthdate FROM users WHERE email = ? AND password = MD5(?)";
-    private static final String SQL_FIND_PROJECT_BY_USER_ID
-            = "select p.id, p.name, p.description, p.startDate, p.dueDate, p.estimatedHours from projects p, projects_users pu where p.id=pu.project_id and pu.user_id = ?";
+    private static final SqlQuery SQL_FIND_BY_ID = new SqlQuery(
+            "SELECT " + USER.columns() + " FROM users WHERE id = ?",
+            Types.BIGINT);
+    private static final SqlQuery SQL_FIND_BY_EMAIL = new SqlQuery(
+            "SELECT " + USER.columns() + ", password FROM users WHERE email = ?",
+            Types.VARCHAR);
+    private static final SqlQuery SQL_FIND_PROJECT_BY_USER_ID = new SqlQuery(
+            "select " + PROJECT.columns("p") + " from projects p join projects_users pu on p.id = pu.project_id where pu.user_id = ?",
+            Types.BIGINT);
     private static final String SQL_LIST_ORDER_BY_ID
-            = "SELECT id, email, firstname, lastname, birthdate FROM users ORDER BY id";
-    private static final String SQL_INSERT
-            = "INSERT INTO users (email, password, firstname, lastname, birthdate) VALUES (?, MD5(?), ?, ?, ?)";
-    private static final String SQL_UPDATE
-            = "UPDATE users SET email = ?, firstname = ?, lastname = ?, birthdate = ? WHERE id = ?";
-    private static final String SQL_DELETE
-            = "DELETE FROM users WHERE id = ?";
-    private static final String SQL_EXIST_EMAIL
-            = "SELECT id FROM users WHERE email = ?";
-    private static final String SQL_CHANGE_PASSWORD
-            = "UPDATE users SET password = MD5(?) WHERE id = ?";
-    private static final String SQL_ADD_PROJECT_TO_USER
-            = "insert into projects_users (user_id, project_id) values (?, ?)";
-    private static final String SQL_DEL_PROJECT_FROM_USER
-            = " delete from projects_users where user_id = ? and project_id = ?";
+            = "SELECT " + USER.columns() + " FROM users ORDER BY id";
+    private static final String SQL_LIST_PAGE
+            = "SELECT " + USER.columns() + " FROM users";
+    private static final String SQL_SCAN
+            = "SELECT " + USER.columns() + " FROM users ORDER BY id";
+    private static final String SQL_COUNT
+            = "SELECT count(*) FROM users";
+    private static final SqlQuery SQL_INSERT = new SqlQuery(
+            "INSERT INTO users (email, password, firstname, lastname, birthdate) VALUES (?, ?, ?, ?, ?)",
+            Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.DATE);
+    /** The columns of User.FIELD_EMAIL, FIELD_FIRSTNAME, FIELD_LASTNAME and FIELD_BIRTHDATE. */
+    private static final PartialUpdate SQL_UPDATE = new PartialUpdate("users",
+            new String[] { "email", "firstname", "lastname", "birthdate" },
+            Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.DATE);
+    private static final SqlQuery SQL_DELETE = new SqlQuery(
+            "DELETE FROM users WHERE id = ?",
+            Types.BIGINT);
+    private static final SqlQuery SQL_EXIST_EMAIL = new SqlQuery(
+            "SELECT id FROM users WHERE email = ?",
+            Types.VARCHAR);
+    private static final SqlQuery SQL_CHANGE_PASSWORD = new SqlQuery(
+            "UPDATE users SET password = ? WHERE id = ?",
+            Types.VARCHAR, Types.BIGINT);
+    private static final SqlQuery SQL_ADD_PROJECT_TO_USER = new SqlQuery(
+            "insert into projects_users (user_id, project_id) values (?, ?)",
+            Types.BIGINT, Types.BIGINT);
+    private static final SqlQuery SQL_DEL_PROJECT_FROM_USER = new SqlQuery(
+            " delete from projects_users where user_id = ? and project_id = ?",
+            Types.BIGINT, Types.BIGINT);
+
+    private static final Set<String> SORTABLE_COLUMNS = new HashSet<String>(
+            Arrays.asList("id", "email", "firstname", "lastname", "birthdate"));
+    private static final Set<String> FILTERABLE_COLUMNS = new HashSet<String>(
+            Arrays.asList("email", "firstname", "lastname"));
+
+    private static final Logger LOG = Logger.getLogger(UserDAOJDBC.class.getName());
 
     // Vars ---------------------------------------------------------------------------------------
     private DAOFactory daoFactory;
+    private FetchMode fetchMode;
 
     // Constructors -------------------------------------------------------------------------------
     /**
@@ -55,9 +92,11 @@ public class UserDAOJDBC implements UserDAO {
      * it can be constructed inside the DAO package only.
      *
      * @param daoFactory The DAOFactory to construct this User DAO for.
+     * @param fetchMode The way this DAO fills the associations of the returned models.
      */
-    UserDAOJDBC(DAOFactory daoFactory) {
+    UserDAOJDBC(DAOFactory daoFactory, FetchMode fetchMode) {
         this.daoFactory = daoFactory;
+        this.fetchMode = fetchMode;
     }
 
     // Actions ------------------------------------------------------------------------------------
@@ -68,28 +107,97 @@ public class UserDAOJDBC implements UserDAO {
 
     @Override
     public User find(String email, String password) throws DAOException {
-        return find(SQL_FIND_BY_EMAIL_AND_PASSWORD, email, password);
+        if (email == null || password == null) {
+            return null;
+        }
+
+        User user = null;
+        String stored = null;
+
+        // Only the lookup by email goes to the database.
+        try (
+            Connection connection = daoFactory.getReadConnection();
+            PreparedStatement statement = prepareStatement(connection, SQL_FIND_BY_EMAIL, false, email);
+            ResultSet resultSet = statement.executeQuery();
+        ) {
+            if (resultSet.next()) {
+                user = USER.map(resultSet);
+                stored = resultSet.getString("password");
+            }
+        } catch (SQLException e) {
+            throw new DAOException(e);
+        }
+
+        // The request's unit of work would keep the connection while the login waits for the
+        // hashing pool, so hand it back to the pool before hashing.
+        try {
+            daoFactory.releaseConnection();
+        } catch (SQLException e) {
+            throw new DAOException(e);
+        }
+
+        PasswordHasher hasher = daoFactory.getPasswordHasher();
+
+        if (user == null) {
+            // Hash anyway, so that an unknown email takes as long as a wrong password.
+            hasher.verifyDummy(password);
+            return null;
+        }
+
+        if (!hasher.verify(password, stored)) {
+            return null;
+        }
+
+        if (hasher.needsRehash(stored)) {
+            rehash(user, password);
+        }
+
+        try (Connection connection = daoFactory.getReadConnection()) {
+            fetchProjects(daoFactory, fetchMode, connection, Collections.singletonList(user));
+        } catch (SQLException e) {
+            throw new DAOException(e);
+        }
+
+        return user;
+    }
+
+    /**
+     * Store a new hash of the given verified password of the given user, replacing a legacy MD5 or
+     * outdated hash. A failure is only logged, the login itself has succeeded.
+     */
+    private void rehash(User user, String password) {
+        try (
+            Connection connection = daoFactory.getConnection();
+            PreparedStatement statement = prepareStatement(connection, SQL_CHANGE_PASSWORD, false,
+                daoFactory.getPasswordHasher().hash(password), user.getId());
+        ) {
+            statement.executeUpdate();
+        } catch (SQLException | DAOException e) {
+            LOG.log(Level.WARNING, "Cannot rehash the password of user " + user.getId() + ".", e);
+        }
     }
 
     /**
      * Returns the user from the database matching the given SQL query with the
      * given values.
      *
-     * @param sql The SQL query to be executed in the database.
+     * @param query The SQL query to be executed in the database.
      * @param values The PreparedStatement values to be set.
      * @return The user from the database matching the given SQL query with the
      * given values.
      * @throws DAOException If something fails at database level.
      */
-    private User find(String sql, Object... values) throws DAOException {
+    private User find(SqlQuery query, Object... values) throws DAOException {
         User user = null;
 
-        try {
-            Connection connection = daoFactory.getConnection();
-            PreparedStatement statement = prepareStatement(connection, sql, false, values);
+        try (
+            Connection connection = daoFactory.getReadConnection();
+            PreparedStatement statement = prepareStatement(connection, query, false, values);
             ResultSet resultSet = statement.executeQuery();
+        ) {
             if (resultSet.next()) {
-                user = map(resultSet);
+                user = USER.map(resultSet);
+                fetchProjects(daoFactory, fetchMode, connection, Collections.singletonList(user));
             }
         } catch (SQLException e) {
             throw new DAOException(e);
@@ -99,16 +207,86 @@ public class UserDAOJDBC implements UserDAO {
     }
 
     @Override
-    public List list() throws DAOException {
+    public List<User> list() throws DAOException {
+        return list(SQL_LIST_ORDER_BY_ID);
+    }
+
+    @Override
+    public List<User> list(User after, int limit, String sortField, boolean ascending,
+        Map<String, String> filters) throws IllegalArgumentException, DAOException
+    {
+        String column = sortColumn(sortField);
+        List<Object> values = new ArrayList<Object>();
+        List<String> conditions = filterConditions(filters, values);
+
+        if (after != null) {
+            conditions.add(keysetCondition(column, ascending, after, values));
+        }
+
+        StringBuilder sql = new StringBuilder(SQL_LIST_PAGE);
+        appendWhere(sql, conditions);
+        appendOrderBy(sql, column, ascending);
+        sql.append(" LIMIT ?");
+        values.add(limit);
+
+        return list(sql.toString(), values.toArray());
+    }
+
+    @Override
+    public List<User> list(int offset, int limit, String sortField, boolean ascending,
+        Map<String, String> filters) throws IllegalArgumentException, DAOException
+    {
+        String column = sortColumn(sortField);
+        List<Object> values = new ArrayList<Object>();
+        List<String> conditions = filterConditions(filters, values);
+
+        StringBuilder sql = new StringBuilder(SQL_LIST_PAGE);
+        appendWhere(sql, conditions);
+        appendOrderBy(sql, column, ascending);
+        sql.append(" LIMIT ? OFFSET ?");
+        values.add(limit);
+        values.add(offset);
+
+        return list(sql.toString(), values.toArray());
+    }
+
+    @Override
+    public int count(Map<String, String> filters) throws IllegalArgumentException, DAOException {
+        List<Object> values = new ArrayList<Object>();
+        StringBuilder sql = new StringBuilder(SQL_COUNT);
+        appendWhere(sql, filterConditions(filters, values));
+
+        try (
+            Connection connection = daoFactory.getReadConnection();
+            PreparedStatement statement = prepareStatement(connection, sql.toString(), false, values.toArray());
+            ResultSet resultSet = statement.executeQuery();
+        ) {
+            return resultSet.next() ? resultSet.getInt(1) : 0;
+        } catch (SQLException e) {
+            throw new DAOException(e);
+        }
+    }
+
+    /**
+     * Returns the users from the database matching the given SQL query with the given values.
+     *
+     * @param sql The SQL query to be executed in the database.
+     * @param values The PreparedStatement values to be set.
+     * @return The users from the database matching the given SQL query with the given values.
+     * @throws DAOException If something fails at database level.
+     */
+    private List<User> list(String sql, Object... values) throws DAOException {
         List<User> users = new ArrayList<User>();
 
-        try {
-            Connection connection = daoFactory.getConnection();
-            PreparedStatement statement = connection.prepareStatement(SQL_LIST_ORDER_BY_ID);
+        try (
+            Connection connection = daoFactory.getReadConnection();
+            PreparedStatement statement = prepareStatement(connection, sql, false, values);
             ResultSet resultSet = statement.executeQuery();
+        ) {
             while (resultSet.next()) {
-                users.add(map(resultSet));
+                users.add(USER.map(resultSet));
             }
+            fetchProjects(daoFactory, fetchMode, connection, users);
         } catch (SQLException e) {
             throw new DAOException(e);
         }
@@ -116,6 +294,21 @@ public class UserDAOJDBC implements UserDAO {
         return users;
     }
 
+    @Override
+    public void forEach(Consumer<User> action) throws DAOException {
+        forEach(action, false);
+    }
+
+    @Override
+    public void forEach(Consumer<User> action, boolean reuseRow) throws DAOException {
+        StreamingQuery.forEach(daoFactory, SQL_SCAN, reuseRow ? USER.reusing() : USER, action);
+    }
+
+    @Override
+    public Stream<User> stream() throws DAOException {
+        return StreamingQuery.stream(daoFactory, SQL_SCAN, USER);
+    }
+
     @Override
     public void create(User user) throws IllegalArgumentException, DAOException {
         if (user.getId() != null) {
@@ -124,28 +317,74 @@ public class UserDAOJDBC implements UserDAO {
 
         Object[] values = {
             user.getEmail(),
-            user.getPassword(),
+            daoFactory.getPasswordHasher().hash(user.getPassword()),
             user.getFirstname(),
             user.getLastname(),
             toSqlDate(user.getBirthdate())
         };
 
-        try {
+        try (
             Connection connection = daoFactory.getConnection();
             PreparedStatement statement = prepareStatement(connection, SQL_INSERT, true, values);
+        ) {
             int affectedRows = statement.executeUpdate();
             if (affectedRows == 0) {
                 throw new DAOException("Creating user failed, no rows affected.");
             }
 
-            ResultSet generatedKeys = statement.getGeneratedKeys();
+            try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
+                if (generatedKeys.next()) {
+                    user.setId(generatedKeys.getLong(1));
+                } else {
+                    throw new DAOException("Creating user failed, no generated key obtained.");
+                }
+            }
+        } catch (SQLException e) {
+            throw new DAOException(e);
+        }
+        user.markClean();
+        daoFactory.fireUsersSaved(Collections.singletonList(user));
+    }
+
+    @Override
+    public void createAll(final List<User> users) throws IllegalArgumentException, DAOException {
+        List<Object[]> rows = new ArrayList<Object[]>(users.size());
+        List<String> passwords = new ArrayList<String>(users.size());
 
-            if (generatedKeys.next()) {
-                user.setId(generatedKeys.getLong(1));
-            } else {
-                throw new DAOException("Creating user failed, no generated key obtained.");
+        for (User user : users) {
+            if (user.getId() != null) {
+                throw new IllegalArgumentException("User is already created, the user ID is not null.");
             }
+            passwords.add(user.getPassword());
+        }
+
+        List<String> hashes = daoFactory.getPasswordHasher().hashAll(passwords);
+
+        for (int i = 0; i < users.size(); i++) {
+            User user = users.get(i);
+            rows.add(new Object[] {
+                user.getEmail(),
+                hashes.get(i),
+                user.getFirstname(),
+                user.getLastname(),
+                toSqlDate(user.getBirthdate())
+            });
+        }
 
+        final long[] ids = new long[users.size()];
+
+        try (Connection connection = daoFactory.getConnection()) {
+            BatchUpdate.execute(connection, SQL_INSERT, rows, daoFactory.getBatchSize(), ids,
+                new BatchUpdate.Callback() {
+                    @Override
+                    public void executed(int from, int to) {
+                        for (int i = from; i < to; i++) {
+                            users.get(i).setId(ids[i]);
+                            users.get(i).markClean();
+                        }
+                        daoFactory.fireUsersSaved(users.subList(from, to));
+                    }
+                });
         } catch (SQLException e) {
             throw new DAOException(e);
         }
@@ -157,17 +396,18 @@ public class UserDAOJDBC implements UserDAO {
             throw new IllegalArgumentException("User is not created yet, the user ID is null.");
         }
 
-        Object[] values = {
-            user.getEmail(),
-            user.getFirstname(),
-            user.getLastname(),
-            toSqlDate(user.getBirthdate()),
-            user.getId()
-        };
+        // Only the changed columns are written, and nothing at all when none has changed.
+        int changed = user.getDirtyFields() & SQL_UPDATE.getAllColumns();
+        if (changed == 0) {
+            return;
+        }
 
-        try {
-                Connection connection = daoFactory.getConnection();
-                PreparedStatement statement = prepareStatement(connection, SQL_UPDATE, false, values);
+        Object[] values = SQL_UPDATE.values(changed, updateValues(user), user.getId());
+
+        try (
+            Connection connection = daoFactory.getConnection();
+            PreparedStatement statement = prepareStatement(connection, SQL_UPDATE.query(changed), false, values);
+        ) {
             int affectedRows = statement.executeUpdate();
             if (affectedRows == 0) {
                 throw new DAOException("Updating user failed, no rows affected.");
@@ -175,17 +415,63 @@ public class UserDAOJDBC implements UserDAO {
         } catch (SQLException e) {
             throw new DAOException(e);
         }
+        user.markClean();
+        daoFactory.fireUsersSaved(Collections.singletonList(user));
+    }
+
+    @Override
+    public void updateAll(List<User> users) throws IllegalArgumentException, DAOException {
+        // A batch has a single statement, so it sets the columns changed in any of the users.
+        final List<User> dirtyUsers = new ArrayList<User>(users.size());
+        int changed = 0;
+
+        for (User user : users) {
+            if (user.getId() == null) {
+                throw new IllegalArgumentException("User is not created yet, the user ID is null.");
+            }
+            int userChanged = user.getDirtyFields() & SQL_UPDATE.getAllColumns();
+            if (userChanged != 0) {
+                dirtyUsers.add(user);
+                changed |= userChanged;
+            }
+        }
+
+        if (dirtyUsers.isEmpty()) {
+            return;
+        }
+
+        List<Object[]> rows = new ArrayList<Object[]>(dirtyUsers.size());
+        for (User user : dirtyUsers) {
+            rows.add(SQL_UPDATE.values(changed, updateValues(user), user.getId()));
+        }
+
+        try (Connection connection = daoFactory.getConnection()) {
+            BatchUpdate.execute(connection, SQL_UPDATE.query(changed), rows,
+                daoFactory.getBatchSize(), null, new BatchUpdate.Callback() {
+                    @Override
+                    public void executed(int from, int to) {
+                        for (User user : dirtyUsers.subList(from, to)) {
+                            user.markClean();
+                        }
+                        daoFactory.fireUsersSaved(dirtyUsers.subList(from, to));
+                    }
+                });
+        } catch (SQLException e) {
+            throw new DAOException(e);
+        }
     }
 
     @Override
     public void delete(User user) throws DAOException {
+        Long id = user.getId();
         Object[] values = {
-            user.getId()
+            id
         };
 
-        try {
-                Connection connection = daoFactory.getConnection();
-                PreparedStatement statement = prepareStatement(connection, SQL_DELETE, false, values);
+        try (
+            Connection connection = daoFactory.getConnection();
+            PreparedStatement statement = prepareStatement(connection, SQL_DELETE, false, values);
+        ) {
             int affectedRows = statement.executeUpdate();
             if (affectedRows == 0) {
                 throw new DAOException("Deleting user failed, no rows affected.");
@@ -195,20 +481,38 @@ public class UserDAOJDBC implements UserDAO {
         } catch (SQLException e) {
             throw new DAOException(e);
         }
+        daoFactory.fireUserDeleted(id);
     }
 
     @Override
     public boolean existEmail(String email) throws DAOException {
+        EmailFilter filter = daoFactory.getEmailFilter();
+        if (filter != null && !filter.mightContain(email)) {
+            return false;
+        }
+
+        return existEmailInDatabase(email);
+    }
+
+    /**
+     * Returns true if the given email exists in the database, without asking the email filter
+     * first. Package private so that the DAOFactory can prime its statement.
+     * @param email The email to check.
+     * @return True if the given email exists in the database.
+     * @throws DAOException If something fails at database level.
+     */
+    boolean existEmailInDatabase(String email) throws DAOException {
         Object[] values = {
             email
         };
 
         boolean exist = false;
 
-        try {
-                Connection connection = daoFactory.getConnection();
-                PreparedStatement statement = prepareStatement(connection, SQL_EXIST_EMAIL, false, values);
-                ResultSet resultSet = statement.executeQuery();
+        try (
+            Connection connection = daoFactory.getReadConnection();
+            PreparedStatement statement = prepareStatement(connection, SQL_EXIST_EMAIL, false, values);
+            ResultSet resultSet = statement.executeQuery();
+        ) {
             exist = resultSet.next();
         } catch (SQLException e) {
             throw new DAOException(e);
@@ -224,13 +528,14 @@ public class UserDAOJDBC implements UserDAO {
         }
 
         Object[] values = {
-            user.getPassword(),
+            daoFactory.getPasswordHasher().hash(user.getPassword()),
             user.getId()
         };
 
-        try {
-                Connection connection = daoFactory.getConnection();
-                PreparedStatement statement = prepareStatement(connection, SQL_CHANGE_PASSWORD, false, values);
+        try (
+            Connection connection = daoFactory.getConnection();
+            PreparedStatement statement = prepareStatement(connection, SQL_CHANGE_PASSWORD, false, values);
+        ) {
             int affectedRows = statement.executeUpdate();
             if (affectedRows == 0) {
                 throw new DAOException("Changing password failed, no rows affected.");
@@ -242,42 +547,137 @@ public class UserDAOJDBC implements UserDAO {
 
     // Helpers ------------------------------------------------------------------------------------
     /**
-     * Map the current row of the given ResultSet to an User.
-     *
-     * @param resultSet The ResultSet of which the current row is to be mapped
-     * to an User.
-     * @return The mapped User from the current row of the given ResultSet.
-     * @throws SQLException If something fails at database level.
+     * Returns the values of all columns of SQL_UPDATE of the given user, in their order.
      */
-    private static User map(ResultSet resultSet) throws SQLException {
-        User user = new User();
-        user.setId(resultSet.getLong("id"));
-        user.setEmail(resultSet.getString("email"));
-        user.setFirstname(resultSet.getString("firstname"));
-        user.setLastname(resultSet.getString("lastname"));
-        user.setBirthdate(resultSet.getDate("birthdate"));
-        return user;
+    private static Object[] updateValues(User user) {
+        return new Object[] {
+            user.getEmail(),
+            user.getFirstname(),
+            user.getLastname(),
+            toSqlDate(user.getBirthdate())
+        };
+    }
+
+    /**
+     * Returns the column to sort on for the given sort field. Null means the ID.
+     */
+    private static String sortColumn(String sortField) throws IllegalArgumentException {
+        if (sortField == null) {
+            return "id";
+        }
+        if (!SORTABLE_COLUMNS.contains(sortField)) {
+            throw new IllegalArgumentException("Cannot sort users on '" + sortField + "'.");
+        }
+        return sortField;
+    }
+
+    /**
+     * Returns a "column LIKE ?" condition for each of the given filters, and adds their values to
+     * the given list. The values are matched as prefix, so that an index on the column can be used.
+     */
+    private static List<String> filterConditions(Map<String, String> filters, List<Object> values)
+        throws IllegalArgumentException
+    {
+        List<String> conditions = new ArrayList<String>();
+
+        if (filters == null) {
+            return conditions;
+        }
+
+        for (Map.Entry<String, String> filter : filters.entrySet()) {
+            if (!FILTERABLE_COLUMNS.contains(filter.getKey())) {
+                throw new IllegalArgumentException("Cannot filter users on '" + filter.getKey() + "'.");
+            }
+            if (filter.getValue() == null || filter.getValue().isEmpty()) {
+                continue;
+            }
+            conditions.add(filter.getKey() + " LIKE ?");
+            values.add(filter.getValue().replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%");
+        }
+
+        return conditions;
+    }
+
+    /**
+     * Returns the condition which selects the users after the given user in the sort order on the
+     * given column and ID, and adds its values to the given list. MySQL sorts NULL values first in
+     * ascending order and last in descending order.
+     */
+    private static String keysetCondition(String column, boolean ascending, User after,
+        List<Object> values)
+    {
+        String greater = ascending ? " > ?" : " < ?";
+
+        if ("id".equals(column)) {
+            values.add(after.getId());
+            return "id" + greater;
+        }
+
+        Object value = sortValue(after, column);
+
+        if (value == null) {
+            values.add(after.getId());
+            return ascending
+                ? "((" + column + " IS NULL AND id > ?) OR " + column + " IS NOT NULL)"
+                : "(" + column + " IS NULL AND id < ?)";
+        }
+
+        values.add(value);
+        values.add(value);
+        values.add(after.getId());
+        return "(" + column + greater + " OR (" + column + " = ? AND id" + greater + ")"
+            + (ascending ? "" : " OR " + column + " IS NULL") + ")";
+    }
+
+    /**
+     * Returns the value of the given sort column of the given user.
+     */
+    private static Object sortValue(User user, String column) {
+        switch (column) {
+            case "email": return user.getEmail();
+            case "firstname": return user.getFirstname();
+            case "lastname": return user.getLastname();
+            case "birthdate": return toSqlDate(user.getBirthdate());
+            default: return user.getId();
+        }
+    }
+
+    /**
+     * Append the given conditions as WHERE clause to the given SQL query.
+     */
+    private static void appendWhere(StringBuilder sql, List<String> conditions) {
+        for (int i = 0; i < conditions.size(); i++) {
+            sql.append(i == 0 ? " WHERE " : " AND ").append(conditions.get(i));
+        }
+    }
+
+    /**
+     * Append the ORDER BY clause on the given column and ID to the given SQL query.
+     */
+    private static void appendOrderBy(StringBuilder sql, String column, boolean ascending) {
+        String direction = ascending ? " ASC" : " DESC";
+        sql.append(" ORDER BY ").append(column).append(direction);
+        if (!"id".equals(column)) {
+            sql.append(", id").append(direction);
+        }
     }
 
     @Override
     public List<Project> findProjectsByUserId(Long id) throws DAOException {
         List<Project> projects = new ArrayList<Project>();
-        try {
-            Connection connection = daoFactory.getConnection();
-            PreparedStatement ps = prepareStatement(connection, SQL_FIND_PROJECT_BY_USER_ID, false, id);
+        if (id == null) {
+            return projects;
+        }
+
+        try (
+            Connection connection = daoFactory.getReadConnection();
+            PreparedStatement ps = prepareStatement(connection, SQL_FIND_PROJECT_BY_USER_ID, id.longValue());
             ResultSet rs = ps.executeQuery();
+        ) {
             while (rs.next()) {
-                Project p = new Project();
-                p.setId(rs.getLong("p.id"));
-                p.setName(rs.getString("p.name"));
-                p.setDescription(rs.getString("p.description"));
-                p.setStartDate(rs.getDate("p.startDate"));
-                p.setDueDate(rs.getDate("p.dueDate"));
-                p.setEstimatedHours(rs.getLong("p.estimatedHours"));
-                ProjectDAOJDBC pdao = new ProjectDAOJDBC(daoFactory);
-                p.setUsers(pdao.findUsersByProjectId(p.getId()));
-                projects.add(p);
+                projects.add(PROJECT.map(rs));
             }
+            fetchUsers(daoFactory, fetchMode, connection, projects);
         } catch (SQLException ex) {
             Logger.getLogger(ProjectDAOJDBC.class.getName()).log(Level.SEVERE, null, ex);
             throw new DAOException(ex);
@@ -292,9 +692,10 @@ public class UserDAOJDBC implements UserDAO {
             projectId
         };
 
-        try {
+        try (
             Connection connection = daoFactory.getConnection();
             PreparedStatement statement = prepareStatement(connection, SQL_ADD_PROJECT_TO_USER, false, values);
+        ) {
             int affectedRows = statement.executeUpdate();
             if (affectedRows == 0) {
                 throw new DAOException("Error al añadir usuario al proyecto. No se actualiza ninguna fila.");
@@ -311,9 +712,10 @@ public class UserDAOJDBC implements UserDAO {
             projectId
         };
 
-        try {
+        try (
             Connection connection = daoFactory.getConnection();
             PreparedStatement statement = prepareStatement(connection, SQL_DEL_PROJECT_FROM_USER, false, values);
+        ) {
             int affectedRows = statement.executeUpdate();
             if (affectedRows == 0) {
                 throw new DAOException("Error al eliminar usuario del proyecto. No se actualiza ninguna fila.");
@@ -323,4 +725,11 @@ public class UserDAOJDBC implements UserDAO {
         }
     }
 
+    @Override
+    public void setUserProjects(Long userId, Set<Long> projectIds)
+        throws IllegalArgumentException, DAOException
+    {
+        MembershipSync.USER_PROJECTS.replace(daoFactory, userId, projectIds);
+    }
+
 }
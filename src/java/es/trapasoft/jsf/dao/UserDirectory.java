@@ -0,0 +1,470 @@
+package es.trapasoft.jsf.dao;
+
+import static es.trapasoft.jsf.dao.RowMapper.USER;
+
+import es.trapasoft.jsf.models.Project;
+import es.trapasoft.jsf.models.User;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Copia en memoria de la tabla users, sin las contraseñas, compartida por todas las sesiones de la
+ * aplicación: en lugar de que cada sesión lea y guarde su propia lista de usuarios, todas leen de
+ * la misma instantánea inmutable, y una sesión sólo guarda la referencia. Se carga entera una vez
+ * con una sola consulta y después se mantiene al día con los create, update y delete de los UserDAO
+ * de la misma DAOFactory, sin volver a leer la tabla.
+ *
+ * Las lecturas no se bloquean nunca; cada cambio copia el array de usuarios con el cambio hecho y
+ * publica la copia (copy-on-write). Las listas ordenadas de cada campo se calculan la primera vez
+ * que se piden y se guardan en la instantánea, así que también se comparten entre sesiones. Los
+ * usuarios de {@link #list(String, boolean, Map)} son los compartidos: no se deben modificar, sólo
+ * pintar. {@link #find(Long)} devuelve en cambio una copia propia, que se puede modificar sin
+ * cambiar el directorio ni lo que ven las demás sesiones, por ejemplo al seleccionar una fila de
+ * la tabla y editarla en el formulario. Los cambios hechos por otras aplicaciones, o por otros
+ * nodos del cluster, se ven tras {@link #refresh()}, que se hace también en segundo plano cada
+ * cierto tiempo; los de una transacción que luego se deshace se quedan hasta entonces.
+ *
+ * @author alejandro
+ */
+public final class UserDirectory implements UserChangeListener {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    private static final Logger LOG = Logger.getLogger(UserDirectory.class.getName());
+
+    private static final String SQL_LIST = "SELECT " + USER.columns() + " FROM users ORDER BY id";
+
+    private static final Set<String> SORTABLE_FIELDS = new HashSet<String>(
+            Arrays.asList("id", "email", "firstname", "lastname", "birthdate"));
+    private static final Set<String> FILTERABLE_FIELDS = new HashSet<String>(
+            Arrays.asList("email", "firstname", "lastname"));
+
+    private static final Comparator<User> BY_ID = new Comparator<User>() {
+        @Override
+        public int compare(User left, User right) {
+            return left.getId().compareTo(right.getId());
+        }
+    };
+
+    private static final AtomicInteger REFRESHER_COUNT = new AtomicInteger();
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private final DAOFactory daoFactory;
+    private final ScheduledExecutorService refresher;
+    private final Object refreshLock = new Object();
+    private volatile Snapshot snapshot;
+    private List<Change> pending;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    /**
+     * Construye el directorio de la DAOFactory dada y programa su recarga, pero no lo carga: la
+     * DAOFactory lo registra para recibir los cambios de los UserDAO antes de llamar a
+     * {@link #refresh()}, para no perder los que se hagan durante la carga. Package private, se
+     * obtiene con {@link DAOFactory#getUserDirectory()}.
+     *
+     * @param daoFactory La DAOFactory de la que leer los usuarios.
+     * @param refreshInterval Los milisegundos entre recargas, o 0 para no recargar.
+     */
+    UserDirectory(DAOFactory daoFactory, long refreshInterval) {
+        this.daoFactory = daoFactory;
+
+        if (refreshInterval > 0) {
+            refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable,
+                        "dao-user-directory-" + REFRESHER_COUNT.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            refresher.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        refresh();
+                    } catch (DAOException e) {
+                        LOG.log(Level.WARNING, "Cannot refresh user directory, keeping the old one.", e);
+                    }
+                }
+            }, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+        } else {
+            refresher = null;
+        }
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Vuelve a cargar la tabla entera de la bd, por ejemplo tras cambios hechos por otras
+     * aplicaciones. Mientras tanto la instantánea anterior sigue contestando; los cambios que
+     * llegan entre medias se aplican a ella y se guardan para aplicarlos otra vez sobre lo cargado,
+     * que puede haberse leído antes o después de cada uno.
+     *
+     * @throws DAOException Si falla algo en la bd.
+     */
+    public void refresh() throws DAOException {
+        synchronized (refreshLock) {
+            synchronized (this) {
+                pending = new ArrayList<Change>();
+            }
+
+            try {
+                User[] users = load();
+
+                synchronized (this) {
+                    for (Change change : pending) {
+                        users = change.applyTo(users);
+                    }
+                    snapshot = new Snapshot(users);
+                }
+            } finally {
+                synchronized (this) {
+                    pending = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Para la recarga en segundo plano.
+     */
+    void shutdown() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+        }
+    }
+
+    /**
+     * Devuelve una copia del usuario con el ID dado, o null si no existe. La copia es del que
+     * llama: se puede modificar sin que cambie el directorio.
+     *
+     * @param id El ID del usuario.
+     * @return Una copia del usuario, sin proyectos, o null.
+     */
+    public User find(Long id) {
+        Snapshot s = snapshot;
+        int index = (id != null) ? s.indexOf(id) : -1;
+        if (index < 0) {
+            return null;
+        }
+
+        User user = copy(s.users[index]);
+        user.setProjects(new ArrayList<Project>());
+        return user;
+    }
+
+    /**
+     * Devuelve los usuarios ordenados por el campo dado y después por ID, con los valores nulos
+     * primero en orden ascendente como en MySQL, y filtrados por los filtros dados: cada valor es
+     * un prefijo del campo, sin distinguir mayúsculas. Sin filtros, la lista es la compartida de la
+     * instantánea actual.
+     *
+     * @param sortField El campo por el que ordenar, o null para el ID.
+     * @param ascending true para orden ascendente.
+     * @param filters Los prefijos de cada campo, puede ser null.
+     * @return La lista inmutable de usuarios.
+     * @throws IllegalArgumentException Si no se puede ordenar o filtrar por alguno de los campos.
+     */
+    public List<User> list(String sortField, boolean ascending, Map<String, String> filters)
+            throws IllegalArgumentException {
+        String field = (sortField != null) ? sortField : "id";
+        if (!SORTABLE_FIELDS.contains(field)) {
+            throw new IllegalArgumentException("Cannot sort users on '" + sortField + "'.");
+        }
+
+        List<User> sorted = snapshot.sorted(field, ascending);
+        if (filters == null || filters.isEmpty()) {
+            return sorted;
+        }
+
+        for (String key : filters.keySet()) {
+            if (!FILTERABLE_FIELDS.contains(key)) {
+                throw new IllegalArgumentException("Cannot filter users on '" + key + "'.");
+            }
+        }
+
+        List<User> filtered = new ArrayList<User>();
+        for (User user : sorted) {
+            if (matches(user, filters)) {
+                filtered.add(user);
+            }
+        }
+        return Collections.unmodifiableList(filtered);
+    }
+
+    /**
+     * Devuelve el número de usuarios del directorio.
+     *
+     * @return El número de usuarios.
+     */
+    public int size() {
+        return snapshot.users.length;
+    }
+
+    @Override
+    public void usersSaved(List<User> saved) {
+        User[] copies = new User[saved.size()];
+        for (int i = 0; i < copies.length; i++) {
+            copies[i] = copy(saved.get(i));
+        }
+        apply(new Change(copies, null));
+    }
+
+    @Override
+    public void userDeleted(Long id) {
+        apply(new Change(null, id));
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    private User[] load() throws DAOException {
+        List<User> users = new ArrayList<User>();
+
+        try (
+            Connection connection = daoFactory.getConnection();
+            PreparedStatement statement = connection.prepareStatement(SQL_LIST);
+            ResultSet resultSet = statement.executeQuery();
+        ) {
+            while (resultSet.next()) {
+                users.add(copy(USER.map(resultSet)));
+            }
+        } catch (SQLException e) {
+            throw new DAOException(e);
+        }
+
+        return users.toArray(new User[users.size()]);
+    }
+
+    /**
+     * Aplica el cambio dado a la instantánea actual, si ya se ha cargado, y lo guarda si hay una
+     * carga en curso.
+     */
+    private synchronized void apply(Change change) {
+        if (pending != null) {
+            pending.add(change);
+        }
+
+        Snapshot s = snapshot;
+        if (s != null) {
+            User[] users = change.applyTo(s.users);
+            if (users != s.users) {
+                snapshot = new Snapshot(users);
+            }
+        }
+    }
+
+    /**
+     * Devuelve los usuarios dados con los grabados cambiados o añadidos en su sitio, en un array
+     * nuevo.
+     */
+    private static User[] save(User[] users, User[] saved) {
+        User[] added = new User[saved.length];
+        int addedCount = 0;
+        boolean copied = false;
+
+        for (User user : saved) {
+            int index = indexOf(users, user.getId());
+            if (index >= 0) {
+                if (!copied) {
+                    users = users.clone();
+                    copied = true;
+                }
+                users[index] = user;
+            } else {
+                added[addedCount++] = user;
+            }
+        }
+
+        if (addedCount > 0) {
+            User[] merged = Arrays.copyOf(users, users.length + addedCount);
+            System.arraycopy(added, 0, merged, users.length, addedCount);
+            Arrays.sort(merged, BY_ID);
+            users = merged;
+        }
+
+        return users;
+    }
+
+    /**
+     * Devuelve los usuarios dados sin el del ID dado, en un array nuevo, o los mismos si no está.
+     */
+    private static User[] delete(User[] users, Long id) {
+        int index = indexOf(users, id);
+
+        if (index < 0) {
+            return users;
+        }
+
+        User[] result = new User[users.length - 1];
+        System.arraycopy(users, 0, result, 0, index);
+        System.arraycopy(users, index + 1, result, index, users.length - index - 1);
+        return result;
+    }
+
+    /**
+     * Devuelve una copia del usuario dado sin contraseña ni proyectos, con su propia fecha de
+     * nacimiento, para no compartir el objeto de quien lo ha grabado ni con quien lo pide.
+     */
+    private static User copy(User user) {
+        User copy = new User();
+        copy.setId(user.getId());
+        copy.setEmail(user.getEmail());
+        copy.setFirstname(user.getFirstname());
+        copy.setLastname(user.getLastname());
+        copy.setBirthdate((user.getBirthdate() != null) ? (Date) user.getBirthdate().clone() : null);
+        copy.setProjects(Collections.emptyList());
+        return copy;
+    }
+
+    private static int indexOf(User[] users, Long id) {
+        int low = 0;
+        int high = users.length - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long middleId = users[middle].getId();
+            if (middleId < id) {
+                low = middle + 1;
+            } else if (middleId > id) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+
+        return -(low + 1);
+    }
+
+    private static boolean matches(User user, Map<String, String> filters) {
+        for (Map.Entry<String, String> filter : filters.entrySet()) {
+            String prefix = filter.getValue();
+            if (prefix == null || prefix.isEmpty()) {
+                continue;
+            }
+            String value = (String) value(user, filter.getKey());
+            if (value == null || !value.regionMatches(true, 0, prefix, 0, prefix.length())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Object value(User user, String field) {
+        switch (field) {
+            case "email": return user.getEmail();
+            case "firstname": return user.getFirstname();
+            case "lastname": return user.getLastname();
+            case "birthdate": return user.getBirthdate();
+            default: return user.getId();
+        }
+    }
+
+    /**
+     * Devuelve el orden ascendente por el campo dado y después por ID, con los nulos primero.
+     */
+    private static Comparator<User> ascendingBy(final String field) {
+        return new Comparator<User>() {
+            @Override
+            public int compare(User left, User right) {
+                Object leftValue = value(left, field);
+                Object rightValue = value(right, field);
+                int result;
+
+                if (leftValue == null || rightValue == null) {
+                    result = (leftValue == null) ? ((rightValue == null) ? 0 : -1) : 1;
+                } else if (leftValue instanceof String) {
+                    result = String.CASE_INSENSITIVE_ORDER.compare((String) leftValue, (String) rightValue);
+                } else if (leftValue instanceof Date) {
+                    result = ((Date) leftValue).compareTo((Date) rightValue);
+                } else {
+                    result = ((Long) leftValue).compareTo((Long) rightValue);
+                }
+
+                return (result != 0) ? result : BY_ID.compare(left, right);
+            }
+        };
+    }
+
+    // Inner classes ------------------------------------------------------------------------------
+
+    /**
+     * Un cambio recibido de los UserDAO: los usuarios grabados, ya copiados, o el ID del borrado.
+     */
+    private static final class Change {
+        private final User[] saved;
+        private final Long deletedId;
+
+        Change(User[] saved, Long deletedId) {
+            this.saved = saved;
+            this.deletedId = deletedId;
+        }
+
+        User[] applyTo(User[] users) {
+            return (saved != null) ? save(users, saved) : delete(users, deletedId);
+        }
+    }
+
+    /**
+     * Instantánea inmutable de los usuarios, ordenados por ID, con sus listas ordenadas por cada
+     * campo que se han pedido hasta ahora.
+     */
+    private static final class Snapshot {
+        private final User[] users;
+        private final ConcurrentMap<String, List<User>> sorted =
+                new ConcurrentHashMap<String, List<User>>();
+
+        Snapshot(User[] users) {
+            this.users = users;
+        }
+
+        int indexOf(long id) {
+            return UserDirectory.indexOf(users, id);
+        }
+
+        List<User> sorted(String field, boolean ascending) {
+            String key = field + (ascending ? " asc" : " desc");
+            List<User> list = sorted.get(key);
+
+            if (list == null) {
+                User[] copy = users.clone();
+                if (!"id".equals(field)) {
+                    Arrays.sort(copy, ascendingBy(field));
+                }
+                if (!ascending) {
+                    Collections.reverse(Arrays.asList(copy));
+                }
+                list = Collections.unmodifiableList(Arrays.asList(copy));
+                List<User> other = sorted.putIfAbsent(key, list);
+                if (other != null) {
+                    list = other;
+                }
+            }
+
+            return list;
+        }
+    }
+
+}
@@ -0,0 +1,40 @@
+package es.trapasoft.jsf.filters;
+
+import es.trapasoft.jsf.dao.DAOFactory;
+import java.io.IOException;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+/**
+ * Envuelve cada petición en una unidad de trabajo de los DAO: todas las llamadas a los DAO de la
+ * petición comparten una única conexión por DAOFactory, que se libera al terminar la petición
+ * aunque haya habido excepciones.
+ *
+ * @author alejandro
+ */
+public class UnitOfWorkFilter implements Filter {
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        DAOFactory.beginUnitOfWork();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            DAOFactory.endUnitOfWork();
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+}
@@ -0,0 +1,53 @@
+package es.trapasoft.jsf.listeners;
+
+import es.trapasoft.jsf.dao.DAOException;
+import es.trapasoft.jsf.dao.DAOMetrics;
+import es.trapasoft.jsf.dao.DAORegistry;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * Crea al arrancar la aplicación el DAOFactory compartido de cada base de datos del parámetro de
+ * contexto 'es.trapasoft.jsf.DATABASES' (separadas por comas, por defecto 'javabase.jdbc') y lo
+ * calienta: comprueba la conexión, prepara las consultas en las conexiones del pool y carga el
+ * directorio de usuarios y la jerarquía y el índice de nombres de proyectos. Un error de configuración impide el despliegue;
+ * si la base de datos no responde solo se registra, y se reintenta en las primeras peticiones.
+ * Al parar la aplicación libera los hilos y conexiones de los DAOFactory y las métricas JMX.
+ *
+ * @author alejandro
+ */
+public class DAOStartupListener implements ServletContextListener {
+
+    public static final String DATABASES_PARAM = "es.trapasoft.jsf.DATABASES";
+    private static final String DEFAULT_DATABASES = "javabase.jdbc";
+
+    private static final Logger LOG = Logger.getLogger(DAOStartupListener.class.getName());
+
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+        String databases = event.getServletContext().getInitParameter(DATABASES_PARAM);
+        if (databases == null || databases.trim().isEmpty()) {
+            databases = DEFAULT_DATABASES;
+        }
+
+        for (String name : databases.split(",")) {
+            if (name.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                DAORegistry.warmUp(name.trim());
+            } catch (DAOException e) {
+                LOG.log(Level.SEVERE, "No se ha podido calentar la base de datos '" + name.trim() + "'.", e);
+            }
+        }
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {
+        DAORegistry.shutdown();
+        DAOMetrics.unregisterAll();
+    }
+
+}
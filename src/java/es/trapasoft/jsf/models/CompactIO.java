@@ -0,0 +1,79 @@
+package es.trapasoft.jsf.models;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
+
+/**
+ * Codificación compacta de los campos de los modelos para su serialización Externalizable: los
+ * números enteros como varint (7 bits por byte, en zigzag para que los negativos también ocupen
+ * poco), los textos como su longitud en varint seguida de sus bytes UTF-8, y las fechas sin hora
+ * como el número de días desde el 1 de enero de 1970 en la zona horaria por defecto. Los campos
+ * nulos no se escriben: cada modelo escribe antes una máscara con los campos presentes.
+ *
+ * @author alejandro
+ */
+final class CompactIO {
+
+    private CompactIO() {
+        // Clase de utilidades, sin instancias.
+    }
+
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            out.writeByte((int) ((zigzag & 0x7F) | 0x80));
+            zigzag >>>= 7;
+        }
+        out.writeByte((int) zigzag);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long zigzag = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            zigzag |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+        throw new InvalidObjectException("Varint demasiado largo.");
+    }
+
+    static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        long length = readVarLong(in);
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new InvalidObjectException("Longitud de texto no válida: " + length);
+        }
+        byte[] bytes = new byte[(int) length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Escribe la fecha dada como días desde 1970; la hora se pierde, así que es sólo para campos
+     * que en la bd son DATE.
+     */
+    static void writeDay(DataOutput out, Date value) throws IOException {
+        writeVarLong(out, Instant.ofEpochMilli(value.getTime())
+            .atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay());
+    }
+
+    static Date readDay(DataInput in) throws IOException {
+        return Date.from(LocalDate.ofEpochDay(readVarLong(in))
+            .atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+
+}
@@ -5,16 +5,21 @@
  */
 package es.trapasoft.jsf.models;
 
-import java.io.Serializable;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Objects;
 
 /**
  *
  * @author alejandro
  */
-public class Project implements Serializable {
+public class Project implements Externalizable {
 
     /*
         +----------------+--------------+------+-----+---------------------+-----------------------------+ 
@@ -31,6 +36,23 @@ public class Project implements Serializable {
         | parent_id      | int(11)      | YES  |     | NULL                |                             | 
         +----------------+--------------+------+-----+---------------------+-----------------------------+ 
      */
+    private static final long serialVersionUID = 1L;
+
+    /** La versión del formato de {@link #writeExternal(ObjectOutput)}. */
+    private static final int FORMAT = 1;
+
+    // Los campos, como bits de {@link #getDirtyFields()}. Los seis primeros van en el orden de las
+    // columnas del UPDATE del DAO.
+    public static final int FIELD_NAME = 1;
+    public static final int FIELD_DESCRIPTION = 2;
+    public static final int FIELD_START_DATE = 4;
+    public static final int FIELD_DUE_DATE = 8;
+    public static final int FIELD_ESTIMATED_HOURS = 16;
+    public static final int FIELD_PARENT_ID = 32;
+    public static final int FIELD_CREATED_AT = 64;
+    public static final int FIELD_UPDATED_AT = 128;
+    public static final int ALL_FIELDS = 255;
+
     private Long id, parentId;
     private String name, description;
     private Date startDate, dueDate, createdAt, updatedAt;
@@ -38,6 +60,10 @@ public class Project implements Serializable {
 
     private List<User> users;
 
+    // Los campos cambiados desde que se leyó de la bd o se grabó, y si se ha leído o grabado.
+    private transient int dirtyFields;
+    private transient boolean tracked;
+
     public Project() {
         users = new ArrayList<User>();
     }
@@ -55,6 +81,9 @@ public class Project implements Serializable {
     }
 
     public void setName(String name) {
+        if (!Objects.equals(this.name, name)) {
+            dirtyFields |= FIELD_NAME;
+        }
         this.name = name;
     }
 
@@ -63,6 +92,9 @@ public class Project implements Serializable {
     }
 
     public void setDescription(String description) {
+        if (!Objects.equals(this.description, description)) {
+            dirtyFields |= FIELD_DESCRIPTION;
+        }
         this.description = description;
     }
 
@@ -71,6 +103,9 @@ public class Project implements Serializable {
     }
 
     public void setStartDate(Date startDate) {
+        if (!sameTime(this.startDate, startDate)) {
+            dirtyFields |= FIELD_START_DATE;
+        }
         this.startDate = startDate;
     }
 
@@ -79,6 +114,9 @@ public class Project implements Serializable {
     }
 
     public void setDueDate(Date dueDate) {
+        if (!sameTime(this.dueDate, dueDate)) {
+            dirtyFields |= FIELD_DUE_DATE;
+        }
         this.dueDate = dueDate;
     }
 
@@ -87,6 +125,9 @@ public class Project implements Serializable {
     }
 
     public void setCreatedAt(Date createdAt) {
+        if (!sameTime(this.createdAt, createdAt)) {
+            dirtyFields |= FIELD_CREATED_AT;
+        }
         this.createdAt = createdAt;
     }
 
@@ -95,6 +136,9 @@ public class Project implements Serializable {
     }
 
     public void setUpdatedAt(Date updatedAt) {
+        if (!sameTime(this.updatedAt, updatedAt)) {
+            dirtyFields |= FIELD_UPDATED_AT;
+        }
         this.updatedAt = updatedAt;
     }
 
@@ -103,6 +147,9 @@ public class Project implements Serializable {
     }
 
     public void setEstimatedHours(double estimatedHours) {
+        if (Double.compare(this.estimatedHours, estimatedHours) != 0) {
+            dirtyFields |= FIELD_ESTIMATED_HOURS;
+        }
         this.estimatedHours = estimatedHours;
     }
 
@@ -111,6 +158,9 @@ public class Project implements Serializable {
     }
 
     public void setParentId(Long parentId) {
+        if (!Objects.equals(this.parentId, parentId)) {
+            dirtyFields |= FIELD_PARENT_ID;
+        }
         this.parentId = parentId;
     }
 
@@ -122,6 +172,83 @@ public class Project implements Serializable {
         this.users = users;
     }
 
+    /**
+     * Devuelve los campos cambiados por los setters desde que el proyecto se leyó de la bd o se
+     * grabó en ella, como bits FIELD_*. Si el proyecto no viene de la bd se consideran cambiados
+     * todos. Un setter que deja el mismo valor no marca el campo.
+     *
+     * @return Los bits de los campos cambiados, 0 si no ha cambiado ninguno.
+     */
+    public int getDirtyFields() {
+        return tracked ? dirtyFields : ALL_FIELDS;
+    }
+
+    /**
+     * Devuelve true si ha cambiado algún campo desde que el proyecto se leyó de la bd o se grabó.
+     *
+     * @return True si hay algo que grabar.
+     */
+    public boolean isDirty() {
+        return getDirtyFields() != 0;
+    }
+
+    /**
+     * Marca el proyecto como igual al de la bd, sin campos cambiados. Lo llama el DAO al leerlo y
+     * al grabarlo.
+     */
+    public void markClean() {
+        dirtyFields = 0;
+        tracked = true;
+    }
+
+    private static boolean sameTime(Date date, Date other) {
+        return (date == null) ? (other == null) : (other != null && date.getTime() == other.getTime());
+    }
+
+    /**
+     * Escribe el proyecto en formato compacto, para la sesión: IDs en varint, fechas de inicio y
+     * fin en días, createdAt y updatedAt en milisegundos varint y sólo los campos no nulos. Los
+     * usuarios no se escriben; tras leerlo la lista está vacía. Tampoco los campos cambiados: tras
+     * leerlo se consideran cambiados todos.
+     */
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        int present = (id != null ? 1 : 0) | (parentId != null ? 2 : 0) | (name != null ? 4 : 0)
+            | (description != null ? 8 : 0) | (startDate != null ? 16 : 0) | (dueDate != null ? 32 : 0)
+            | (createdAt != null ? 64 : 0) | (updatedAt != null ? 128 : 0)
+            | (estimatedHours != 0 ? 256 : 0);
+        out.writeByte(FORMAT);
+        CompactIO.writeVarLong(out, present);
+        if (id != null) CompactIO.writeVarLong(out, id);
+        if (parentId != null) CompactIO.writeVarLong(out, parentId);
+        if (name != null) CompactIO.writeString(out, name);
+        if (description != null) CompactIO.writeString(out, description);
+        if (startDate != null) CompactIO.writeDay(out, startDate);
+        if (dueDate != null) CompactIO.writeDay(out, dueDate);
+        if (createdAt != null) CompactIO.writeVarLong(out, createdAt.getTime());
+        if (updatedAt != null) CompactIO.writeVarLong(out, updatedAt.getTime());
+        if (estimatedHours != 0) out.writeDouble(estimatedHours);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        int format = in.readUnsignedByte();
+        if (format != FORMAT) {
+            throw new InvalidObjectException("Formato de proyecto desconocido: " + format);
+        }
+        long present = CompactIO.readVarLong(in);
+        id = ((present & 1) != 0) ? CompactIO.readVarLong(in) : null;
+        parentId = ((present & 2) != 0) ? CompactIO.readVarLong(in) : null;
+        name = ((present & 4) != 0) ? CompactIO.readString(in) : null;
+        description = ((present & 8) != 0) ? CompactIO.readString(in) : null;
+        startDate = ((present & 16) != 0) ? CompactIO.readDay(in) : null;
+        dueDate = ((present & 32) != 0) ? CompactIO.readDay(in) : null;
+        createdAt = ((present & 64) != 0) ? new Date(CompactIO.readVarLong(in)) : null;
+        updatedAt = ((present & 128) != 0) ? new Date(CompactIO.readVarLong(in)) : null;
+        estimatedHours = ((present & 256) != 0) ? in.readDouble() : 0;
+        users = new ArrayList<User>();
+    }
+
     /**
      * El ID es único. Así que sólo tenemos que comparar el ID de los proyectos.
      *
@@ -1,10 +1,15 @@
 
 package es.trapasoft.jsf.models;
 
-import java.io.Serializable;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Objects;
  
 /**
  * Esta clase representa el modelo de Usuario. Esta clase del model puede usarse en todas las capas: 
@@ -13,11 +18,23 @@ import java.util.List;
  * @author BalusC
  * @link http://balusc.blogspot.com/2008/07/dao-tutorial-data-layer.html
  */
-public class User implements Serializable {
+public class User implements Externalizable {
  
     // Constantes ----------------------------------------------------------------------------------
  
     private static final long serialVersionUID = 1L;
+
+    /** La versión del formato de {@link #writeExternal(ObjectOutput)}. */
+    private static final int FORMAT = 1;
+
+    // Los campos, como bits de {@link #getDirtyFields()}. Los cuatro primeros van en el orden de las
+    // columnas del UPDATE del DAO.
+    public static final int FIELD_EMAIL = 1;
+    public static final int FIELD_FIRSTNAME = 2;
+    public static final int FIELD_LASTNAME = 4;
+    public static final int FIELD_BIRTHDATE = 8;
+    public static final int FIELD_PASSWORD = 16;
+    public static final int ALL_FIELDS = 31;
  
     // Propiedades---------------------------------------------------------------------------------
  
@@ -29,6 +46,10 @@ public class User implements Serializable {
     private Date birthdate;
  
     private List<Project> projects;
+
+    // Los campos cambiados desde que se leyó de la bd o se grabó, y si se ha leído o grabado.
+    private transient int dirtyFields;
+    private transient boolean tracked;
     
     
     public User() {
@@ -49,6 +70,9 @@ public class User implements Serializable {
     }
  
     public void setEmail(String email) {
+        if (!Objects.equals(this.email, email)) {
+            dirtyFields |= FIELD_EMAIL;
+        }
         this.email = email;
     }
  
@@ -57,6 +81,9 @@ public class User implements Serializable {
     }
  
     public void setPassword(String password) {
+        if (!Objects.equals(this.password, password)) {
+            dirtyFields |= FIELD_PASSWORD;
+        }
         this.password = password;
     }
  
@@ -65,6 +92,9 @@ public class User implements Serializable {
     }
  
     public void setFirstname(String firstname) {
+        if (!Objects.equals(this.firstname, firstname)) {
+            dirtyFields |= FIELD_FIRSTNAME;
+        }
         this.firstname = firstname;
     }
  
@@ -73,6 +103,9 @@ public class User implements Serializable {
     }
  
     public void setLastname(String lastname) {
+        if (!Objects.equals(this.lastname, lastname)) {
+            dirtyFields |= FIELD_LASTNAME;
+        }
         this.lastname = lastname;
     }
  
@@ -81,6 +114,9 @@ public class User implements Serializable {
     }
  
     public void setBirthdate(Date birthdate) {
+        if (!sameTime(this.birthdate, birthdate)) {
+            dirtyFields |= FIELD_BIRTHDATE;
+        }
         this.birthdate = birthdate;
     }
 
@@ -92,6 +128,83 @@ public class User implements Serializable {
         this.projects = projects;
     }
  
+    // Cambios ------------------------------------------------------------------------------------
+
+    /**
+     * Devuelve los campos cambiados por los setters desde que el usuario se leyó de la bd o se grabó
+     * en ella, como bits FIELD_*. Si el usuario no viene de la bd se consideran cambiados todos.
+     * Un setter que deja el mismo valor no marca el campo.
+     *
+     * @return Los bits de los campos cambiados, 0 si no ha cambiado ninguno.
+     */
+    public int getDirtyFields() {
+        return tracked ? dirtyFields : ALL_FIELDS;
+    }
+
+    /**
+     * Devuelve true si ha cambiado algún campo desde que el usuario se leyó de la bd o se grabó.
+     *
+     * @return True si hay algo que grabar.
+     */
+    public boolean isDirty() {
+        return getDirtyFields() != 0;
+    }
+
+    /**
+     * Marca el usuario como igual al de la bd, sin campos cambiados. Lo llama el DAO al leerlo y al
+     * grabarlo.
+     */
+    public void markClean() {
+        dirtyFields = 0;
+        tracked = true;
+    }
+
+    private static boolean sameTime(Date date, Date other) {
+        return (date == null) ? (other == null) : (other != null && date.getTime() == other.getTime());
+    }
+
+    // Externalizable ----------------------------------------------------------------------------
+
+    /**
+     * Escribe el usuario en formato compacto, para la sesión: el ID en varint, la fecha de
+     * nacimiento en días y sólo los campos no nulos. La contraseña no se escribe nunca, para que no
+     * acabe en la sesión serializada; tras leerlo es nula. Los proyectos no se escriben; tras leerlo
+     * la lista está vacía y hay que volver a pedirlos al DAO si hacen falta. Tampoco los campos
+     * cambiados: tras leerlo se consideran cambiados todos.
+     */
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        // el bit 4 no se usa
+        int present = (id != null ? 1 : 0) | (email != null ? 2 : 0)
+            | (firstname != null ? 8 : 0) | (lastname != null ? 16 : 0) | (birthdate != null ? 32 : 0);
+        out.writeByte(FORMAT);
+        out.writeByte(present);
+        if (id != null) CompactIO.writeVarLong(out, id);
+        if (email != null) CompactIO.writeString(out, email);
+        if (firstname != null) CompactIO.writeString(out, firstname);
+        if (lastname != null) CompactIO.writeString(out, lastname);
+        if (birthdate != null) CompactIO.writeDay(out, birthdate);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        int format = in.readUnsignedByte();
+        if (format != FORMAT) {
+            throw new InvalidObjectException("Formato de usuario desconocido: " + format);
+        }
+        int present = in.readUnsignedByte();
+        if ((present & ~(1 | 2 | 8 | 16 | 32)) != 0) {
+            throw new InvalidObjectException("Campos de usuario desconocidos: " + present);
+        }
+        id = ((present & 1) != 0) ? CompactIO.readVarLong(in) : null;
+        email = ((present & 2) != 0) ? CompactIO.readString(in) : null;
+        password = null;
+        firstname = ((present & 8) != 0) ? CompactIO.readString(in) : null;
+        lastname = ((present & 16) != 0) ? CompactIO.readString(in) : null;
+        birthdate = ((present & 32) != 0) ? CompactIO.readDay(in) : null;
+        projects = new ArrayList<Project>();
+    }
+
     // Object overrides ---------------------------------------------------------------------------
  
     /**
@@ -127,7 +240,9 @@ public class User implements Serializable {
     }
     
     /**
-     * Comprueba si el objeto está vacío, aunque esté creado
+     * Comprueba si el objeto está vacío, aunque esté creado. Los proyectos se miran los últimos
+     * y sólo sin ID: un usuario sin ID no viene de la bd, así que su lista no es perezosa y
+     * mirarla no carga nada.
      * @return 
      */
     public boolean isEmpty() {
@@ -135,9 +250,8 @@ public class User implements Serializable {
                 || firstname != null 
                 || lastname != null 
                 || email != null 
-                || birthdate != null 
-                || (!projects.isEmpty())) return false;
-        return true;
+                || birthdate != null) return false;
+        return projects == null || projects.isEmpty();
     }
  
 }
\ No newline at end of file
@@ -0,0 +1,46 @@
+package es.trapasoft.jsf.servlets;
+
+import es.trapasoft.jsf.dao.DAOMetrics;
+import java.io.IOException;
+import java.io.PrintWriter;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Sirve en texto plano las métricas de los DAO de todas las bases de datos que las tienen activadas
+ * con la propiedad 'name.metrics': llamadas, errores y filas de cada método de los DAO y de cada
+ * consulta SQL con sus percentiles de latencia en microsegundos, y el tiempo de obtener conexiones
+ * con las conexiones activas y libres del pool. Son las mismas que se publican por JMX, para
+ * consultarlas sin consola JMX.
+ *
+ * Como los nombres de las consultas y los tiempos dicen mucho de la aplicación, web.xml sólo deja
+ * entrar a los usuarios con el rol 'dao-metrics' del realm del contenedor. Si ninguna base de
+ * datos tiene las métricas activadas, contesta 404, como si el servlet no estuviera.
+ *
+ * @author alejandro
+ */
+public class DAOMetricsServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        if (DAOMetrics.getInstances().isEmpty()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        response.setContentType("text/plain");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+
+        PrintWriter writer = response.getWriter();
+        for (DAOMetrics metrics : DAOMetrics.getInstances()) {
+            writer.println(metrics.report());
+        }
+    }
+
+}
@@ -0,0 +1,9 @@
+-- Las contraseñas ya no se guardan como MD5(?) calculado en MySQL, sino como un hash PBKDF2 con
+-- sal calculado en la aplicación (es.trapasoft.jsf.dao.PasswordHasher), con el formato
+-- 'pbkdf2-sha512$iteraciones$sal$hash', de unos 90 caracteres. Hay que ampliar la columna antes
+-- de desplegar esta versión.
+--
+-- Las contraseñas MD5 que ya hay se siguen aceptando, y se vuelven a guardar con el formato nuevo
+-- la primera vez que su usuario entra. El índice único sobre email es el que usa el login.
+
+ALTER TABLE users MODIFY password VARCHAR(128) CHARACTER SET ascii COLLATE ascii_bin NOT NULL;
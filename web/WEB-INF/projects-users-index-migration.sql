@@ -0,0 +1,6 @@
+-- La tabla projects_users sólo tiene la clave primaria (user_id, project_id), que no sirve para
+-- buscar por project_id: las asociaciones de un proyecto (ProjectDAO.findUsersByProjectId,
+-- setProjectMembers y la carga en bloque de AssociationLoader) recorrían la tabla entera. Con
+-- este índice se leen sólo las filas del proyecto.
+
+CREATE INDEX projects_users_project ON projects_users (project_id, user_id);